@@ -0,0 +1,203 @@
+package com.safits;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Locale;
+
+/**
+ * The archive writer streams an exported product into a single archive file, reading every file once
+ * and writing it straight into the archive, without a copy of the product on disk in between.
+ *
+ * Entries are written in the order they are added. Files that are compressed already, like jars,
+ * are stored as they are instead of being deflated again. Entries carry unix permissions,
+ * so executables like the launcher can still be run after the archive is extracted.
+ *
+ * The archive is written to a temporary file first and moved into place when complete,
+ * so a failed export does not leave a truncated archive behind.
+ */
+abstract class ArchiveWriter {
+
+	/**
+	 * The kinds of archive
+	 */
+	enum Format {
+		/** a zip file */
+		ZIP(".zip"),
+		/** a gzip compressed tar file */
+		TAR_GZ(".tar.gz");
+
+		final String extension;
+
+		Format(String extension) {
+			this.extension = extension;
+		}
+
+		/**
+		 * @param name of a format, like 'zip' or 'tar.gz'
+		 * @return the format
+		 * @throws IllegalArgumentException if there is no such format
+		 */
+		static Format of(String name) {
+			return valueOf(name.toUpperCase(Locale.ROOT).replace('.', '_'));
+		}
+	}
+
+	/** the permissions of directories and executable files */
+	static final int EXECUTABLE_MODE = 0755;
+
+	/** the permissions of other files */
+	static final int FILE_MODE = 0644;
+
+	/** extensions of files that would not get smaller by deflating them again */
+	private static final String[] COMPRESSED_EXTENSIONS = {
+			".jar", ".zip", ".gz", ".tgz", ".xz", ".bz2", ".png", ".jpg", ".jpeg", ".gif" };
+
+	private final File archive;
+
+	/** the file the archive is written to until it is complete */
+	protected final File temporary;
+
+	private boolean finished;
+
+	private int entryCount;
+
+	private int storedCount;
+
+	protected ArchiveWriter(File archive) {
+		this.archive = archive;
+		this.temporary = new File(archive.getPath() + ".tmp");
+	}
+
+	/**
+	 * Start writing an archive
+	 * @param archive the file to write
+	 * @param format of the archive
+	 * @return the writer
+	 * @throws IOException if the archive cannot be created
+	 */
+	static ArchiveWriter open(File archive, Format format)
+	throws IOException {
+		switch (format) {
+		case ZIP:
+			return new ZipArchiveWriter(archive);
+		case TAR_GZ:
+			return new TarArchiveWriter(archive);
+		default:
+			throw new IllegalArgumentException("Unknown archive format " + format);
+		}
+	}
+
+	/**
+	 * @return the archive file
+	 */
+	File getArchive() {
+		return this.archive;
+	}
+
+	/**
+	 * @return the number of entries written
+	 */
+	int getEntryCount() {
+		return this.entryCount;
+	}
+
+	/**
+	 * @return the number of files written as they are, without compressing them again
+	 */
+	int getStoredCount() {
+		return this.storedCount;
+	}
+
+	/**
+	 * Add a directory
+	 * @param path in the archive, with forward slashes and without a trailing slash
+	 * @param time of the directory, in milliseconds since the epoch
+	 * @throws IOException if it cannot be written
+	 */
+	abstract void addDirectory(String path, long time)
+	throws IOException;
+
+	/**
+	 * Add a file, reading it once
+	 * @param file to add
+	 * @param path in the archive, with forward slashes
+	 * @param executable true to mark it executable
+	 * @throws IOException if the file cannot be read or the archive cannot be written
+	 */
+	abstract void addFile(File file, String path, boolean executable)
+	throws IOException;
+
+	/**
+	 * Add a file made in memory
+	 * @param content of the file
+	 * @param path in the archive, with forward slashes
+	 * @param time of the file, in milliseconds since the epoch
+	 * @throws IOException if it cannot be written
+	 */
+	abstract void addContent(byte[] content, String path, long time)
+	throws IOException;
+
+	/**
+	 * Write what ends the archive
+	 */
+	protected abstract void writeEnd()
+	throws IOException;
+
+	/**
+	 * Close the streams the archive is written to
+	 */
+	protected abstract void closeStreams()
+	throws IOException;
+
+	/**
+	 * Count an entry written
+	 * @param stored true if it was written as it is
+	 */
+	protected void counted(boolean stored) {
+		this.entryCount++;
+		if (stored)
+			this.storedCount++;
+	}
+
+	/**
+	 * Complete the archive and move it into place
+	 * @throws IOException if it cannot be completed
+	 */
+	void finish()
+	throws IOException {
+		writeEnd();
+		closeStreams();
+		CacheFile.moveIntoPlace(this.temporary, this.archive);
+		this.finished = true;
+	}
+
+	/**
+	 * Give up an archive that was not finished, removing what was written of it
+	 */
+	void abort() {
+		if (this.finished)
+			return;
+		try {
+			closeStreams();
+		}
+		catch (IOException e) {
+			//it is removed anyway
+		}
+		this.temporary.delete();
+	}
+
+	/**
+	 * @param path of a file
+	 * @return true if the file is compressed already, judging by its name
+	 */
+	static boolean isCompressed(String path) {
+		String lowerCase = path.toLowerCase(Locale.ROOT);
+		for (String extension: COMPRESSED_EXTENSIONS) {
+			if (lowerCase.endsWith(extension))
+				return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,362 @@
+package com.safits;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * The bundle catalog knows the bundles of the resource directories by symbolic name,
+ * each with its versions in OSGi order, so that a product plugin is resolved to a well defined version
+ * rather than to whichever jar a directory listing returned last.
+ *
+ * Symbolic name and version are taken from the manifest of each jar, read through its central directory,
+ * or from the file name if the manifest does not tell. The headers that tell what a bundle needs and offers,
+ * which the {@link BundleResolver} works with, are kept too. The catalog is kept in a file together with the size
+ * and modification time of each jar, so on the next build only new and changed jars are read.
+ *
+ * The catalog file is a plain text file, one record per line. The headers of a bundle follow its bundle record:
+ * <pre>
+ * bundle &lt;size&gt; &lt;modification time&gt; &lt;symbolic name&gt; &lt;version&gt; &lt;absolute path&gt;
+ * header &lt;name&gt; &lt;value&gt;
+ * </pre>
+ */
+class BundleCatalog {
+
+	static final String BUNDLE_SYMBOLIC_NAME = "Bundle-SymbolicName";
+
+	static final String BUNDLE_VERSION = "Bundle-Version";
+
+	/** the headers kept for resolving */
+	static final String[] RESOLVER_HEADERS = {
+			"Require-Bundle", "Import-Package", "Export-Package", "Fragment-Host" };
+
+	/**
+	 * Which version to take if the product does not name one
+	 */
+	enum Policy {
+		/** the highest version */
+		HIGHEST,
+		/** the lowest version */
+		LOWEST,
+		/** the only version, it is an error if there are several */
+		UNIQUE;
+
+		/**
+		 * @param name of a policy, like 'highest'
+		 * @return the policy
+		 * @throws IllegalArgumentException if there is no such policy
+		 */
+		static Policy of(String name) {
+			return valueOf(name.toUpperCase(Locale.ROOT));
+		}
+	}
+
+	/**
+	 * A bundle in the catalog
+	 */
+	static class Bundle {
+
+		final String symbolicName;
+
+		final BundleVersion version;
+
+		final JarRecord jar;
+
+		/** the resolver headers the manifest has, by name */
+		final Map<String,String> headers;
+
+		Bundle(String symbolicName, BundleVersion version, JarRecord jar, Map<String,String> headers) {
+			this.symbolicName = symbolicName;
+			this.version = version;
+			this.jar = jar;
+			this.headers = headers;
+		}
+
+		@Override
+		public String toString() {
+			return this.symbolicName + " " + this.version;
+		}
+	}
+
+	private final CacheFile cache;
+
+	/** the bundles by symbolic name, by version */
+	private final Map<String,NavigableMap<BundleVersion,Bundle>> bundles = new HashMap<>();
+
+	/** the bundles by jar */
+	private final Map<File,Bundle> byJar = new HashMap<>();
+
+	/**
+	 * What the catalog file says about a jar
+	 */
+	private static class Record {
+
+		final long size;
+
+		final long lastModified;
+
+		final String symbolicName;
+
+		final String version;
+
+		final Map<String,String> headers = new TreeMap<>();
+
+		Record(long size, long lastModified, String symbolicName, String version) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.symbolicName = symbolicName;
+			this.version = version;
+		}
+	}
+
+	private int readCount;
+
+	private int reusedCount;
+
+	BundleCatalog(File catalogFile) {
+		this.cache = new CacheFile(catalogFile, "bundle catalog", 2);
+	}
+
+	/**
+	 * @return the number of jars whose manifest was read by the last refresh
+	 */
+	int getReadCount() {
+		return this.readCount;
+	}
+
+	/**
+	 * @return the number of jars taken from the catalog file by the last refresh
+	 */
+	int getReusedCount() {
+		return this.reusedCount;
+	}
+
+	/**
+	 * @return the number of bundles, all versions counted
+	 */
+	int size() {
+		int size = 0;
+		for (NavigableMap<BundleVersion,Bundle> versions: this.bundles.values())
+			size += versions.size();
+		return size;
+	}
+
+	/**
+	 * Make the catalog hold the given jars, reading only those that are new or changed since
+	 * the catalog file was written, and write the catalog file if anything changed
+	 * @param jars to catalog. If two jars have the same symbolic name and version, the later one wins.
+	 * @throws IOException if a new or changed jar cannot be read, or the catalog file cannot be written
+	 */
+	void refresh(List<JarRecord> jars)
+	throws IOException {
+		Map<String,Record> stored = load();
+		this.bundles.clear();
+		this.byJar.clear();
+		this.readCount = 0;
+		this.reusedCount = 0;
+		List<String> lines = new ArrayList<>();
+		boolean changed = stored.size() != jars.size();
+		for (JarRecord jar: jars) {
+			String path = jar.file.getAbsolutePath();
+			Record record = stored.get(path);
+			if (record != null && record.size == jar.size && record.lastModified == jar.lastModified)
+				this.reusedCount++;
+			else {
+				record = read(jar);
+				this.readCount++;
+				changed = true;
+			}
+			Bundle bundle = bundle(record, jar);
+			this.bundles.computeIfAbsent(bundle.symbolicName, name -> new TreeMap<>())
+					.put(bundle.version, bundle);
+			this.byJar.put(jar.file.getAbsoluteFile(), bundle);
+			lines.add("bundle " + record.size + " " + record.lastModified + " "
+					+ record.symbolicName + " " + record.version + " " + path);
+			for (Entry<String,String> header: record.headers.entrySet())
+				lines.add("header " + header.getKey() + " " + header.getValue());
+		}
+		if (!changed)
+			return;
+		this.cache.write(lines);
+	}
+
+	private static Bundle bundle(Record record, JarRecord jar)
+	throws IOException {
+		BundleVersion version = BundleVersion.parse(record.version);
+		if (version == null)
+			throw new IOException("Invalid bundle version " + record.version + " of " + jar.file.getAbsolutePath());
+		return new Bundle(record.symbolicName, version, jar, Collections.unmodifiableMap(record.headers));
+	}
+
+	/**
+	 * Describe a jar that is not in the catalog, like the main jar of the project, reading its manifest
+	 * @param jar to describe
+	 * @return the bundle
+	 * @throws IOException if the jar cannot be read
+	 */
+	static Bundle describe(JarRecord jar)
+	throws IOException {
+		return bundle(read(jar), jar);
+	}
+
+	/**
+	 * Load the catalog file
+	 * @return the records by absolute path. Empty if there is no valid catalog file.
+	 */
+	private Map<String,Record> load() {
+		Map<String,Record> records = new HashMap<>();
+		List<String> lines = this.cache.read();
+		if (lines == null)
+			return records;
+		Record record = null;
+		try {
+			for (String line: lines) {
+				if (line.startsWith("bundle ")) {
+					String[] fields = line.split(" ", 6);
+					if (fields.length != 6)
+						throw new IllegalArgumentException(line);
+					record = new Record(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3], fields[4]);
+					records.put(fields[5], record);
+				}
+				else if (line.startsWith("header ") && record != null) {
+					String[] fields = line.split(" ", 3);
+					if (fields.length != 3)
+						throw new IllegalArgumentException(line);
+					record.headers.put(fields[1], fields[2]);
+				}
+				else
+					throw new IllegalArgumentException(line);
+			}
+		}
+		catch (IllegalArgumentException e) {
+			//not ours, start over
+			records.clear();
+		}
+		return records;
+	}
+
+	/**
+	 * Read the symbolic name, version and resolver headers of a jar.
+	 * Jars without a symbolic name are known by the name and version in their file name.
+	 */
+	private static Record read(JarRecord jar)
+	throws IOException {
+		String symbolicName = null;
+		String version = null;
+		Attributes attributes = null;
+		try {
+			ZipCentralDirectory directory = ZipCentralDirectory.read(jar.file.toPath());
+			ZipCentralDirectory.Entry entry = directory.getEntry(JarFile.MANIFEST_NAME);
+			if (entry != null) {
+				attributes = new Manifest(new ByteArrayInputStream(directory.read(entry))).getMainAttributes();
+				symbolicName = attributes.getValue(BUNDLE_SYMBOLIC_NAME);
+				if (symbolicName != null)
+					//without directives like singleton:=true
+					symbolicName = symbolicName.split(";", 2)[0].trim();
+				version = attributes.getValue(BUNDLE_VERSION);
+				if (version != null)
+					version = version.trim();
+			}
+		}
+		catch (IOException e) {
+			throw new IOException("Cannot read the manifest of " + jar.file.getAbsolutePath(), e);
+		}
+		if (symbolicName == null || symbolicName.isEmpty()) {
+			symbolicName = jar.bundleName;
+			version = jar.versionText;
+		}
+		if (version == null || version.isEmpty() || BundleVersion.parse(version) == null)
+			version = jar.versionText != null && BundleVersion.parse(jar.versionText) != null? jar.versionText : "0.0.0";
+		Record record = new Record(jar.size, jar.lastModified, symbolicName.replace(' ', '_'), version);
+		if (attributes != null) {
+			for (String name: RESOLVER_HEADERS) {
+				String value = attributes.getValue(name);
+				if (value != null && !value.trim().isEmpty())
+					record.headers.put(name, value.trim());
+			}
+		}
+		return record;
+	}
+
+	/**
+	 * @return all bundles, by symbolic name and version
+	 */
+	Map<String,NavigableMap<BundleVersion,Bundle>> getBundles() {
+		return this.bundles;
+	}
+
+	/**
+	 * @param jar a file of the catalog
+	 * @return its bundle, or null if it is not in the catalog
+	 */
+	Bundle get(File jar) {
+		return this.byJar.get(jar.getAbsoluteFile());
+	}
+
+	/**
+	 * @param symbolicName of a bundle
+	 * @return all versions of the bundle, ascending. Empty if there are none.
+	 */
+	List<Bundle> getVersions(String symbolicName) {
+		NavigableMap<BundleVersion,Bundle> versions = this.bundles.get(symbolicName);
+		return versions == null? Collections.emptyList() : new ArrayList<>(versions.values());
+	}
+
+	/**
+	 * Find the versions of a bundle that a product plugin may stand for
+	 * @param symbolicName of the bundle
+	 * @param version as given by the product, null, empty or 0.0.0 for any version.
+	 *        A version ending in .qualifier stands for all qualifiers of that version.
+	 * @return the matching bundles, ascending by version
+	 */
+	List<Bundle> candidates(String symbolicName, String version) {
+		List<Bundle> versions = getVersions(symbolicName);
+		if (version == null || version.isEmpty() || "0.0.0".equals(version))
+			return versions;
+		List<Bundle> matching = new ArrayList<>();
+		if (version.endsWith(".qualifier")) {
+			BundleVersion base = BundleVersion.parse(version.substring(0, version.length() - ".qualifier".length()));
+			for (Bundle bundle: versions) {
+				if (base != null && bundle.version.hasNumbers(base))
+					matching.add(bundle);
+			}
+			return matching;
+		}
+		BundleVersion wanted = BundleVersion.parse(version);
+		for (Bundle bundle: versions) {
+			if (bundle.version.equals(wanted))
+				matching.add(bundle);
+		}
+		return matching;
+	}
+
+	/**
+	 * Choose among the candidates of a product plugin
+	 * @param candidates ascending by version, not empty
+	 * @param policy which version to take
+	 * @return the bundle, or null if the policy allows no choice
+	 */
+	static Bundle choose(List<Bundle> candidates, Policy policy) {
+		switch (policy) {
+		case LOWEST:
+			return candidates.get(0);
+		case UNIQUE:
+			return candidates.size() == 1? candidates.get(0) : null;
+		default:
+			return candidates.get(candidates.size() - 1);
+		}
+	}
+
+}
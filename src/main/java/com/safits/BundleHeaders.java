@@ -0,0 +1,251 @@
+package com.safits;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * The bundle headers are computed from the entries of a jar as they are added,
+ * so no separate pass over the classes is needed:
+ * <ul>
+ * <li>Export-Package lists every package holding classes, except private ones.
+ * If the jar has a module-info.class, only the packages the module exports to everybody are listed.</li>
+ * <li>Bundle-ClassPath lists the jar itself and the jars embedded in it, if there are any.</li>
+ * <li>Multi-Release is set if there are entries below META-INF/versions.</li>
+ * </ul>
+ * Classes below META-INF/versions/&lt;n&gt;/ count for the package they are in below that directory.
+ */
+class BundleHeaders {
+
+	static final String EXPORT_PACKAGE = "Export-Package";
+
+	static final String BUNDLE_CLASSPATH = "Bundle-ClassPath";
+
+	static final String MULTI_RELEASE = "Multi-Release";
+
+	private static final String VERSIONS = "META-INF/versions/";
+
+	private static final String MODULE_INFO = "module-info.class";
+
+	private final List<String> privatePackages;
+
+	private final SortedSet<String> packages = new TreeSet<>();
+
+	private final List<String> embeddedJars = new ArrayList<>();
+
+	private boolean multiRelease;
+
+	/** the packages exported by module-info.class, or null if there is none */
+	private SortedSet<String> moduleExports;
+
+	/**
+	 * @param privatePackages packages not to export, together with their sub packages
+	 */
+	BundleHeaders(List<String> privatePackages) {
+		this.privatePackages = privatePackages;
+	}
+
+	/**
+	 * Take note of an entry
+	 * @param entryName the name in the jar
+	 * @param file the file the entry is made from
+	 * @throws IOException if a module-info.class cannot be read or parsed
+	 */
+	void entry(String entryName, File file)
+	throws IOException {
+		String name = entryName;
+		if (name.startsWith(VERSIONS)) {
+			this.multiRelease = true;
+			int slash = name.indexOf('/', VERSIONS.length());
+			if (slash < 0)
+				return;
+			name = name.substring(slash + 1);
+		}
+		if (MODULE_INFO.equals(name)) {
+			if (this.moduleExports == null)
+				this.moduleExports = new TreeSet<>();
+			this.moduleExports.addAll(moduleExports(Files.readAllBytes(file.toPath())));
+			return;
+		}
+		if (name.endsWith(".jar") && !entryName.startsWith("META-INF/")) {
+			this.embeddedJars.add(entryName);
+			return;
+		}
+		String packageName = JarIndex.packageOf(name);
+		if (packageName != null && !isPrivate(packageName))
+			this.packages.add(packageName);
+	}
+
+	private boolean isPrivate(String packageName) {
+		for (String privatePackage: this.privatePackages) {
+			if (packageName.equals(privatePackage) || packageName.startsWith(privatePackage + "."))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the computed headers, by name
+	 */
+	Map<String,String> getHeaders() {
+		Map<String,String> headers = new LinkedHashMap<>();
+		if (!this.embeddedJars.isEmpty())
+			headers.put(BUNDLE_CLASSPATH, ".," + String.join(",", this.embeddedJars));
+		SortedSet<String> exported = this.moduleExports != null? this.moduleExports : this.packages;
+		if (!exported.isEmpty())
+			headers.put(EXPORT_PACKAGE, String.join(",", exported));
+		if (this.multiRelease)
+			headers.put(MULTI_RELEASE, "true");
+		return headers;
+	}
+
+	/**
+	 * Tell whether a header given in the manifest agrees with the computed one.
+	 * For Export-Package only the package names count, not their attributes and directives.
+	 * @param name of the header
+	 * @param given value in the manifest
+	 * @param computed value
+	 * @return true if they agree
+	 */
+	static boolean agrees(String name, String given, String computed) {
+		if (EXPORT_PACKAGE.equals(name))
+			return packageNames(given).equals(packageNames(computed));
+		return given.replaceAll("\\s", "").equals(computed.replaceAll("\\s", ""));
+	}
+
+	private static SortedSet<String> packageNames(String exportPackage) {
+		SortedSet<String> names = new TreeSet<>();
+		boolean quoted = false;
+		boolean inName = true;
+		StringBuilder name = new StringBuilder();
+		for (char c: exportPackage.toCharArray()) {
+			if (c == '"')
+				quoted = !quoted;
+			else if (c == ',' && !quoted) {
+				names.add(name.toString().trim());
+				name.setLength(0);
+				inName = true;
+				continue;
+			}
+			else if (c == ';' && !quoted)
+				inName = false;
+			if (inName)
+				name.append(c);
+		}
+		names.add(name.toString().trim());
+		names.remove("");
+		return names;
+	}
+
+	/**
+	 * Read the packages a module-info.class exports to everybody
+	 * @param classFile the content of module-info.class
+	 * @return the package names, with dots
+	 * @throws IOException if it is not a valid module-info.class
+	 */
+	static List<String> moduleExports(byte[] classFile)
+	throws IOException {
+		try {
+			return readModuleExports(classFile);
+		}
+		catch (RuntimeException e) {
+			//indexes pointing nowhere
+			throw new IOException("Corrupt module-info.class", e);
+		}
+	}
+
+	private static List<String> readModuleExports(byte[] classFile)
+	throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+		if (in.readInt() != 0xcafebabe)
+			throw new IOException("Not a class file");
+		in.readUnsignedShort();
+		in.readUnsignedShort();
+
+		//the constant pool, keeping the strings and where the packages point to
+		int count = in.readUnsignedShort();
+		String[] utf8 = new String[count];
+		int[] packageNames = new int[count];
+		for (int i = 1; i < count; i++) {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+			case 1:
+				utf8[i] = in.readUTF();
+				break;
+			case 7: case 8: case 16: case 19:
+				in.readUnsignedShort();
+				break;
+			case 20:
+				packageNames[i] = in.readUnsignedShort();
+				break;
+			case 15:
+				in.skipBytes(3);
+				break;
+			case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+				in.skipBytes(4);
+				break;
+			case 5: case 6:
+				in.skipBytes(8);
+				//takes two slots
+				i++;
+				break;
+			default:
+				throw new IOException("Unknown constant pool tag " + tag);
+			}
+		}
+
+		in.readUnsignedShort();
+		in.readUnsignedShort();
+		in.readUnsignedShort();
+		in.skipBytes(2 * in.readUnsignedShort());
+		for (int members = 0; members < 2; members++) {
+			//fields, then methods
+			int memberCount = in.readUnsignedShort();
+			for (int i = 0; i < memberCount; i++) {
+				in.skipBytes(6);
+				skipAttributes(in);
+			}
+		}
+		int attributeCount = in.readUnsignedShort();
+		for (int i = 0; i < attributeCount; i++) {
+			String attributeName = utf8[in.readUnsignedShort()];
+			int length = in.readInt();
+			if (!"Module".equals(attributeName)) {
+				in.skipBytes(length);
+				continue;
+			}
+			in.skipBytes(6);
+			in.skipBytes(6 * in.readUnsignedShort());
+			List<String> exports = new ArrayList<>();
+			int exportCount = in.readUnsignedShort();
+			for (int j = 0; j < exportCount; j++) {
+				int packageIndex = in.readUnsignedShort();
+				in.readUnsignedShort();
+				int targetCount = in.readUnsignedShort();
+				in.skipBytes(2 * targetCount);
+				if (targetCount == 0)
+					exports.add(utf8[packageNames[packageIndex]].replace('/', '.'));
+			}
+			return exports;
+		}
+		throw new IOException("No Module attribute");
+	}
+
+	private static void skipAttributes(DataInputStream in)
+	throws IOException {
+		int count = in.readUnsignedShort();
+		for (int i = 0; i < count; i++) {
+			in.readUnsignedShort();
+			in.skipBytes(in.readInt());
+		}
+	}
+
+}
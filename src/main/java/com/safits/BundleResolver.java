@@ -0,0 +1,457 @@
+package com.safits;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.module.ModuleDescriptor;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The bundle resolver computes which bundles a product needs, starting from the bundles
+ * the product names and following their Require-Bundle, Import-Package and Fragment-Host headers
+ * through the {@link BundleCatalog}, so that a missing bundle is reported when the product is exported
+ * rather than when it is started.
+ *
+ * The closure is computed with a work queue: each bundle selected is queued once, and its requirements
+ * are satisfied by a bundle selected already if possible, or else by a bundle of the first catalog that has one,
+ * which is selected and queued in turn. Requirements that are marked optional are satisfied if possible
+ * and never reported. Packages of the Java runtime, which the system bundle exports, need no bundle:
+ * those of the runtime the product is configured to run on, or else those of the runtime running the build.
+ *
+ * This is a check of what is there, not a full OSGi resolver: uses constraints, singletons and
+ * capabilities are not considered.
+ */
+class BundleResolver {
+
+	private static final String REQUIRE_BUNDLE = "Require-Bundle";
+
+	private static final String IMPORT_PACKAGE = "Import-Package";
+
+	private static final String EXPORT_PACKAGE = "Export-Package";
+
+	private static final String FRAGMENT_HOST = "Fragment-Host";
+
+	/** the name Require-Bundle may give the framework by */
+	private static final String SYSTEM_BUNDLE = "system.bundle";
+
+	private static final String FRAMEWORK = "org.eclipse.osgi";
+
+	/**
+	 * One clause of a manifest header, like <code>a.b;c.d;version="[1,2)";resolution:=optional</code>
+	 */
+	static class Clause {
+
+		final List<String> names = new ArrayList<>();
+
+		final Map<String,String> attributes = new HashMap<>();
+
+		final Map<String,String> directives = new HashMap<>();
+
+		boolean isOptional() {
+			return "optional".equals(this.directives.get("resolution"));
+		}
+	}
+
+	/**
+	 * An OSGi version range, like [1.0,2.0) or 1.0 for 1.0 and above
+	 */
+	static class VersionRange {
+
+		private final BundleVersion floor;
+
+		private final boolean floorIncluded;
+
+		private final BundleVersion ceiling;
+
+		private final boolean ceilingIncluded;
+
+		private final String text;
+
+		private VersionRange(BundleVersion floor, boolean floorIncluded, BundleVersion ceiling, boolean ceilingIncluded, String text) {
+			this.floor = floor;
+			this.floorIncluded = floorIncluded;
+			this.ceiling = ceiling;
+			this.ceilingIncluded = ceilingIncluded;
+			this.text = text;
+		}
+
+		/**
+		 * @param text of the range, or null for any version
+		 * @return the range, or null if it cannot be parsed
+		 */
+		static VersionRange parse(String text) {
+			if (text == null || text.trim().isEmpty())
+				return new VersionRange(null, true, null, false, "");
+			String range = text.trim();
+			char first = range.charAt(0);
+			if (first != '[' && first != '(') {
+				BundleVersion floor = BundleVersion.parse(range);
+				return floor == null? null : new VersionRange(floor, true, null, false, range);
+			}
+			char last = range.charAt(range.length() - 1);
+			String[] limits = range.substring(1, range.length() - 1).split(",");
+			if ((last != ']' && last != ')') || limits.length != 2)
+				return null;
+			BundleVersion floor = BundleVersion.parse(limits[0].trim());
+			BundleVersion ceiling = BundleVersion.parse(limits[1].trim());
+			if (floor == null || ceiling == null)
+				return null;
+			return new VersionRange(floor, first == '[', ceiling, last == ']', range);
+		}
+
+		boolean includes(BundleVersion version) {
+			if (this.floor != null) {
+				int result = version.compareTo(this.floor);
+				if (result < 0 || (result == 0 && !this.floorIncluded))
+					return false;
+			}
+			if (this.ceiling != null) {
+				int result = version.compareTo(this.ceiling);
+				if (result > 0 || (result == 0 && !this.ceilingIncluded))
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return this.text;
+		}
+	}
+
+	/**
+	 * A package a bundle exports
+	 */
+	private static class Export {
+
+		final BundleCatalog.Bundle bundle;
+
+		final BundleVersion version;
+
+		Export(BundleCatalog.Bundle bundle, BundleVersion version) {
+			this.bundle = bundle;
+			this.version = version;
+		}
+	}
+
+	/** the catalogs to take missing bundles from, in order of preference */
+	private final List<BundleCatalog> catalogs;
+
+	private final BundleCatalog.Policy policy;
+
+	/** the packages the system bundle exports from the Java runtime */
+	private final Set<String> systemPackages;
+
+	/** the exports of all bundles of each catalog, by package, built when first needed */
+	private List<Map<String,List<Export>>> catalogExports;
+
+	/** the selected bundles by symbolic name, in the order they were selected */
+	private final Map<String,BundleCatalog.Bundle> selected = new LinkedHashMap<>();
+
+	/** the exports of the selected bundles, by package */
+	private final Map<String,List<Export>> selectedExports = new HashMap<>();
+
+	private final List<BundleCatalog.Bundle> added = new ArrayList<>();
+
+	private final Set<String> problems = new TreeSet<>();
+
+	private final Deque<BundleCatalog.Bundle> queue = new ArrayDeque<>();
+
+	/**
+	 * @param catalogs to take missing bundles from, in order of preference
+	 * @param policy which version of a bundle to take if several would do
+	 * @param systemPackages the packages of the Java runtime, see {@link #runtimePackages(File)}
+	 */
+	BundleResolver(List<BundleCatalog> catalogs, BundleCatalog.Policy policy, Set<String> systemPackages) {
+		this.catalogs = catalogs;
+		this.policy = policy;
+		this.systemPackages = systemPackages;
+	}
+
+	/**
+	 * @return the packages the modules of the running Java runtime export to everybody
+	 */
+	static Set<String> runtimePackages() {
+		Set<String> packages = new HashSet<>();
+		for (Module module: ModuleLayer.boot().modules())
+			addExports(module.getDescriptor(), packages);
+		return packages;
+	}
+
+	/**
+	 * The packages the modules of another Java runtime export to everybody, read from its module image
+	 * through the jrt file system, which the runtime running the build can open for runtimes of Java 9 and later.
+	 * @param javaHome of the runtime
+	 * @return the packages
+	 * @throws IOException if it is not such a runtime
+	 */
+	static Set<String> runtimePackages(File javaHome)
+	throws IOException {
+		if (!new File(javaHome, "lib/jrt-fs.jar").isFile())
+			throw new IOException(javaHome + " is not a Java runtime of version 9 or later");
+		Set<String> packages = new HashSet<>();
+		try (FileSystem jrt = FileSystems.newFileSystem(
+					URI.create("jrt:/"), Collections.singletonMap("java.home", javaHome.getPath()));
+				DirectoryStream<Path> modules = Files.newDirectoryStream(jrt.getPath("/modules"))) {
+			for (Path module: modules) {
+				Path descriptor = module.resolve("module-info.class");
+				if (!Files.isRegularFile(descriptor))
+					continue;
+				try (InputStream in = Files.newInputStream(descriptor)) {
+					addExports(ModuleDescriptor.read(in), packages);
+				}
+			}
+		}
+		return packages;
+	}
+
+	private static void addExports(ModuleDescriptor descriptor, Set<String> packages) {
+		for (ModuleDescriptor.Exports exports: descriptor.exports()) {
+			if (!exports.isQualified())
+				packages.add(exports.source());
+		}
+	}
+
+	/**
+	 * Resolve the closure of some bundles
+	 * @param roots the bundles the product names
+	 */
+	void resolve(Collection<BundleCatalog.Bundle> roots) {
+		for (BundleCatalog.Bundle root: roots)
+			select(root, false);
+		while (!this.queue.isEmpty())
+			resolveRequirements(this.queue.removeFirst());
+	}
+
+	/**
+	 * @return the bundles that were not among the roots but are needed by them, in the order they were found
+	 */
+	List<BundleCatalog.Bundle> getAdded() {
+		return this.added;
+	}
+
+	/**
+	 * @return the requirements that cannot be satisfied, sorted
+	 */
+	Set<String> getProblems() {
+		return this.problems;
+	}
+
+	private void select(BundleCatalog.Bundle bundle, boolean add) {
+		if (this.selected.putIfAbsent(bundle.symbolicName, bundle) != null)
+			return;
+		if (add)
+			this.added.add(bundle);
+		for (Clause clause: parse(bundle.headers.get(EXPORT_PACKAGE))) {
+			BundleVersion version = exportVersion(clause);
+			for (String packageName: clause.names)
+				this.selectedExports.computeIfAbsent(packageName, name -> new ArrayList<>()).add(new Export(bundle, version));
+		}
+		this.queue.addLast(bundle);
+	}
+
+	private void resolveRequirements(BundleCatalog.Bundle bundle) {
+		List<Clause> bundleRequirements = new ArrayList<>(parse(bundle.headers.get(REQUIRE_BUNDLE)));
+		bundleRequirements.addAll(parse(bundle.headers.get(FRAGMENT_HOST)));
+		for (Clause clause: bundleRequirements) {
+			for (String name: clause.names) {
+				String symbolicName = SYSTEM_BUNDLE.equals(name)? FRAMEWORK : name;
+				VersionRange range = VersionRange.parse(clause.attributes.get("bundle-version"));
+				if (range == null) {
+					this.problems.add(bundle + " requires " + name + " with an invalid version range");
+					continue;
+				}
+				requireBundle(bundle, symbolicName, range, clause.isOptional());
+			}
+		}
+		for (Clause clause: parse(bundle.headers.get(IMPORT_PACKAGE))) {
+			String version = clause.attributes.get("version");
+			if (version == null)
+				version = clause.attributes.get("specification-version");
+			VersionRange range = VersionRange.parse(version);
+			for (String packageName: clause.names) {
+				if (range == null) {
+					this.problems.add(bundle + " imports " + packageName + " with an invalid version range");
+					continue;
+				}
+				importPackage(bundle, packageName, range, clause.isOptional());
+			}
+		}
+	}
+
+	private void requireBundle(BundleCatalog.Bundle bundle, String symbolicName, VersionRange range, boolean optional) {
+		BundleCatalog.Bundle chosen = this.selected.get(symbolicName);
+		if (chosen != null) {
+			if (!range.includes(chosen.version) && !optional)
+				this.problems.add(bundle + " requires " + with(symbolicName, range) + ", but " + chosen + " is exported");
+			return;
+		}
+		List<BundleCatalog.Bundle> candidates = new ArrayList<>();
+		for (BundleCatalog catalog: this.catalogs) {
+			for (BundleCatalog.Bundle candidate: catalog.getVersions(symbolicName)) {
+				if (range.includes(candidate.version))
+					candidates.add(candidate);
+			}
+			if (!candidates.isEmpty())
+				break;
+		}
+		if (candidates.isEmpty()) {
+			if (!optional)
+				this.problems.add(bundle + " requires " + with(symbolicName, range) + ", which is not available");
+			return;
+		}
+		chosen = BundleCatalog.choose(candidates, this.policy);
+		if (chosen == null) {
+			if (!optional)
+				this.problems.add(bundle + " requires " + with(symbolicName, range) + ", which is available in several versions: " + candidates);
+			return;
+		}
+		select(chosen, true);
+	}
+
+	private void importPackage(BundleCatalog.Bundle bundle, String packageName, VersionRange range, boolean optional) {
+		if (packageName.startsWith("java.") || this.systemPackages.contains(packageName))
+			return;
+		boolean exported = false;
+		for (Export export: this.selectedExports.getOrDefault(packageName, Collections.emptyList())) {
+			if (range.includes(export.version))
+				return;
+			exported = true;
+		}
+		if (exported) {
+			if (!optional)
+				this.problems.add(bundle + " imports " + with(packageName, range) + ", but the exported bundles have other versions of it");
+			return;
+		}
+		List<BundleCatalog.Bundle> candidates = new ArrayList<>();
+		for (Map<String,List<Export>> exports: catalogExports()) {
+			for (Export export: exports.getOrDefault(packageName, Collections.emptyList())) {
+				if (range.includes(export.version))
+					candidates.add(export.bundle);
+			}
+			if (!candidates.isEmpty())
+				break;
+		}
+		if (candidates.isEmpty()) {
+			if (!optional)
+				this.problems.add(bundle + " imports " + with(packageName, range) + ", which no available bundle exports");
+			return;
+		}
+		candidates.sort((a, b) -> a.version.compareTo(b.version));
+		BundleCatalog.Bundle chosen = BundleCatalog.choose(candidates, this.policy);
+		if (chosen == null) {
+			if (!optional)
+				this.problems.add(bundle + " imports " + with(packageName, range) + ", which several bundles export: " + candidates);
+			return;
+		}
+		select(chosen, true);
+	}
+
+	/**
+	 * @return a name with its version range, if there is one
+	 */
+	private static String with(String name, VersionRange range) {
+		return range.text.isEmpty()? name : name + " " + range.text;
+	}
+
+	private List<Map<String,List<Export>>> catalogExports() {
+		if (this.catalogExports == null) {
+			this.catalogExports = new ArrayList<>();
+			for (BundleCatalog catalog: this.catalogs) {
+				Map<String,List<Export>> exports = new HashMap<>();
+				for (Map<BundleVersion,BundleCatalog.Bundle> versions: catalog.getBundles().values()) {
+					for (BundleCatalog.Bundle bundle: versions.values()) {
+						for (Clause clause: parse(bundle.headers.get(EXPORT_PACKAGE))) {
+							BundleVersion version = exportVersion(clause);
+							for (String packageName: clause.names)
+								exports.computeIfAbsent(packageName, name -> new ArrayList<>()).add(new Export(bundle, version));
+						}
+					}
+				}
+				this.catalogExports.add(exports);
+			}
+		}
+		return this.catalogExports;
+	}
+
+	private static BundleVersion exportVersion(Clause clause) {
+		String version = clause.attributes.get("version");
+		if (version == null)
+			version = clause.attributes.get("specification-version");
+		BundleVersion parsed = version == null? null : BundleVersion.parse(version.trim());
+		return parsed != null? parsed : BundleVersion.parse("0.0.0");
+	}
+
+	/**
+	 * Parse a manifest header into its clauses
+	 * @param header the value, or null
+	 * @return the clauses, empty for null
+	 */
+	static List<Clause> parse(String header) {
+		List<Clause> clauses = new ArrayList<>();
+		if (header == null)
+			return clauses;
+		for (String clauseText: split(header, ',')) {
+			Clause clause = new Clause();
+			for (String part: split(clauseText, ';')) {
+				part = part.trim();
+				int directive = part.indexOf(":=");
+				int attribute = part.indexOf('=');
+				if (directive > 0 && directive < attribute)
+					clause.directives.put(part.substring(0, directive).trim(), unquote(part.substring(directive + 2)));
+				else if (attribute > 0)
+					clause.attributes.put(part.substring(0, attribute).trim(), unquote(part.substring(attribute + 1)));
+				else if (!part.isEmpty())
+					clause.names.add(part);
+			}
+			if (!clause.names.isEmpty())
+				clauses.add(clause);
+		}
+		return clauses;
+	}
+
+	/**
+	 * Split at a separator outside of quotes
+	 */
+	private static List<String> split(String text, char separator) {
+		List<String> parts = new ArrayList<>();
+		boolean quoted = false;
+		int start = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"')
+				quoted = !quoted;
+			else if (c == separator && !quoted) {
+				parts.add(text.substring(start, i));
+				start = i + 1;
+			}
+		}
+		parts.add(text.substring(start));
+		return parts;
+	}
+
+	private static String unquote(String value) {
+		String trimmed = value.trim();
+		if (trimmed.length() >= 2 && trimmed.startsWith("\"") && trimmed.endsWith("\""))
+			return trimmed.substring(1, trimmed.length() - 1);
+		return trimmed;
+	}
+
+}
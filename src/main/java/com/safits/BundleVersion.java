@@ -0,0 +1,214 @@
+package com.safits;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed bundle or artifact version, ordered the way OSGi and Maven order versions
+ * rather than the way strings are ordered, so that 1.10 is higher than 1.9.
+ *
+ * A version is a sequence of numbers followed by an optional qualifier.
+ * The numbers are compared one by one, missing numbers count as 0.
+ * An OSGi qualifier, separated by a dot, is higher than no qualifier.
+ * A Maven qualifier, separated by a dash, is lower than no qualifier if it marks
+ * a pre-release (alpha, beta, milestone, rc, snapshot, in that order) and higher otherwise.
+ * Qualifiers of the same rank are compared naturally, that is numbers within them numerically.
+ */
+final class BundleVersion
+implements Comparable<BundleVersion> {
+
+	/** bundle name and version of a jar file name, like name_1.2.3.qualifier.jar or name-1.2.3-SNAPSHOT.jar */
+	private static final Pattern JAR_NAME = Pattern.compile("(.+?)[_-]([0-9]+(?:\\.[0-9]+)*(?:[.-][^_]*)?)\\.jar");
+
+	private static final Pattern NUMBERS = Pattern.compile("([0-9]+(?:\\.[0-9]+)*)([.-]?)(.*)");
+
+	private static final Pattern PRE_RELEASE = Pattern.compile(
+			"(?i)(alpha|a|beta|b|milestone|m|rc|cr|snapshot)(?=[0-9]|[.-]|$).*");
+
+	private final String text;
+
+	private final long[] numbers;
+
+	private final String qualifier;
+
+	/** below 0 for pre-releases, 0 for no qualifier, above 0 for other qualifiers */
+	private final int qualifierRank;
+
+	private BundleVersion(String text, long[] numbers, String qualifier, int qualifierRank) {
+		this.text = text;
+		this.numbers = numbers;
+		this.qualifier = qualifier;
+		this.qualifierRank = qualifierRank;
+	}
+
+	/**
+	 * Parse a version
+	 * @param text of the version, like 1.2.3.v20200101 or 1.2-SNAPSHOT
+	 * @return the version, or null if it does not start with a number
+	 */
+	static BundleVersion parse(String text) {
+		Matcher matcher = NUMBERS.matcher(text);
+		if (!matcher.matches())
+			return null;
+		String[] numberStrings = matcher.group(1).split("\\.");
+		long[] numbers = new long[numberStrings.length];
+		for (int i = 0; i < numberStrings.length; i++) {
+			try {
+				numbers[i] = Long.parseLong(numberStrings[i]);
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		String qualifier = matcher.group(3);
+		int qualifierRank;
+		if (qualifier.isEmpty())
+			qualifierRank = 0;
+		else if ("-".equals(matcher.group(2)) && PRE_RELEASE.matcher(qualifier).matches())
+			qualifierRank = preReleaseRank(qualifier.toLowerCase());
+		else
+			qualifierRank = 1;
+		return new BundleVersion(text, numbers, qualifier, qualifierRank);
+	}
+
+	private static int preReleaseRank(String qualifier) {
+		if (qualifier.startsWith("snapshot"))
+			return -1;
+		if (qualifier.startsWith("rc") || qualifier.startsWith("cr"))
+			return -2;
+		if (qualifier.startsWith("m"))
+			return -3;
+		if (qualifier.startsWith("b"))
+			return -4;
+		return -5;
+	}
+
+	/**
+	 * Split a jar file name into bundle name and version
+	 * @param fileName like org.example.bundle_1.2.3.v20200101.jar
+	 * @return the bundle name and the version text, or null if the name carries no version
+	 */
+	static String[] splitJarName(String fileName) {
+		Matcher matcher = JAR_NAME.matcher(fileName);
+		if (!matcher.matches())
+			return null;
+		return new String[] { matcher.group(1), matcher.group(2) };
+	}
+
+	/**
+	 * Compare two jar file names by the versions they carry.
+	 * Names without a version are lower than those with one. Equal versions are ordered by name.
+	 * @param a jar file name
+	 * @param b jar file name
+	 * @return the comparison
+	 */
+	static int compareJarNames(String a, String b) {
+		String[] aSplit = splitJarName(a);
+		String[] bSplit = splitJarName(b);
+		BundleVersion aVersion = aSplit == null? null : parse(aSplit[1]);
+		BundleVersion bVersion = bSplit == null? null : parse(bSplit[1]);
+		if (aVersion != null && bVersion != null) {
+			int result = aVersion.compareTo(bVersion);
+			if (result != 0)
+				return result;
+		}
+		else if (aVersion != null)
+			return 1;
+		else if (bVersion != null)
+			return -1;
+		return a.compareTo(b);
+	}
+
+	@Override
+	public int compareTo(BundleVersion other) {
+		int length = Math.max(this.numbers.length, other.numbers.length);
+		for (int i = 0; i < length; i++) {
+			long mine = i < this.numbers.length? this.numbers[i] : 0;
+			long theirs = i < other.numbers.length? other.numbers[i] : 0;
+			if (mine != theirs)
+				return mine < theirs? -1 : 1;
+		}
+		if (this.qualifierRank != other.qualifierRank)
+			return Integer.compare(this.qualifierRank, other.qualifierRank);
+		return compareNaturally(this.qualifier, other.qualifier);
+	}
+
+	/**
+	 * @param other version
+	 * @return true if both have the same numbers, whatever their qualifiers
+	 */
+	boolean hasNumbers(BundleVersion other) {
+		int length = Math.max(this.numbers.length, other.numbers.length);
+		for (int i = 0; i < length; i++) {
+			long mine = i < this.numbers.length? this.numbers[i] : 0;
+			long theirs = i < other.numbers.length? other.numbers[i] : 0;
+			if (mine != theirs)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Compare two strings, numbers within them numerically
+	 */
+	static int compareNaturally(String a, String b) {
+		List<String> aParts = parts(a);
+		List<String> bParts = parts(b);
+		for (int i = 0; i < Math.min(aParts.size(), bParts.size()); i++) {
+			String aPart = aParts.get(i);
+			String bPart = bParts.get(i);
+			int result;
+			if (Character.isDigit(aPart.charAt(0)) && Character.isDigit(bPart.charAt(0))) {
+				String aDigits = aPart.replaceFirst("^0+(?=.)", "");
+				String bDigits = bPart.replaceFirst("^0+(?=.)", "");
+				result = aDigits.length() != bDigits.length()?
+						Integer.compare(aDigits.length(), bDigits.length()) : aDigits.compareTo(bDigits);
+			}
+			else
+				result = aPart.compareTo(bPart);
+			if (result != 0)
+				return result;
+		}
+		if (aParts.size() != bParts.size())
+			return Integer.compare(aParts.size(), bParts.size());
+		//naturally equal, like 01 and 1. Still keep them apart.
+		return a.compareTo(b);
+	}
+
+	private static List<String> parts(String s) {
+		List<String> parts = new ArrayList<>();
+		int start = 0;
+		for (int i = 1; i <= s.length(); i++) {
+			if (i == s.length()
+					|| Character.isDigit(s.charAt(i)) != Character.isDigit(s.charAt(i - 1))) {
+				parts.add(s.substring(start, i));
+				start = i;
+			}
+		}
+		return parts;
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		return object instanceof BundleVersion && compareTo((BundleVersion) object) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		int length = this.numbers.length;
+		while (length > 0 && this.numbers[length - 1] == 0)
+			length--;
+		int hash = this.qualifier.hashCode();
+		for (int i = 0; i < length; i++)
+			hash = 31 * hash + Long.hashCode(this.numbers[i]);
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return this.text;
+	}
+
+}
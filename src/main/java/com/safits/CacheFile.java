@@ -0,0 +1,108 @@
+package com.safits;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A cache file of the plugin is a plain text file with one record per line, after a header line
+ * that names what the file holds and the version of its format, like <code># pictet jar index, version 1</code>.
+ * A file with another header is not read, so a change of the format just discards the cache.
+ *
+ * Files are written to a temporary file next to them and moved into place,
+ * so a concurrent build, or one that was killed, never leaves half a file behind.
+ */
+class CacheFile {
+
+	private final File file;
+
+	private final String header;
+
+	/**
+	 * @param file the cache file
+	 * @param name what it holds, like 'jar index'
+	 * @param version of the format
+	 */
+	CacheFile(File file, String name, int version) {
+		this.file = file;
+		this.header = "# pictet " + name + ", version " + version;
+	}
+
+	File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * @return the records after the header, or null if there is no readable file with the header
+	 */
+	List<String> read() {
+		if (!this.file.isFile())
+			return null;
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(this.file.toPath(), StandardCharsets.UTF_8);
+		}
+		catch (Exception e) {
+			return null;
+		}
+		if (lines.isEmpty() || !this.header.equals(lines.get(0)))
+			return null;
+		return lines.subList(1, lines.size());
+	}
+
+	/**
+	 * Write the header and the records
+	 * @param records one per line
+	 * @throws IOException if the file cannot be written
+	 */
+	void write(List<String> records)
+	throws IOException {
+		List<String> lines = new ArrayList<>(records.size() + 1);
+		lines.add(this.header);
+		lines.addAll(records);
+		replace(this.file, (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Write a file through a temporary file next to it, creating its directory if needed
+	 * @param file to write
+	 * @param content of the file
+	 * @throws IOException if the file cannot be written
+	 */
+	static void replace(File file, byte[] content)
+	throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.isDirectory())
+			parent.mkdirs();
+		File temporary = File.createTempFile(file.getName() + ".", ".tmp", parent);
+		try {
+			Files.write(temporary.toPath(), content);
+			moveIntoPlace(temporary, file);
+		}
+		finally {
+			Files.deleteIfExists(temporary.toPath());
+		}
+	}
+
+	/**
+	 * Move a completely written file into place, atomically where the file system can
+	 * @param temporary the written file
+	 * @param file where it goes, replaced if it exists
+	 * @throws IOException if it cannot be moved
+	 */
+	static void moveIntoPlace(File temporary, File file)
+	throws IOException {
+		try {
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+}
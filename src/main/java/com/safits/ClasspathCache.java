@@ -0,0 +1,177 @@
+package com.safits;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * The classpath cache remembers the outcome of a compile path computation together with
+ * the fingerprints of every directory and file it depended on.
+ * As long as the key and all fingerprints are unchanged, the cached outcome can be used
+ * without listing a single directory. Only one stat per recorded path is needed.
+ *
+ * The cache file is a plain text file, one record per line:
+ * <pre>
+ * key &lt;configuration key&gt;
+ * stamp &lt;fingerprint&gt; &lt;absolute path&gt;
+ * classpath &lt;compile class path&gt;
+ * classpath.&lt;os name&gt; &lt;compile class path for another target OS&gt;
+ * resolutions &lt;repository resolutions&gt;
+ * </pre>
+ */
+class ClasspathCache {
+
+	private final CacheFile cache;
+
+	private String classpath;
+
+	private String resolutions;
+
+	private Map<String,String> osClasspaths = new TreeMap<>();
+
+	ClasspathCache(File cacheFile) {
+		this.cache = new CacheFile(cacheFile, "classpath cache", 1);
+	}
+
+	File getCacheFile() {
+		return this.cache.getFile();
+	}
+
+	/**
+	 * @return the cached compile class path, valid after a successful {@link #load(String)}
+	 */
+	String getClasspath() {
+		return this.classpath;
+	}
+
+	/**
+	 * @return the cached repository resolutions, or null if there were none
+	 */
+	String getResolutions() {
+		return this.resolutions;
+	}
+
+	/**
+	 * @return the cached class paths of the additional target OSes, by OS name
+	 */
+	Map<String,String> getOsClasspaths() {
+		return this.osClasspaths;
+	}
+
+	/**
+	 * Create the fingerprint of a file or directory.
+	 * It consists of the modification time, the size and the file key (device and inode on Unix).
+	 * @param path to fingerprint
+	 * @return the fingerprint, or null if the path cannot be accessed
+	 */
+	static String fingerprint(Path path) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			return fingerprint(attributes);
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Create the fingerprint from attributes that were already read.
+	 * @param attributes of a file or directory
+	 * @return the fingerprint
+	 */
+	static String fingerprint(BasicFileAttributes attributes) {
+		return attributes.lastModifiedTime().toMillis()
+				+ ":" + attributes.size()
+				+ ":" + String.valueOf(attributes.fileKey()).replace(' ', '_');
+	}
+
+	/**
+	 * Load the cache file and verify it against the given key and the current state of the file system.
+	 * @param key describing the configuration the cached outcome was computed for
+	 * @return true if the cached outcome is still valid
+	 */
+	boolean load(String key) {
+		List<String> lines = this.cache.read();
+		if (lines == null)
+			return false;
+		String cachedKey = null;
+		String cachedClasspath = null;
+		String cachedResolutions = null;
+		Map<String,String> cachedOsClasspaths = new TreeMap<>();
+		for (String line: lines) {
+			int blank = line.indexOf(' ');
+			if (blank < 0)
+				return false;
+			String type = line.substring(0, blank);
+			String value = line.substring(blank + 1);
+			if ("key".equals(type)) {
+				if (!key.equals(value))
+					//computed for a different configuration
+					return false;
+				cachedKey = value;
+			}
+			else if ("classpath".equals(type))
+				cachedClasspath = value;
+			else if ("resolutions".equals(type))
+				cachedResolutions = value;
+			else if (type.startsWith("classpath."))
+				cachedOsClasspaths.put(type.substring("classpath.".length()), value);
+			else if ("stamp".equals(type)) {
+				int pathStart = value.indexOf(' ');
+				if (pathStart < 0)
+					return false;
+				String stamp = value.substring(0, pathStart);
+				String path = value.substring(pathStart + 1);
+				if (!stamp.equals(fingerprint(new File(path).toPath())))
+					//something changed since the cache was written
+					return false;
+			}
+			else
+				return false;
+		}
+		if (!key.equals(cachedKey) || cachedClasspath == null)
+			return false;
+		this.classpath = cachedClasspath;
+		this.resolutions = cachedResolutions;
+		this.osClasspaths = cachedOsClasspaths;
+		return true;
+	}
+
+	/**
+	 * Store an outcome together with the fingerprints of the paths it depends on.
+	 * @param key describing the configuration
+	 * @param stamps fingerprints of all directories and files the outcome depends on,
+	 *        taken before they were read
+	 * @param classpath the computed compile class path
+	 * @param resolutions the computed repository resolutions, may be null
+	 * @param osClasspaths the computed class paths of additional target OSes, by OS name
+	 * @throws Exception if the cache file cannot be written
+	 */
+	void store(String key, Map<Path,String> stamps, String classpath, String resolutions,
+			Map<String,String> osClasspaths)
+	throws Exception {
+		List<String> lines = new ArrayList<>();
+		lines.add("key " + key);
+		for (Entry<Path,String> stamp: stamps.entrySet()) {
+			if (stamp.getValue() == null)
+				throw new Exception("Cannot fingerprint " + stamp.getKey());
+			lines.add("stamp " + stamp.getValue() + " " + stamp.getKey().toAbsolutePath());
+		}
+		lines.add("classpath " + classpath);
+		for (Entry<String,String> osClasspath: osClasspaths.entrySet())
+			lines.add("classpath." + osClasspath.getKey() + " " + osClasspath.getValue());
+		if (resolutions != null)
+			lines.add("resolutions " + resolutions);
+		this.cache.write(lines);
+		this.classpath = classpath;
+		this.resolutions = resolutions;
+		this.osClasspaths = new TreeMap<>(osClasspaths);
+	}
+
+}
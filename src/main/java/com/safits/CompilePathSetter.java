@@ -1,10 +1,27 @@
 package com.safits;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
@@ -29,9 +46,26 @@ extends AbstractMojo {
 
 	public static final String SEPARATOR = "=";
 
+	public static final String CLASSPATH_CACHE_FILE = "pictet-classpath.cache";
+
+	public static final String CLASSPATH_JAR_FILE = "pictet-classpath.jar";
+
+	public static final String CLASSPATH_ARGFILE = "pictet-classpath.args";
+
+	public static final String JAR_INDEX_FILE = "pictet-jar-index.cache";
+
+	public static final String CLASSPATH_PROPERTY = "java.compile.classpath";
+
+	public static final String CLASSPATH_HASH_PROPERTY = "java.compile.classpath.hash";
+
+	public static final String CLASSPATH_CHANGED_PROPERTY = "java.compile.classpath.changed";
+
 	@Parameter( defaultValue = "${project}", readonly = true, required = true )
     private MavenProject project;
 
+    @Parameter( defaultValue = "${session}", readonly = true, required = true )
+    private MavenSession session;
+
     @Parameter( defaultValue = "${settings}", readonly = true )
     private Settings settings;
 
@@ -41,6 +75,70 @@ extends AbstractMojo {
     @Parameter( name = "repository-dependencies", readonly = true)
     private Dependency[] repositoryDependencies;
 
+    @Parameter( defaultValue = "${project.build.directory}", readonly = true )
+    private File buildDirectory;
+
+    /**
+     * If set, the outcome is cached in the build directory and reused as long as
+     * no scanned directory, no resolved jar and no configuration has changed.
+     */
+    @Parameter( name = "classpath-cache", defaultValue = "false" )
+    private boolean classpathCache;
+
+    /** The number of threads scanning the resource directories */
+    @Parameter( name = "scan-threads", required = false )
+    private int scanThreads = JarScanner.defaultParallelism();
+
+    /**
+     * How to resolve the repository dependencies: 'sequential' probes each dependency
+     * level by level, 'batched' stats the jars of all of them in one concurrent pass
+     * and probes only the missing ones.
+     */
+    @Parameter( name = "repository-resolver", defaultValue = "sequential" )
+    private String repositoryResolver;
+
+    /**
+     * If set, a SHA-256 digest over the names, sizes and modification times of all class path
+     * elements is published as java.compile.classpath.hash and written to the hash file.
+     * java.compile.classpath.changed tells whether it differs from the previous build.
+     */
+    @Parameter( name = "classpath-hash", defaultValue = "false" )
+    private boolean classpathHash;
+
+    /** The marker file holding the class path digest. It is only rewritten when the digest changes. */
+    @Parameter( name = "classpath-hash-file", defaultValue = "${project.build.directory}/pictet-classpath.sha256" )
+    private File classpathHashFile;
+
+    /**
+     * How java.compile.classpath is published: 'path' is the class path itself, 'manifest-jar' the path
+     * of a jar in the build directory whose manifest holds the class path, 'argfile' a javac argument
+     * file reference (@file) holding the class path. Both files are only rewritten when their content changes.
+     */
+    @Parameter( name = "classpath-format", defaultValue = "path" )
+    private String classpathFormat;
+
+    /**
+     * Further target OSes to compute class paths for in the same run.
+     * The common resources are scanned once, the OS specific ones in parallel,
+     * and each class path is published as java.compile.classpath.&lt;os&gt;.
+     */
+    @Parameter( name = "target-os-list", required = false )
+    private String[] targetOsList;
+
+    /**
+     * If set, the central directory of every jar on the class path is read, and corrupt jars fail the goal.
+     * The packages of each jar are kept in an index in the build directory, so unchanged jars are not read again.
+     */
+    @Parameter( name = "validate-jars", defaultValue = "false" )
+    private boolean validateJars;
+
+    /** If set together with validate-jars, packages found in more than one jar fail the goal instead of being warned about. */
+    @Parameter( name = "fail-on-split-packages", defaultValue = "false" )
+    private boolean failOnSplitPackages;
+
+    /** fingerprints of everything the outcome depends on, only collected when caching */
+    private Map<Path,String> stamps;
+
     public static class Dependency {
     	String groupId;
     	String artifactId;
@@ -63,6 +161,17 @@ extends AbstractMojo {
     	if (!osSpecificResourceDirectory.isDirectory())
     		throw new MojoExecutionException("Cannot find " + osSpecificResourceDirectory.getAbsolutePath());
 
+    	Map<String,File> targetOsDirectories = new TreeMap<>();
+    	if (this.targetOsList != null) {
+    		for (String targetOs: this.targetOsList) {
+    			File targetOsDirectory = new File("resources/rcp/" + targetOs);
+    			if (!targetOsDirectory.isDirectory())
+    				throw new MojoExecutionException("Cannot find " + targetOsDirectory.getAbsolutePath());
+    			targetOsDirectories.put(targetOs, targetOsDirectory);
+    		}
+    		getLog().info("Also building for " + targetOsDirectories.keySet());
+    	}
+
     	if (this.repositoryDependencies == null)
     		getLog().info("No repository dependencies");
     	else {
@@ -74,7 +183,22 @@ extends AbstractMojo {
     		}
     	}
 
+    	ClasspathCache cache = null;
+    	String cacheKey = null;
+    	if (this.classpathCache) {
+    		cache = new ClasspathCache(new File(this.buildDirectory, CLASSPATH_CACHE_FILE));
+    		cacheKey = createCacheKey(commonPluginResourceDirectory, osSpecificResourceDirectory, targetOsDirectories);
+    		if (cache.load(cacheKey)) {
+    			getLog().info("Using cached class path from " + cache.getCacheFile().getAbsolutePath());
+    			publish(cache.getResolutions(), cache.getClasspath());
+    			publishTargetOsClassPaths(cache.getOsClasspaths());
+    			return;
+    		}
+    		this.stamps = new LinkedHashMap<>();
+    	}
+
     	Map<String,File> repositoryDependencies = resolveRepositoryDependencies();
+    	String resolutions = null;
     	if (repositoryDependencies != null) {
     		StringBuilder resolverBuilder = null;
     		for (Entry<String,File> entry: repositoryDependencies.entrySet()) {
@@ -87,36 +211,329 @@ extends AbstractMojo {
     			resolverBuilder.append(entry.getValue().getAbsolutePath());
     		}
 
-    		if (resolverBuilder != null) {
-    			getLog().info("Resolver: " + resolverBuilder.toString());
-    			this.project.getProperties().setProperty(
-    					REPOSITORY_RESOLUTIONS,
-    					resolverBuilder.toString());
+    		if (resolverBuilder != null)
+    			resolutions = resolverBuilder.toString();
+    	}
+
+    	//scan every resource directory once, all of them at the same time
+    	List<Path> roots = new ArrayList<>();
+    	roots.add(commonPluginResourceDirectory.toPath());
+    	roots.add(osSpecificResourceDirectory.toPath());
+    	for (File targetOsDirectory: targetOsDirectories.values()) {
+    		if (!roots.contains(targetOsDirectory.toPath()))
+    			roots.add(targetOsDirectory.toPath());
+    	}
+    	Map<Path,JarScanner.Scan> scans = scanAll(roots);
+
+    	String compileClassPath = createClassPath(
+    			repositoryDependencies,
+    			scans.get(commonPluginResourceDirectory.toPath()),
+    			scans.get(osSpecificResourceDirectory.toPath()));
+    	Map<String,String> targetOsClassPaths = new TreeMap<>();
+    	for (Entry<String,File> targetOsDirectory: targetOsDirectories.entrySet()) {
+    		targetOsClassPaths.put(
+    				targetOsDirectory.getKey(),
+    				createClassPath(
+    						repositoryDependencies,
+    						scans.get(commonPluginResourceDirectory.toPath()),
+    						scans.get(targetOsDirectory.getValue().toPath())));
+    	}
+
+    	publish(resolutions, compileClassPath);
+    	publishTargetOsClassPaths(targetOsClassPaths);
+
+    	if (cache != null) {
+    		try {
+    			cache.store(cacheKey, this.stamps, compileClassPath, resolutions, targetOsClassPaths);
+    			getLog().info("Class path cached in " + cache.getCacheFile().getAbsolutePath());
+    		}
+    		catch (Exception e) {
+    			getLog().warn("Could not write class path cache " + cache.getCacheFile().getAbsolutePath(), e);
     		}
     	}
 
-    	StringBuilder compilePathStringBuilder = null;
-    	if (repositoryDependencies != null) {
-    		for (Entry<String,File> entry: repositoryDependencies.entrySet()) {
-    			if (compilePathStringBuilder == null)
-    				compilePathStringBuilder = new StringBuilder();
-    			else
-    				compilePathStringBuilder.append(File.pathSeparator);
-    			compilePathStringBuilder.append(entry.getValue().getAbsolutePath());
+    }
+
+    /**
+     * Set the project properties
+     * @param resolutions the repository resolutions, can be null
+     * @param compileClassPath the compile class path
+     */
+    private void publish(String resolutions, String compileClassPath)
+    throws MojoExecutionException {
+    	if (resolutions != null) {
+    		getLog().debug("Resolver: " + resolutions);
+    		this.project.getProperties().setProperty(
+    				REPOSITORY_RESOLUTIONS,
+    				resolutions);
+    		//hand the typed resolutions to export-rcp as well
+    		try {
+    			ResolutionService.get(this.session).setRepositoryResolutions(
+    					this.project.getBasedir(),
+    					resolutions,
+    					ResolutionService.parseRepositoryResolutions(resolutions));
     		}
+    		catch (Exception e) {
+    			throw new MojoExecutionException("Cannot resolve repository resolutions " + resolutions, e);
+    		}
+    	}
+
+    	String[] elements = compileClassPath.split(File.pathSeparator);
+    	getLog().info("Compile class path has " + elements.length + " elements");
+    	if (getLog().isDebugEnabled()) {
+    		getLog().debug("Compile class path is:");
+    		getLog().debug(compileClassPath);
     	}
 
-    	compilePathStringBuilder = addAllJars(compilePathStringBuilder, commonPluginResourceDirectory);
-    	compilePathStringBuilder = addAllJars(compilePathStringBuilder, osSpecificResourceDirectory);
-    	String compileClassPath = compilePathStringBuilder.toString();
+    	if (this.validateJars)
+    		validateJars(elements);
 
-    	getLog().info("Compile class path is:");
-    	getLog().info(compileClassPath);
+    	String publishedClassPath;
+    	if ("path".equals(this.classpathFormat))
+    		publishedClassPath = compileClassPath;
+    	else if ("manifest-jar".equals(this.classpathFormat))
+    		publishedClassPath = writeIfChanged(
+    				new File(this.buildDirectory, CLASSPATH_JAR_FILE),
+    				createManifestJar(elements));
+    	else if ("argfile".equals(this.classpathFormat))
+    		publishedClassPath = "@" + writeIfChanged(
+    				new File(this.buildDirectory, CLASSPATH_ARGFILE),
+    				createArgfile(compileClassPath));
+    	else
+    		throw new MojoExecutionException("Unknown class path format " + this.classpathFormat);
+    	if (!"path".equals(this.classpathFormat))
+    		getLog().info("Compile class path is passed as " + publishedClassPath);
 
     	this.project.getProperties().setProperty(
-    			"java.compile.classpath",
-    			compileClassPath);
+    			CLASSPATH_PROPERTY,
+    			publishedClassPath);
+
+    	if (this.classpathHash)
+    		publishHash(compileClassPath);
+    }
+
+    /**
+     * Check that all jars of the class path can be read, and look for packages contained in more than one jar
+     * @param elements of the class path
+     */
+    private void validateJars(String[] elements)
+    throws MojoExecutionException {
+    	List<Path> jars = new ArrayList<>();
+    	for (String element: elements) {
+    		if (element.endsWith(".jar"))
+    			jars.add(Paths.get(element));
+    	}
+    	JarIndex index = new JarIndex(new File(this.buildDirectory, JAR_INDEX_FILE));
+    	index.load();
+    	Map<Path,JarIndex.JarInfo> infos;
+    	try {
+    		infos = index.index(jars, this.scanThreads);
+    	}
+    	catch (Exception e) {
+    		throw new MojoExecutionException("Cannot validate class path jars", e);
+    	}
+    	try {
+    		index.store();
+    	}
+    	catch (Exception e) {
+    		getLog().warn("Could not write jar index " + index.getIndexFile().getAbsolutePath(), e);
+    	}
+
+    	int corrupt = 0;
+    	for (Entry<Path,JarIndex.JarInfo> info: infos.entrySet()) {
+    		if (info.getValue().corruption != null) {
+    			getLog().error("Corrupt jar " + info.getKey() + ": " + info.getValue().corruption);
+    			corrupt++;
+    		}
+    	}
+    	Map<String,List<Path>> splitPackages = JarIndex.splitPackages(infos);
+    	for (Entry<String,List<Path>> splitPackage: splitPackages.entrySet()) {
+    		String message = "Package " + splitPackage.getKey() + " is contained in " + splitPackage.getValue();
+    		if (this.failOnSplitPackages)
+    			getLog().error(message);
+    		else
+    			getLog().warn(message);
+    	}
+    	getLog().info("Validated " + infos.size() + " jars, "
+    			+ corrupt + " corrupt, "
+    			+ splitPackages.size() + " split packages");
+    	if (corrupt > 0)
+    		throw new MojoExecutionException(corrupt + " corrupt jars on the compile class path");
+    	if (this.failOnSplitPackages && !splitPackages.isEmpty())
+    		throw new MojoExecutionException(splitPackages.size() + " split packages on the compile class path");
+    }
+
+    /**
+     * Create a jar which only holds a manifest with the class path
+     * @param elements of the class path
+     * @return the bytes of the jar
+     */
+    private byte[] createManifestJar(String[] elements)
+    throws MojoExecutionException {
+    	StringBuilder classPath = new StringBuilder();
+    	for (String element: elements) {
+    		if (classPath.length() > 0)
+    			classPath.append(' ');
+    		classPath.append(new File(element).toURI().toASCIIString());
+    	}
+    	Manifest manifest = new Manifest();
+    	manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    	manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, classPath.toString());
+    	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    	try (JarOutputStream jar = new JarOutputStream(bytes)) {
+    		JarEntry entry = new JarEntry(JarFile.MANIFEST_NAME);
+    		//a fixed time, so that the same class path always gives the same bytes
+    		entry.setTime(0);
+    		jar.putNextEntry(entry);
+    		manifest.write(jar);
+    		jar.closeEntry();
+    	}
+    	catch (Exception e) {
+    		throw new MojoExecutionException("Cannot create class path manifest jar", e);
+    	}
+    	return bytes.toByteArray();
+    }
+
+    /**
+     * Create the content of a javac argument file which holds the class path as a single argument
+     * @param compileClassPath the compile class path
+     * @return the bytes of the argument file
+     */
+    private byte[] createArgfile(String compileClassPath) {
+    	String quoted = compileClassPath.replace("\\", "\\\\").replace("\"", "\\\"");
+    	return ("\"" + quoted + "\"\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a file, unless it already has exactly that content
+     * @param file to write
+     * @param content for the file
+     * @return the absolute path of the file
+     */
+    private String writeIfChanged(File file, byte[] content)
+    throws MojoExecutionException {
+    	try {
+    		if (file.isFile() && file.length() == content.length
+    				&& Arrays.equals(Files.readAllBytes(file.toPath()), content)) {
+    			getLog().info(file.getName() + " is up to date");
+    			return file.getAbsolutePath();
+    		}
+    		CacheFile.replace(file, content);
+    		getLog().info(file.getName() + " written");
+    		return file.getAbsolutePath();
+    	}
+    	catch (Exception e) {
+    		throw new MojoExecutionException("Cannot write " + file.getAbsolutePath(), e);
+    	}
+    }
+
+    /**
+     * Set the project properties of the additional target OSes
+     * @param targetOsClassPaths the class paths by OS name
+     */
+    private void publishTargetOsClassPaths(Map<String,String> targetOsClassPaths) {
+    	for (Entry<String,String> targetOsClassPath: targetOsClassPaths.entrySet()) {
+    		String property = CLASSPATH_PROPERTY + "." + targetOsClassPath.getKey();
+    		getLog().info(property + " has "
+    				+ targetOsClassPath.getValue().split(File.pathSeparator).length + " elements");
+    		getLog().debug(targetOsClassPath.getValue());
+    		this.project.getProperties().setProperty(property, targetOsClassPath.getValue());
+    	}
+    }
+
+    /**
+     * Digest the class path, publish the digest and update the marker file if it changed
+     * @param compileClassPath the compile class path
+     */
+    private void publishHash(String compileClassPath)
+    throws MojoExecutionException {
+    	String hash = digest(compileClassPath);
+    	String previousHash = null;
+    	if (this.classpathHashFile.isFile()) {
+    		try {
+    			previousHash = new String(Files.readAllBytes(this.classpathHashFile.toPath()), StandardCharsets.UTF_8).trim();
+    		}
+    		catch (Exception e) {
+    			getLog().warn("Cannot read " + this.classpathHashFile.getAbsolutePath(), e);
+    		}
+    	}
+    	boolean changed = !hash.equals(previousHash);
+    	if (changed) {
+    		try {
+    			CacheFile.replace(this.classpathHashFile, (hash + "\n").getBytes(StandardCharsets.UTF_8));
+    		}
+    		catch (Exception e) {
+    			throw new MojoExecutionException("Cannot write " + this.classpathHashFile.getAbsolutePath(), e);
+    		}
+    	}
+    	getLog().info("Compile class path hash is " + hash + (changed? " (changed)" : " (unchanged)"));
+    	this.project.getProperties().setProperty(CLASSPATH_HASH_PROPERTY, hash);
+    	this.project.getProperties().setProperty(CLASSPATH_CHANGED_PROPERTY, String.valueOf(changed));
+    }
+
+    /**
+     * Create a SHA-256 digest over the name, size and modification time of each class path element, in order
+     * @param compileClassPath the compile class path
+     * @return the digest in hex
+     */
+    static String digest(String compileClassPath)
+    throws MojoExecutionException {
+    	MessageDigest messageDigest;
+    	try {
+    		messageDigest = InputDigest.sha256();
+    	}
+    	catch (Exception e) {
+    		throw new MojoExecutionException("SHA-256 is not available", e);
+    	}
+    	for (String element: compileClassPath.split(File.pathSeparator)) {
+    		long size = -1;
+    		long lastModified = -1;
+    		try {
+    			BasicFileAttributes attributes = Files.readAttributes(Paths.get(element), BasicFileAttributes.class);
+    			size = attributes.size();
+    			lastModified = attributes.lastModifiedTime().toMillis();
+    		}
+    		catch (Exception e) {
+    			//a missing element still contributes its name
+    		}
+    		messageDigest.update(element.getBytes(StandardCharsets.UTF_8));
+    		messageDigest.update((byte) 0);
+    		messageDigest.update(Long.toString(size).getBytes(StandardCharsets.UTF_8));
+    		messageDigest.update((byte) ':');
+    		messageDigest.update(Long.toString(lastModified).getBytes(StandardCharsets.UTF_8));
+    		messageDigest.update((byte) '\n');
+    	}
+    	return InputDigest.hex(messageDigest);
+    }
 
+    /**
+     * Create the key under which the outcome is cached.
+     * It covers everything the outcome depends on, apart from the file system itself.
+     * @param commonPluginResourceDirectory
+     * @param osSpecificResourceDirectory
+     * @return the key
+     */
+    private String createCacheKey(
+    		File commonPluginResourceDirectory,
+    		File osSpecificResourceDirectory,
+    		Map<String,File> targetOsDirectories) {
+    	StringBuilder keyBuilder = new StringBuilder();
+    	keyBuilder.append(this.osName);
+    	keyBuilder.append('|').append(commonPluginResourceDirectory.getAbsolutePath());
+    	keyBuilder.append('|').append(osSpecificResourceDirectory.getAbsolutePath());
+    	for (Entry<String,File> targetOsDirectory: targetOsDirectories.entrySet()) {
+    		keyBuilder.append('|').append(targetOsDirectory.getKey());
+    		keyBuilder.append('=').append(targetOsDirectory.getValue().getAbsolutePath());
+    	}
+    	if (this.repositoryDependencies != null) {
+    		keyBuilder.append('|').append(this.settings.getLocalRepository());
+    		for (Dependency dependency: this.repositoryDependencies) {
+    			keyBuilder.append('|').append(dependency.groupId);
+    			keyBuilder.append(':').append(dependency.artifactId);
+    			keyBuilder.append(':').append(dependency.version);
+    		}
+    	}
+    	return keyBuilder.toString();
     }
 
     /**
@@ -125,13 +542,16 @@ extends AbstractMojo {
      */
     private Map<String,File> resolveRepositoryDependencies()
     throws MojoExecutionException {
-    	Map<String,File> map = new HashMap<>();
+    	//keep the configured order, so that the outcome is the same on every run
+    	Map<String,File> map = new LinkedHashMap<>();
     	if (this.repositoryDependencies == null || this.repositoryDependencies.length == 0)
     		return map;
+    	if ("batched".equals(this.repositoryResolver))
+    		return resolveRepositoryDependenciesBatched(map);
+    	if (!"sequential".equals(this.repositoryResolver))
+    		throw new MojoExecutionException("Unknown repository resolver " + this.repositoryResolver);
     	for (Dependency dependency: this.repositoryDependencies) {
-    		String groupIdString = dependency.groupId;
-    		while (groupIdString.indexOf('.') > 0)
-    			groupIdString = groupIdString.replace('.', File.separatorChar);
+    		String groupIdString = dependency.groupId.replace('.', File.separatorChar);
     		File groupIdDirectory = new File(
     				this.settings.getLocalRepository()
     				+ File.separator
@@ -161,31 +581,76 @@ extends AbstractMojo {
     					"Cannot find repository dependency "
     							+ dependencyJar.getAbsolutePath());
     		getLog().info("-- Resolved with " + dependencyJar.getAbsolutePath());
+    		if (this.stamps != null)
+    			this.stamps.put(dependencyJar.toPath(), ClasspathCache.fingerprint(dependencyJar.toPath()));
     		map.put(dependency.artifactId, dependencyJar);
     	}
     	return map;
     }
 
     /**
-     * Recursively add all JARs of a given directory to the string builder.
-     * Create such a string builder if necessary.
-     * @param stringBuilder to what to add. Can be null -> create it
-     * @param directory
+     * Resolve the repository dependencies in one concurrent batch
+     * @param map where to put the resolutions
+     * @return the map which maps the artifact name to the file
      */
-    private StringBuilder addAllJars(StringBuilder stringBuilder, File directory) {
-    	for (File file: directory.listFiles()) {
-    		if (file.isDirectory()) {
-    			stringBuilder = addAllJars(stringBuilder, file);
-    		}
-    		else if (file.getName().endsWith(".jar")) {
-    			if (stringBuilder == null)
-    				stringBuilder = new StringBuilder();
-    			else
-    				stringBuilder.append(File.pathSeparator);
-    			stringBuilder.append(file.getAbsolutePath());
+    private Map<String,File> resolveRepositoryDependenciesBatched(Map<String,File> map)
+    throws MojoExecutionException {
+    	Map<Dependency,RepositoryResolver.Resolution> resolutions = new RepositoryResolver(
+    			new File(this.settings.getLocalRepository()))
+    			.resolve(this.repositoryDependencies, this.scanThreads);
+    	for (Entry<Dependency,RepositoryResolver.Resolution> entry: resolutions.entrySet()) {
+    		RepositoryResolver.Resolution resolution = entry.getValue();
+    		getLog().info("-- Resolved with " + resolution.jar.getAbsolutePath());
+    		if (this.stamps != null)
+    			this.stamps.put(resolution.jar.toPath(), resolution.fingerprint);
+    		map.put(entry.getKey().artifactId, resolution.jar);
+    	}
+    	return map;
+    }
+
+    /**
+     * Scan resource directories for jars, all of them at the same time,
+     * unless they have been scanned in this build already
+     * @param roots the directories
+     * @return the outcome for each directory
+     */
+    private Map<Path,JarScanner.Scan> scanAll(List<Path> roots)
+    throws MojoExecutionException {
+    	Map<Path,JarScanner.Scan> scans;
+    	try {
+    		scans = ResolutionService.get(this.session).scanTrees(roots, this.scanThreads);
+    	}
+    	catch (Exception e) {
+    		throw new MojoExecutionException("Cannot scan " + roots, e);
+    	}
+    	if (this.stamps != null) {
+    		for (JarScanner.Scan scan: scans.values())
+    			this.stamps.putAll(scan.directoryStamps);
+    	}
+    	return scans;
+    }
+
+    /**
+     * Create a class path from the repository dependencies followed by the jars of the given scans, in path order
+     * @param repositoryDependencies the resolved repository dependencies
+     * @param scans of the resource directories
+     * @return the class path
+     */
+    private String createClassPath(Map<String,File> repositoryDependencies, JarScanner.Scan... scans) {
+    	StringBuilder compilePathStringBuilder = new StringBuilder();
+    	for (File dependency: repositoryDependencies.values()) {
+    		if (compilePathStringBuilder.length() > 0)
+    			compilePathStringBuilder.append(File.pathSeparator);
+    		compilePathStringBuilder.append(dependency.getAbsolutePath());
+    	}
+    	for (JarScanner.Scan scan: scans) {
+    		for (JarRecord jar: scan.jars) {
+    			if (compilePathStringBuilder.length() > 0)
+    				compilePathStringBuilder.append(File.pathSeparator);
+    			compilePathStringBuilder.append(jar.file.getPath());
     		}
     	}
-    	return stringBuilder;
+    	return compilePathStringBuilder.toString();
     }
 
 }
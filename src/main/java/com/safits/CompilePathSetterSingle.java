@@ -1,9 +1,11 @@
 package com.safits;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.Map;
 import java.util.TreeMap;
 
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
@@ -26,6 +28,9 @@ extends AbstractMojo {
 	@Parameter( defaultValue = "${project}", readonly = true, required = true )
     private MavenProject project;
 
+    @Parameter( defaultValue = "${session}", readonly = true, required = true )
+    private MavenSession session;
+
     @Parameter( name = "os-name", required = false)
     private String osName;
 
@@ -35,6 +40,20 @@ extends AbstractMojo {
     @Parameter( name = "dependencies", required = true)
     private String[] dependencies;
 
+    /**
+     * How a dependency that is not a direct hit matches jars: 'prefix' takes all jars whose name
+     * starts with the dependency, 'bundle-name' only those whose bundle name, without version, equals it.
+     */
+    @Parameter( name = "match-mode", defaultValue = "prefix" )
+    private String matchMode;
+
+    /**
+     * How the highest of several matching jars is chosen: 'semantic' compares the versions in
+     * their names the OSGi and Maven way, 'lexical' compares the names as strings.
+     */
+    @Parameter( name = "version-order", defaultValue = "semantic" )
+    private String versionOrder;
+
     final private Map<String,String> mapping = new TreeMap<>();
 
     @Override
@@ -50,12 +69,26 @@ extends AbstractMojo {
     		throw new MojoExecutionException("Cannot identify resolution directory " + directory.getAbsolutePath());
     	getLog().info("Resolving from " + directory.getAbsolutePath());
 
+    	//list the directory once, and resolve all dependencies against that
+    	JarDirectoryIndex index;
+    	try {
+    		index = ResolutionService.get(this.session).directory(directory);
+    	}
+    	catch (Exception e) {
+    		throw new MojoExecutionException("Cannot list resolution directory " + directory.getAbsolutePath(), e);
+    	}
+    	getLog().info("Indexed " + index.getJars().size() + " jars");
+    	if (!"prefix".equals(this.matchMode) && !"bundle-name".equals(this.matchMode))
+    		throw new MojoExecutionException("Unknown match mode " + this.matchMode);
+    	if (!"semantic".equals(this.versionOrder) && !"lexical".equals(this.versionOrder))
+    		throw new MojoExecutionException("Unknown version order " + this.versionOrder);
+
     	StringBuilder compilePathStringBuilder = null;
 
     	int dependencyMaxLength = 0;
     	for (String dependency: this.dependencies) {
     		dependencyMaxLength = Math.max(dependencyMaxLength, dependency.length());
-    		compilePathStringBuilder = addDependency(compilePathStringBuilder, directory, dependency);
+    		compilePathStringBuilder = addDependency(compilePathStringBuilder, index, dependency);
     	}
 
     	getLog().info("Dependencies[" + this.dependencies.length + "]:");
@@ -78,38 +111,30 @@ extends AbstractMojo {
 
     private StringBuilder addDependency(
     		StringBuilder stringBuilder,
-    		File directory,
+    		JarDirectoryIndex index,
     		String dependency)
     throws MojoExecutionException {
     	String jarFilename = dependency.endsWith(".jar")?
     			dependency : dependency + ".jar";
-    	File jar = new File(directory, jarFilename);
-    	if (!jar.isFile()) {
-    		//not a direct hit. Let's go look for jars that start with the dependency name
-    		jar = null;
-    		for (File file: directory.listFiles()) {
-    			if (!file.isFile())
-    				continue;
-    			if (!file.getName().endsWith(".jar"))
-    				continue;
-    			if (!file.getName().startsWith(dependency))
-    				continue;
-    			//match. Is its name higher?
-    			if (jar == null)
-    				jar = file;
-    			else if (jar.getName().compareTo(file.getName()) < 0)
-    				jar = file;
+    	JarRecord jar = index.get(jarFilename);
+    	if (jar == null) {
+    		//not a direct hit. Take the highest of the jars that match the dependency name
+    		Collection<JarRecord> candidates = "bundle-name".equals(this.matchMode)?
+    				index.getBundle(dependency) : index.withPrefix(dependency).values();
+    		for (JarRecord candidate: candidates) {
+    			if (jar == null || compare(jar, candidate) < 0)
+    				jar = candidate;
     		}
     	}
-    	if (jar == null || !jar.isFile())
+    	if (jar == null)
     		throw new MojoExecutionException("Cannot resolve " + dependency);
     	if (stringBuilder == null)
     		stringBuilder = new StringBuilder();
     	else
     		stringBuilder.append(File.pathSeparator);
     	try {
-    		stringBuilder.append(jar.getCanonicalPath());
-    		this.mapping.put(dependency, jar.getCanonicalPath());
+    		stringBuilder.append(jar.file.getCanonicalPath());
+    		this.mapping.put(dependency, jar.file.getCanonicalPath());
     	}
     	catch (Exception e) {
     		throw new MojoExecutionException("Cannot resolve " + dependency, e);
@@ -117,4 +142,13 @@ extends AbstractMojo {
     	return stringBuilder;
     }
 
+    /**
+     * Compare two jars according to the version order
+     */
+    private int compare(JarRecord a, JarRecord b) {
+    	if ("lexical".equals(this.versionOrder))
+    		return a.name.compareTo(b.name);
+    	return BundleVersion.compareJarNames(a.name, b.name);
+    }
+
 }
@@ -0,0 +1,387 @@
+package com.safits;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The copy engine copies files channel to channel with {@link FileChannel#transferTo},
+ * which lets the operating system move the bytes without passing them through the heap,
+ * and runs the copies on a pool of a bounded number of threads.
+ *
+ * All copies submitted run to the end. When they are awaited, the failure of the copy
+ * submitted first is reported, so the outcome does not depend on which copy happened to fail first.
+ *
+ * Instead of copying, the engine can hard link the destination to the source, or clone it
+ * on file systems with copy on write (reflink), which takes neither time nor space.
+ * Where that is not possible, like across file systems, the file is copied.
+ * Java has no call for cloning a file, so cloning is done by <code>cp --reflink=always</code>.
+ * A source directory where cloning failed once is not tried again.
+ *
+ * In sync mode a destination that is already current is left alone. It is current if it has the size
+ * and modification time of its source, or, when comparing content, the size and the same bytes.
+ * Copies then get the modification time of their source, so the next sync finds them current.
+ */
+class CopyEngine {
+
+	/**
+	 * How files get to their destination
+	 */
+	enum Mode {
+		/** copy the bytes */
+		COPY,
+		/** hard link the destination to the source */
+		LINK,
+		/** clone the source on a copy on write file system */
+		REFLINK;
+
+		/**
+		 * @param name of a mode, like 'link'
+		 * @return the mode
+		 * @throws IllegalArgumentException if there is no such mode
+		 */
+		static Mode of(String name) {
+			return valueOf(name.toUpperCase(Locale.ROOT));
+		}
+	}
+
+	private final ExecutorService pool;
+
+	private final Mode mode;
+
+	private final AtomicInteger copied = new AtomicInteger();
+
+	private final AtomicInteger linked = new AtomicInteger();
+
+	/** the files copied because they could not be linked or cloned */
+	private final AtomicInteger notLinked = new AtomicInteger();
+
+	/** the source directories where cloning failed */
+	private final Set<Path> noReflink = ConcurrentHashMap.newKeySet();
+
+	/** false once cp could not be run at all */
+	private volatile boolean reflinkAvailable = true;
+
+	/** the cp that clones files */
+	private String cp = "cp";
+
+	private boolean sync;
+
+	private boolean compareContent;
+
+	private final AtomicInteger unchanged = new AtomicInteger();
+
+	/** the bytes not copied, because the destination was current or was linked */
+	private final AtomicLong savedBytes = new AtomicLong();
+
+	/** all destinations submitted */
+	private final Set<File> destinations = new HashSet<>();
+
+	private final List<Copy> copies = new ArrayList<>();
+
+	/**
+	 * A submitted copy
+	 */
+	private static class Copy {
+
+		final File source;
+
+		final Future<?> future;
+
+		Copy(File source, Future<?> future) {
+			this.source = source;
+			this.future = future;
+		}
+	}
+
+	/**
+	 * @param threads the number of copies to run at the same time
+	 */
+	CopyEngine(int threads) {
+		this(threads, Mode.COPY);
+	}
+
+	/**
+	 * @param threads the number of copies to run at the same time
+	 * @param mode how files get to their destination
+	 */
+	CopyEngine(int threads, Mode mode) {
+		this.pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		this.mode = mode;
+	}
+
+	/**
+	 * Leave destinations alone that are already current
+	 * @param compareContent true to compare the content of files with the same size,
+	 *        false to compare their modification times
+	 */
+	void setSync(boolean compareContent) {
+		this.sync = true;
+		this.compareContent = compareContent;
+	}
+
+	/**
+	 * @return the number of destinations that were current
+	 */
+	int getUnchanged() {
+		return this.unchanged.get();
+	}
+
+	/**
+	 * @return the bytes not copied, because the destination was current or was linked
+	 */
+	long getSavedBytes() {
+		return this.savedBytes.get();
+	}
+
+	/**
+	 * @return all destinations submitted
+	 */
+	Set<File> getDestinations() {
+		return this.destinations;
+	}
+
+	/**
+	 * Clone files with another cp than the one on the path
+	 * @param cp the command, taking --reflink=always, the source and the destination
+	 */
+	void setCp(String cp) {
+		this.cp = cp;
+	}
+
+	/**
+	 * @return the number of files copied
+	 */
+	int getCopied() {
+		return this.copied.get();
+	}
+
+	/**
+	 * @return the number of files linked or cloned
+	 */
+	int getLinked() {
+		return this.linked.get();
+	}
+
+	/**
+	 * @return the number of files copied because they could not be linked or cloned
+	 */
+	int getNotLinked() {
+		return this.notLinked.get();
+	}
+
+	/**
+	 * Copy, link or clone a file on the pool
+	 * @param source file
+	 * @param destination file, replaced if it exists
+	 */
+	void submit(File source, File destination) {
+		this.destinations.add(destination.getAbsoluteFile());
+		this.copies.add(new Copy(source, this.pool.submit(() -> {
+			transfer(source, destination);
+			return null;
+		})));
+	}
+
+	private void transfer(File source, File destination)
+	throws IOException {
+		if (this.sync && isCurrent(source, destination, this.compareContent)) {
+			this.unchanged.incrementAndGet();
+			this.savedBytes.addAndGet(source.length());
+			return;
+		}
+		Path target = destination.toPath();
+		if (this.mode == Mode.LINK && Files.exists(target) && Files.isSameFile(target, source.toPath())) {
+			//linked by a previous export
+			this.linked.incrementAndGet();
+			this.savedBytes.addAndGet(source.length());
+			return;
+		}
+		//the destination may be a link to a source, which must not be written through
+		Files.deleteIfExists(target);
+		boolean linked = this.mode == Mode.LINK && link(source, destination)
+				|| this.mode == Mode.REFLINK && reflink(source, destination);
+		if (linked) {
+			this.linked.incrementAndGet();
+			this.savedBytes.addAndGet(source.length());
+		}
+		else {
+			copy(source, destination);
+			this.copied.incrementAndGet();
+			if (this.mode != Mode.COPY)
+				this.notLinked.incrementAndGet();
+		}
+		//a hard link has the time of its source, but a clone, like a copy, gets the time of now,
+		//which would make the next sync transfer it again
+		if (this.sync && !(linked && this.mode == Mode.LINK))
+			Files.setLastModifiedTime(destination.toPath(), Files.getLastModifiedTime(source.toPath()));
+	}
+
+	/**
+	 * Tell whether a destination is current
+	 * @param source file
+	 * @param destination file
+	 * @param compareContent true to compare the bytes, false to compare the modification times
+	 * @return true if the destination exists with the same size and the same modification time or content
+	 * @throws IOException if the files cannot be read
+	 */
+	static boolean isCurrent(File source, File destination, boolean compareContent)
+	throws IOException {
+		if (!destination.isFile() || destination.length() != source.length())
+			return false;
+		if (!compareContent)
+			return destination.lastModified() == source.lastModified();
+		try (FileChannel a = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+				FileChannel b = FileChannel.open(destination.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer aBuffer = ByteBuffer.allocate(64 * 1024);
+			ByteBuffer bBuffer = ByteBuffer.allocate(64 * 1024);
+			while (true) {
+				aBuffer.clear();
+				bBuffer.clear();
+				int aRead = readFully(a, aBuffer);
+				int bRead = readFully(b, bBuffer);
+				if (aRead != bRead)
+					return false;
+				if (aRead <= 0)
+					return true;
+				aBuffer.flip();
+				bBuffer.flip();
+				if (!aBuffer.equals(bBuffer))
+					return false;
+			}
+		}
+	}
+
+	private static int readFully(FileChannel channel, ByteBuffer buffer)
+	throws IOException {
+		int total = 0;
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer);
+			if (read < 0)
+				break;
+			total += read;
+		}
+		return total;
+	}
+
+	private static boolean link(File source, File destination) {
+		try {
+			Files.createLink(destination.toPath(), source.toPath());
+			return true;
+		}
+		catch (IOException | UnsupportedOperationException e) {
+			//another file system, or no links there
+			return false;
+		}
+	}
+
+	private boolean reflink(File source, File destination)
+	throws IOException {
+		Path sourceDirectory = source.getAbsoluteFile().toPath().getParent();
+		if (!this.reflinkAvailable || this.noReflink.contains(sourceDirectory))
+			return false;
+		Process process;
+		try {
+			process = new ProcessBuilder(
+					this.cp, "--reflink=always", source.getAbsolutePath(), destination.getAbsolutePath())
+					.redirectErrorStream(true)
+					.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+					.start();
+		}
+		catch (IOException e) {
+			this.reflinkAvailable = false;
+			return false;
+		}
+		try {
+			if (process.waitFor() == 0)
+				return true;
+		}
+		catch (InterruptedException e) {
+			process.destroy();
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		}
+		this.noReflink.add(sourceDirectory);
+		return false;
+	}
+
+	/**
+	 * Wait for all submitted copies and shut the pool down
+	 * @throws IOException the failure of the first copy submitted that failed
+	 */
+	void await()
+	throws IOException {
+		IOException failure = null;
+		try {
+			for (Copy copy: this.copies) {
+				try {
+					copy.future.get();
+				}
+				catch (ExecutionException e) {
+					if (failure == null)
+						failure = new IOException("Could not copy file " + copy.source.getAbsolutePath(), e.getCause());
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		}
+		finally {
+			this.copies.clear();
+			this.pool.shutdownNow();
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Stop the pool without waiting, after something else failed
+	 */
+	void shutdown() {
+		this.pool.shutdownNow();
+	}
+
+	/**
+	 * Copy a file on the calling thread
+	 * @param source file
+	 * @param destination file, replaced if it exists. It is removed first,
+	 *        so a destination linked to its source by an earlier export does not overwrite the source.
+	 * @throws IOException if the file cannot be copied completely
+	 */
+	static void copy(File source, File destination)
+	throws IOException {
+		Files.deleteIfExists(destination.toPath());
+		try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(
+						destination.toPath(),
+						StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE_NEW)) {
+			long size = in.size();
+			long position = 0;
+			while (position < size) {
+				long transferred = in.transferTo(position, size - position, out);
+				if (transferred <= 0)
+					throw new IOException(source.getAbsolutePath() + " ended after " + position + " of " + size + " bytes");
+				position += transferred;
+			}
+		}
+	}
+
+}
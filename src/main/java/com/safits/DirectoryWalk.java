@@ -0,0 +1,178 @@
+package com.safits;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A directory walk visits a directory tree on a fork-join pool.
+ * Each directory is read exactly once, and each entry is handed on with the attributes
+ * the walk read for it, which following links takes a stat per entry. A task is forked for each
+ * sub directory, and the outcomes are merged in name order within each directory, so they do not
+ * depend on the listing order.
+ *
+ * Failures to read a directory travel through the pool as {@link UncheckedIOException}
+ * and come out of {@link #invoke} as the IOException they wrap.
+ *
+ * @param <R> the outcome of walking a directory
+ */
+abstract class DirectoryWalk<R>
+extends RecursiveTask<R> {
+
+	private static final long serialVersionUID = 1L;
+
+	protected final Path directory;
+
+	protected final BasicFileAttributes attributes;
+
+	/**
+	 * An entry that is not a directory, with the attributes it was listed with
+	 */
+	private static class FileEntry {
+
+		final Path file;
+
+		final BasicFileAttributes attributes;
+
+		FileEntry(Path file, BasicFileAttributes attributes) {
+			this.file = file;
+			this.attributes = attributes;
+		}
+	}
+
+	/**
+	 * @param directory to walk
+	 * @param attributes of the directory
+	 */
+	protected DirectoryWalk(Path directory, BasicFileAttributes attributes) {
+		this.directory = directory;
+		this.attributes = attributes;
+	}
+
+	/**
+	 * @return the outcome of this directory, before its entries are added
+	 */
+	protected abstract R begin();
+
+	/**
+	 * @param subDirectory an entry that is a directory
+	 * @param subAttributes its attributes
+	 * @return the walk of the sub directory, or null to leave it out
+	 */
+	protected abstract DirectoryWalk<R> walk(Path subDirectory, BasicFileAttributes subAttributes);
+
+	/**
+	 * Add an entry that is not a directory
+	 * @param outcome of this directory
+	 * @param file the entry
+	 * @param fileAttributes its attributes
+	 */
+	protected abstract void file(R outcome, Path file, BasicFileAttributes fileAttributes);
+
+	/**
+	 * Add the outcome of a sub directory
+	 * @param outcome of this directory
+	 * @param subOutcome of the sub directory
+	 */
+	protected abstract void merge(R outcome, R subOutcome);
+
+	@Override
+	protected R compute() {
+		R outcome = begin();
+
+		//read the directory once, keeping the attributes delivered with each entry
+		Map<String,Object> entries = new TreeMap<>();
+		try {
+			Files.walkFileTree(
+					this.directory,
+					EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+					1,
+					new SimpleFileVisitor<Path>() {
+						@Override
+						public FileVisitResult visitFile(Path file, BasicFileAttributes fileAttributes) {
+							String name = file.getFileName().toString();
+							if (!fileAttributes.isDirectory())
+								entries.put(name, new FileEntry(file, fileAttributes));
+							else {
+								DirectoryWalk<R> walk = walk(file, fileAttributes);
+								if (walk != null)
+									entries.put(name, walk);
+							}
+							return FileVisitResult.CONTINUE;
+						}
+						@Override
+						public FileVisitResult visitFileFailed(Path file, IOException e)
+						throws IOException {
+							throw e;
+						}
+					});
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		List<DirectoryWalk<?>> walks = new ArrayList<>();
+		for (Object entry: entries.values()) {
+			if (entry instanceof DirectoryWalk)
+				walks.add((DirectoryWalk<?>) entry);
+		}
+		invokeAll(walks);
+
+		//merge in name order
+		for (Object entry: entries.values()) {
+			if (entry instanceof DirectoryWalk) {
+				@SuppressWarnings("unchecked")
+				DirectoryWalk<R> walk = (DirectoryWalk<R>) entry;
+				merge(outcome, walk.join());
+			}
+			else {
+				FileEntry file = (FileEntry) entry;
+				file(outcome, file.file, file.attributes);
+			}
+		}
+		return outcome;
+	}
+
+	/**
+	 * Walk several trees at the same time on a pool of its own
+	 * @param parallelism the number of threads
+	 * @param walks to run
+	 * @return their outcomes, in the given order
+	 * @throws IOException if a directory cannot be read
+	 */
+	static <R> List<R> invoke(int parallelism, List<? extends DirectoryWalk<R>> walks)
+	throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+		try {
+			return pool.invoke(new RecursiveTask<List<R>>() {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected List<R> compute() {
+					invokeAll(walks);
+					List<R> outcomes = new ArrayList<>();
+					for (DirectoryWalk<R> walk: walks)
+						outcomes.add(walk.join());
+					return outcomes;
+				}
+			});
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+}
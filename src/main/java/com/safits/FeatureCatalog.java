@@ -0,0 +1,515 @@
+package com.safits;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.input.SAXBuilder;
+
+/**
+ * The feature catalog knows the features of the resource directories by id, each with its versions
+ * in OSGi order, so that feature based products can be exported.
+ * A feature is a jar or a directory, named like id_version, with a feature.xml at its root.
+ *
+ * The feature.xml files are parsed in parallel on a pool of a bounded number of threads.
+ * What they say is kept in a file together with the fingerprint of each feature.xml or feature jar,
+ * so on the next build only new and changed features are parsed.
+ *
+ * The cache file is a plain text file, one record per line. The plugins and includes of a feature follow its feature record:
+ * <pre>
+ * feature &lt;fingerprint&gt; &lt;id&gt; &lt;version&gt; &lt;absolute path&gt;
+ * plugin &lt;id&gt; &lt;version&gt; &lt;os&gt; &lt;ws&gt; &lt;arch&gt;
+ * includes &lt;id&gt; &lt;version&gt; &lt;optional&gt;
+ * </pre>
+ * Missing filters are written as '*'.
+ */
+class FeatureCatalog {
+
+	private static final String FEATURE_XML = "feature.xml";
+
+	/** a missing filter or version in the cache file */
+	private static final String ANY = "*";
+
+	/**
+	 * A plugin a feature lists
+	 */
+	static class Plugin {
+
+		final String id;
+
+		/** as given, may be empty or 0.0.0 for any */
+		final String version;
+
+		/** the platform filters, comma separated, or null if there are none */
+		final String os;
+
+		final String ws;
+
+		final String arch;
+
+		Plugin(String id, String version, String os, String ws, String arch) {
+			this.id = id;
+			this.version = version;
+			this.os = os;
+			this.ws = ws;
+			this.arch = arch;
+		}
+
+		/**
+		 * @param platform operating system, windowing system and architecture, like linux, gtk, x86_64
+		 * @return true if the plugin is meant for that platform
+		 */
+		boolean matches(String[] platform) {
+			return matches(this.os, platform[0]) && matches(this.ws, platform[1]) && matches(this.arch, platform[2]);
+		}
+
+		private static boolean matches(String filter, String value) {
+			if (filter == null)
+				return true;
+			for (String allowed: filter.split(",")) {
+				if (allowed.trim().equalsIgnoreCase(value))
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * A feature a feature includes
+	 */
+	static class Include {
+
+		final String id;
+
+		final String version;
+
+		final boolean optional;
+
+		Include(String id, String version, boolean optional) {
+			this.id = id;
+			this.version = version;
+			this.optional = optional;
+		}
+	}
+
+	/**
+	 * A parsed feature
+	 */
+	static class Feature {
+
+		final String id;
+
+		final BundleVersion version;
+
+		final File source;
+
+		final List<Plugin> plugins;
+
+		final List<Include> includes;
+
+		Feature(String id, BundleVersion version, File source, List<Plugin> plugins, List<Include> includes) {
+			this.id = id;
+			this.version = version;
+			this.source = source;
+			this.plugins = plugins;
+			this.includes = includes;
+		}
+
+		@Override
+		public String toString() {
+			return this.id + " " + this.version;
+		}
+	}
+
+	/**
+	 * What is parsed from one feature.xml, as it goes into the cache file
+	 */
+	private static class Record {
+
+		final String fingerprint;
+
+		final String id;
+
+		final String version;
+
+		final List<Plugin> plugins = new ArrayList<>();
+
+		final List<Include> includes = new ArrayList<>();
+
+		Record(String fingerprint, String id, String version) {
+			this.fingerprint = fingerprint;
+			this.id = id;
+			this.version = version;
+		}
+	}
+
+	private final CacheFile cache;
+
+	private final int threads;
+
+	/** the features by id, by version */
+	private final Map<String,NavigableMap<BundleVersion,Feature>> features = new HashMap<>();
+
+	private int parsedCount;
+
+	private int reusedCount;
+
+	/**
+	 * @param cacheFile where the parsed features are kept between builds
+	 * @param threads the number of feature.xml files parsed at the same time
+	 */
+	FeatureCatalog(File cacheFile, int threads) {
+		this.cache = new CacheFile(cacheFile, "feature cache", 1);
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * @return the number of features parsed by the last refresh
+	 */
+	int getParsedCount() {
+		return this.parsedCount;
+	}
+
+	/**
+	 * @return the number of features taken from the cache file by the last refresh
+	 */
+	int getReusedCount() {
+		return this.reusedCount;
+	}
+
+	/**
+	 * Make the catalog hold the features in some directories, parsing only those that are new or changed
+	 * since the cache file was written, and write the cache file if anything changed
+	 * @param directories holding feature jars and feature directories. Those that do not exist are skipped.
+	 *        If two features have the same id and version, the one in the later directory wins.
+	 * @throws IOException if a feature cannot be read or parsed, or the cache file cannot be written
+	 */
+	void refresh(List<File> directories)
+	throws IOException {
+		List<File> sources = new ArrayList<>();
+		for (File directory: directories) {
+			File[] files = directory.listFiles();
+			if (files == null)
+				continue;
+			List<File> sorted = new ArrayList<>();
+			Collections.addAll(sorted, files);
+			Collections.sort(sorted);
+			for (File file: sorted) {
+				if ((file.isFile() && file.getName().endsWith(".jar"))
+						|| new File(file, FEATURE_XML).isFile())
+					sources.add(file.getAbsoluteFile());
+			}
+		}
+
+		Map<String,Record> stored = load();
+		Map<File,Record> records = new LinkedHashMap<>();
+		Map<File,Future<Record>> parsing = new LinkedHashMap<>();
+		this.parsedCount = 0;
+		this.reusedCount = 0;
+		ExecutorService pool = null;
+		try {
+			for (File source: sources) {
+				String fingerprint = ClasspathCache.fingerprint(
+						(source.isDirectory()? new File(source, FEATURE_XML) : source).toPath());
+				if (fingerprint == null)
+					throw new IOException("Cannot access " + source);
+				Record record = stored.get(source.getPath());
+				if (record != null && record.fingerprint.equals(fingerprint)) {
+					records.put(source, record);
+					this.reusedCount++;
+					continue;
+				}
+				if (pool == null)
+					pool = Executors.newFixedThreadPool(Math.min(this.threads, sources.size()));
+				parsing.put(source, pool.submit(() -> parse(source, fingerprint)));
+				records.put(source, null);
+			}
+			//the failure of the first feature, whichever failed first
+			for (Map.Entry<File,Future<Record>> parsed: parsing.entrySet()) {
+				try {
+					records.put(parsed.getKey(), parsed.getValue().get());
+				}
+				catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					throw cause instanceof IOException?
+							(IOException) cause : new IOException("Cannot parse feature " + parsed.getKey(), cause);
+				}
+				this.parsedCount++;
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		}
+		finally {
+			if (pool != null)
+				pool.shutdownNow();
+		}
+
+		this.features.clear();
+		List<String> lines = new ArrayList<>();
+		for (Map.Entry<File,Record> entry: records.entrySet()) {
+			Record record = entry.getValue();
+			BundleVersion version = BundleVersion.parse(record.version);
+			if (version == null)
+				throw new IOException("Invalid feature version " + record.version + " of " + entry.getKey());
+			this.features.computeIfAbsent(record.id, id -> new TreeMap<>()).put(version, new Feature(
+					record.id,
+					version,
+					entry.getKey(),
+					Collections.unmodifiableList(record.plugins),
+					Collections.unmodifiableList(record.includes)));
+			lines.add("feature " + record.fingerprint + " " + record.id + " " + record.version + " " + entry.getKey().getPath());
+			for (Plugin plugin: record.plugins)
+				lines.add("plugin " + plugin.id + " " + orAny(plugin.version) + " "
+						+ orAny(plugin.os) + " " + orAny(plugin.ws) + " " + orAny(plugin.arch));
+			for (Include include: record.includes)
+				lines.add("includes " + include.id + " " + orAny(include.version) + " " + include.optional);
+		}
+		if (this.parsedCount == 0 && stored.size() == records.size())
+			return;
+		this.cache.write(lines);
+	}
+
+	private static String orAny(String value) {
+		return value == null || value.isEmpty()? ANY : value.replace(' ', ',');
+	}
+
+	private static String fromAny(String value) {
+		return ANY.equals(value)? null : value;
+	}
+
+	/**
+	 * Load the cache file
+	 * @return the records by absolute path. Empty if there is no valid cache file.
+	 */
+	private Map<String,Record> load() {
+		Map<String,Record> records = new HashMap<>();
+		List<String> lines = this.cache.read();
+		if (lines == null)
+			return records;
+		Record record = null;
+		for (String line: lines) {
+			String[] fields = line.split(" ", line.startsWith("feature ")? 5 : 6);
+			if ("feature".equals(fields[0]) && fields.length == 5) {
+				record = new Record(fields[1], fields[2], fields[3]);
+				records.put(fields[4], record);
+			}
+			else if ("plugin".equals(fields[0]) && fields.length == 6 && record != null)
+				record.plugins.add(new Plugin(fields[1], fromAny(fields[2]), fromAny(fields[3]), fromAny(fields[4]), fromAny(fields[5])));
+			else if ("includes".equals(fields[0]) && fields.length == 4 && record != null)
+				record.includes.add(new Include(fields[1], fromAny(fields[2]), Boolean.parseBoolean(fields[3])));
+			else {
+				//not ours, start over
+				records.clear();
+				return records;
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Parse the feature.xml of a feature jar or directory
+	 */
+	private static Record parse(File source, String fingerprint)
+	throws IOException {
+		Document document;
+		try {
+			if (source.isDirectory())
+				document = new SAXBuilder().build(new File(source, FEATURE_XML));
+			else {
+				ZipCentralDirectory directory = ZipCentralDirectory.read(source.toPath());
+				ZipCentralDirectory.Entry entry = directory.getEntry(FEATURE_XML);
+				if (entry == null)
+					throw new IOException(source + " has no " + FEATURE_XML);
+				document = new SAXBuilder().build(new ByteArrayInputStream(directory.read(entry)));
+			}
+		}
+		catch (IOException e) {
+			throw new IOException("Cannot read feature " + source, e);
+		}
+		catch (Exception e) {
+			throw new IOException("Cannot parse the " + FEATURE_XML + " of " + source, e);
+		}
+		Element root = document.getRootElement();
+		String id = root.getAttributeValue("id");
+		if (!"feature".equals(root.getName()) || id == null || id.trim().isEmpty())
+			throw new IOException("Invalid " + FEATURE_XML + " in " + source);
+		String version = root.getAttributeValue("version", "0.0.0").trim();
+		Record record = new Record(fingerprint, id.trim(), version.isEmpty()? "0.0.0" : version);
+		for (Element plugin: root.getChildren("plugin")) {
+			String pluginId = plugin.getAttributeValue("id");
+			if (pluginId == null || pluginId.trim().isEmpty())
+				continue;
+			record.plugins.add(new Plugin(
+					pluginId.trim(),
+					trimmed(plugin.getAttributeValue("version")),
+					trimmed(plugin.getAttributeValue("os")),
+					trimmed(plugin.getAttributeValue("ws")),
+					trimmed(plugin.getAttributeValue("arch"))));
+		}
+		for (Element include: root.getChildren("includes")) {
+			String includeId = include.getAttributeValue("id");
+			if (includeId == null || includeId.trim().isEmpty())
+				continue;
+			record.includes.add(new Include(
+					includeId.trim(),
+					trimmed(include.getAttributeValue("version")),
+					"true".equals(include.getAttributeValue("optional"))));
+		}
+		return record;
+	}
+
+	private static String trimmed(String value) {
+		if (value == null || value.trim().isEmpty())
+			return null;
+		return value.trim();
+	}
+
+	/**
+	 * Find the versions of a feature that a product or including feature may stand for
+	 * @param id of the feature
+	 * @param version as given, null, empty or 0.0.0 for any version.
+	 *        A version ending in .qualifier stands for all qualifiers of that version.
+	 * @return the matching features, ascending by version
+	 */
+	List<Feature> candidates(String id, String version) {
+		NavigableMap<BundleVersion,Feature> versions = this.features.get(id);
+		List<Feature> matching = new ArrayList<>();
+		if (versions == null)
+			return matching;
+		if (version == null || version.isEmpty() || "0.0.0".equals(version)) {
+			matching.addAll(versions.values());
+			return matching;
+		}
+		boolean anyQualifier = version.endsWith(".qualifier");
+		BundleVersion wanted = BundleVersion.parse(anyQualifier?
+				version.substring(0, version.length() - ".qualifier".length()) : version);
+		for (Feature feature: versions.values()) {
+			if (wanted != null && (anyQualifier? feature.version.hasNumbers(wanted) : feature.version.equals(wanted)))
+				matching.add(feature);
+		}
+		return matching;
+	}
+
+	/**
+	 * Resolve features together with all features they include
+	 * @param roots id and version of each feature the product names
+	 * @param policy which version to take if several would do
+	 * @param problems where to add what cannot be resolved
+	 * @return the features, in the order they were reached
+	 */
+	List<Feature> resolve(List<String[]> roots, BundleCatalog.Policy policy, List<String> problems) {
+		Map<String,Feature> resolved = new LinkedHashMap<>();
+		Deque<Feature> queue = new ArrayDeque<>();
+		for (String[] root: roots)
+			resolveOne(root[0], root[1], false, "the product", policy, problems, resolved, queue);
+		while (!queue.isEmpty()) {
+			Feature feature = queue.removeFirst();
+			for (Include include: feature.includes)
+				resolveOne(include.id, include.version, include.optional, feature.toString(), policy, problems, resolved, queue);
+		}
+		return new ArrayList<>(resolved.values());
+	}
+
+	private void resolveOne(
+			String id,
+			String version,
+			boolean optional,
+			String neededBy,
+			BundleCatalog.Policy policy,
+			List<String> problems,
+			Map<String,Feature> resolved,
+			Deque<Feature> queue) {
+		List<Feature> candidates = candidates(id, version);
+		if (candidates.isEmpty()) {
+			if (!optional)
+				problems.add("Cannot resolve feature " + id + (version == null? "" : " " + version) + ", needed by " + neededBy);
+			return;
+		}
+		Feature feature;
+		switch (policy) {
+		case LOWEST:
+			feature = candidates.get(0);
+			break;
+		case UNIQUE:
+			if (candidates.size() > 1) {
+				problems.add("Several versions of feature " + id + " are available: " + candidates);
+				return;
+			}
+			feature = candidates.get(0);
+			break;
+		default:
+			feature = candidates.get(candidates.size() - 1);
+		}
+		String key = feature.id + " " + feature.version;
+		if (resolved.putIfAbsent(key, feature) == null)
+			queue.addLast(feature);
+	}
+
+	/**
+	 * @param osName the name of the operating system, as in the os.name property
+	 * @param osArch the architecture, as in the os.arch property
+	 * @return operating system, windowing system and architecture the way feature.xml names them
+	 */
+	static String[] platform(String osName, String osArch) {
+		String name = osName.toLowerCase(Locale.ROOT);
+		String os;
+		String ws;
+		if (name.startsWith("windows")) {
+			os = "win32";
+			ws = "win32";
+		}
+		else if (name.startsWith("mac")) {
+			os = "macosx";
+			ws = "cocoa";
+		}
+		else {
+			os = name;
+			ws = "gtk";
+		}
+		String arch = osArch.toLowerCase(Locale.ROOT);
+		if ("amd64".equals(arch))
+			arch = "x86_64";
+		else if ("i386".equals(arch) || "i686".equals(arch))
+			arch = "x86";
+		return new String[] { os, ws, arch };
+	}
+
+	/**
+	 * @param features resolved
+	 * @param platform operating system, windowing system and architecture
+	 * @return id and version of the plugins of the features meant for the platform, each pair once
+	 */
+	static List<String[]> plugins(List<Feature> features, String[] platform) {
+		List<String[]> plugins = new ArrayList<>();
+		Set<String> seen = new HashSet<>();
+		for (Feature feature: features) {
+			for (Plugin plugin: feature.plugins) {
+				if (plugin.matches(platform) && seen.add(plugin.id + " " + plugin.version))
+					plugins.add(new String[] { plugin.id, plugin.version });
+			}
+		}
+		return plugins;
+	}
+
+}
@@ -0,0 +1,160 @@
+package com.safits;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * The input digest sums up the inputs of a jar by the names, sizes and modification times
+ * of all files and directories, without reading any content.
+ * Directory trees are walked in parallel by a {@link DirectoryWalk}, each directory is listed once,
+ * and the attributes delivered with the listing are used. The outcome is a SHA-256 digest
+ * over one line per entry in name order, so it does not depend on the listing order.
+ * A link back to a directory above is left out, as the jar scanner leaves it out.
+ */
+class InputDigest {
+
+	private final int parallelism;
+
+	/**
+	 * @param parallelism the number of threads to walk with
+	 */
+	InputDigest(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Compute the digest of some inputs
+	 * @param key describing everything else the outcome depends on, like the configuration
+	 * @param inputs files or directories by the name they are known under, in a fixed order
+	 * @return the digest in hex
+	 * @throws IOException if an input is missing or a directory cannot be read
+	 */
+	String digest(String key, Map<String,File> inputs)
+	throws IOException {
+		List<String> lines = new ArrayList<>();
+		List<EntryTask> tasks = new ArrayList<>();
+		//the lines of plain files, and null where the lines of a directory go
+		for (Entry<String,File> input: inputs.entrySet()) {
+			Path path = input.getValue().toPath();
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			if (attributes.isDirectory()) {
+				tasks.add(new EntryTask(input.getKey(), path, attributes, Collections.emptySet()));
+				lines.add(null);
+			}
+			else
+				lines.add(EntryTask.line(input.getKey(), attributes));
+		}
+		Iterator<List<String>> directoryLines = DirectoryWalk.invoke(this.parallelism, tasks).iterator();
+
+		MessageDigest digest = sha256();
+		digest.update(key.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) '\n');
+		for (String line: lines) {
+			for (String entryLine: line == null? directoryLines.next() : Collections.singletonList(line)) {
+				digest.update(entryLine.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) '\n');
+			}
+		}
+		return hex(digest);
+	}
+
+	/**
+	 * @return a new SHA-256 digest
+	 * @throws IOException if the platform has no SHA-256, which it must have
+	 */
+	static MessageDigest sha256()
+	throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * @param digest to complete
+	 * @return the digest in lower case hex
+	 */
+	static String hex(MessageDigest digest) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b: digest.digest())
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+
+	/**
+	 * Describes one directory with everything below it, one line per entry
+	 */
+	private static class EntryTask
+	extends DirectoryWalk<List<String>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+
+		/** the file keys of this directory and all directories above it, to break cycles through links */
+		private final Set<Object> path;
+
+		EntryTask(String name, Path path, BasicFileAttributes attributes, Set<Object> ancestors) {
+			super(path, attributes);
+			this.name = name;
+			this.path = new HashSet<>(ancestors);
+			if (attributes.fileKey() != null)
+				this.path.add(attributes.fileKey());
+		}
+
+		static String line(String name, BasicFileAttributes attributes) {
+			return (attributes.isDirectory()? "d " : "f ")
+					+ attributes.size() + " "
+					+ attributes.lastModifiedTime().toMillis() + " "
+					+ name;
+		}
+
+		private String entryName(Path entry) {
+			String fileName = entry.getFileName().toString();
+			return this.name.isEmpty()? fileName : this.name + "/" + fileName;
+		}
+
+		@Override
+		protected List<String> begin() {
+			List<String> lines = new ArrayList<>();
+			lines.add(line(this.name, this.attributes));
+			return lines;
+		}
+
+		@Override
+		protected EntryTask walk(Path subDirectory, BasicFileAttributes subAttributes) {
+			Object fileKey = subAttributes.fileKey();
+			if (fileKey != null && this.path.contains(fileKey))
+				//a link back to a directory above
+				return null;
+			return new EntryTask(entryName(subDirectory), subDirectory, subAttributes, this.path);
+		}
+
+		@Override
+		protected void file(List<String> lines, Path file, BasicFileAttributes fileAttributes) {
+			lines.add(line(entryName(file), fileAttributes));
+		}
+
+		@Override
+		protected void merge(List<String> lines, List<String> subLines) {
+			lines.addAll(subLines);
+		}
+	}
+
+}
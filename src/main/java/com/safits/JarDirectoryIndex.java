@@ -0,0 +1,157 @@
+package com.safits;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The jar directory index holds the jars of one directory, sorted by file name,
+ * so that exact and prefix lookups cost O(log n) instead of a directory listing each.
+ *
+ * Indexes are shared by all executions in the same build through the {@link ResolutionService}.
+ * A shared index is reused as long as the fingerprint of its directory is unchanged, which costs one stat.
+ */
+class JarDirectoryIndex {
+
+	private final File directory;
+
+	private final String fingerprint;
+
+	private final NavigableMap<String,JarRecord> jars;
+
+	/** the names of all entries that are not jar files, sorted */
+	private final List<String> otherEntries;
+
+	/** the jars by bundle name, each list sorted by ascending version */
+	private final Map<String,List<JarRecord>> bundles;
+
+	private JarDirectoryIndex(
+			File directory,
+			String fingerprint,
+			NavigableMap<String,JarRecord> jars,
+			List<String> otherEntries) {
+		this.directory = directory;
+		this.fingerprint = fingerprint;
+		this.jars = jars;
+		this.otherEntries = otherEntries;
+		Map<String,List<JarRecord>> bundles = new HashMap<>();
+		for (JarRecord jar: jars.values()) {
+			if (jar.versionText != null)
+				bundles.computeIfAbsent(jar.bundleName, name -> new ArrayList<>()).add(jar);
+		}
+		for (List<JarRecord> versions: bundles.values())
+			versions.sort((a, b) -> BundleVersion.compareJarNames(a.name, b.name));
+		this.bundles = bundles;
+	}
+
+	/**
+	 * List a directory into a new index
+	 * @param directory to index
+	 * @return the index
+	 * @throws IOException if the directory cannot be read
+	 */
+	static JarDirectoryIndex create(File directory)
+	throws IOException {
+		File canonicalDirectory = directory.getCanonicalFile();
+		String fingerprint = ClasspathCache.fingerprint(canonicalDirectory.toPath());
+		if (fingerprint == null)
+			throw new IOException("Cannot access " + canonicalDirectory);
+		NavigableMap<String,JarRecord> jars = new TreeMap<>();
+		List<String> otherEntries = new ArrayList<>();
+		//list once, using the attributes delivered with the listing
+		Files.walkFileTree(
+				canonicalDirectory.toPath(),
+				EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+				1,
+				new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+						String name = file.getFileName().toString();
+						if (attributes.isRegularFile() && name.endsWith(".jar"))
+							jars.put(name, JarRecord.of(file, attributes));
+						else
+							otherEntries.add(name);
+						return FileVisitResult.CONTINUE;
+					}
+					@Override
+					public FileVisitResult visitFileFailed(Path file, IOException e)
+					throws IOException {
+						throw e;
+					}
+				});
+		Collections.sort(otherEntries);
+		return new JarDirectoryIndex(
+				canonicalDirectory,
+				fingerprint,
+				Collections.unmodifiableNavigableMap(jars),
+				Collections.unmodifiableList(otherEntries));
+	}
+
+	/**
+	 * @return true if the directory has not changed since it was indexed
+	 */
+	boolean isCurrent() {
+		return this.fingerprint.equals(ClasspathCache.fingerprint(this.directory.toPath()));
+	}
+
+	/**
+	 * @return the canonical directory
+	 */
+	File getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * @return all jars by file name, sorted
+	 */
+	NavigableMap<String,JarRecord> getJars() {
+		return this.jars;
+	}
+
+	/**
+	 * @return the names of all entries that are not jar files, like directories, sorted
+	 */
+	List<String> getOtherEntries() {
+		return this.otherEntries;
+	}
+
+	/**
+	 * @param fileName of a jar
+	 * @return the jar or null
+	 */
+	JarRecord get(String fileName) {
+		return this.jars.get(fileName);
+	}
+
+	/**
+	 * @param prefix of jar file names
+	 * @return all jars whose file name starts with the prefix, sorted by file name
+	 */
+	SortedMap<String,JarRecord> withPrefix(String prefix) {
+		return this.jars.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+	}
+
+	/**
+	 * @param bundleName the exact bundle name, without version
+	 * @return the jars of that bundle, sorted by ascending version. Empty if there are none.
+	 */
+	List<JarRecord> getBundle(String bundleName) {
+		List<JarRecord> versions = this.bundles.get(bundleName);
+		return versions == null? Collections.emptyList() : Collections.unmodifiableList(versions);
+	}
+
+}
@@ -0,0 +1,170 @@
+package com.safits;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * The jar entry index remembers what the last jar written by create-main-jar was made of:
+ * for each entry made from a file, the size and modification time of that file and the CRC of its content,
+ * together with the compression level and the fingerprint of the jar itself.
+ * An entry whose file still has the same size and modification time can then be copied from that jar
+ * as it is stored, without reading and deflating the file again.
+ *
+ * The index file is a plain text file, one record per line:
+ * <pre>
+ * jar &lt;fingerprint&gt; &lt;absolute path&gt;
+ * level &lt;compression level&gt;
+ * entry &lt;size&gt; &lt;modification time&gt; &lt;crc&gt; &lt;entry name&gt;
+ * </pre>
+ */
+class JarEntryIndex {
+
+	/**
+	 * What an entry was made from
+	 */
+	static class Stamp {
+
+		final long size;
+
+		final long lastModified;
+
+		final long crc;
+
+		Stamp(long size, long lastModified, long crc) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.crc = crc;
+		}
+	}
+
+	private final CacheFile cache;
+
+	private File jar;
+
+	private int compressionLevel;
+
+	private Map<String,Stamp> entries = new HashMap<>();
+
+	JarEntryIndex(File indexFile) {
+		this.cache = new CacheFile(indexFile, "jar entry index", 1);
+	}
+
+	File getIndexFile() {
+		return this.cache.getFile();
+	}
+
+	/**
+	 * @return the jar the index describes, valid after a successful {@link #load()}
+	 */
+	File getJar() {
+		return this.jar;
+	}
+
+	/**
+	 * @return the compression level the jar was written with
+	 */
+	int getCompressionLevel() {
+		return this.compressionLevel;
+	}
+
+	/**
+	 * @param entryName name of an entry in the jar
+	 * @return what the entry was made from, or null if it was not made from a file
+	 */
+	Stamp get(String entryName) {
+		return this.entries.get(entryName);
+	}
+
+	/**
+	 * @return what the entries were made from, by entry name
+	 */
+	Map<String,Stamp> getStamps() {
+		return this.entries;
+	}
+
+	/**
+	 * Load the index file and check that the jar it describes is still the one that was written
+	 * @return true if the index and its jar can be used
+	 */
+	boolean load() {
+		List<String> lines = this.cache.read();
+		if (lines == null)
+			return false;
+		File indexedJar = null;
+		int level = -1;
+		Map<String,Stamp> indexedEntries = new HashMap<>();
+		try {
+			for (String line: lines) {
+				String[] fields = line.split(" ", 2);
+				if (fields.length != 2)
+					return false;
+				if ("jar".equals(fields[0])) {
+					String[] fingerprintAndPath = fields[1].split(" ", 2);
+					if (fingerprintAndPath.length != 2)
+						return false;
+					indexedJar = new File(fingerprintAndPath[1]);
+					if (!fingerprintAndPath[0].equals(ClasspathCache.fingerprint(indexedJar.toPath())))
+						//the jar was changed or removed since
+						return false;
+				}
+				else if ("level".equals(fields[0]))
+					level = Integer.parseInt(fields[1]);
+				else if ("entry".equals(fields[0])) {
+					String[] stamp = fields[1].split(" ", 4);
+					if (stamp.length != 4)
+						return false;
+					indexedEntries.put(stamp[3], new Stamp(
+							Long.parseLong(stamp[0]),
+							Long.parseLong(stamp[1]),
+							Long.parseLong(stamp[2])));
+				}
+				else
+					return false;
+			}
+		}
+		catch (NumberFormatException e) {
+			return false;
+		}
+		if (indexedJar == null || level < 0)
+			return false;
+		this.jar = indexedJar;
+		this.compressionLevel = level;
+		this.entries = indexedEntries;
+		return true;
+	}
+
+	/**
+	 * Store the index of a jar that was just written
+	 * @param writtenJar the jar
+	 * @param level the compression level it was written with
+	 * @param stamps what its entries were made from, by entry name
+	 * @throws IOException if the jar cannot be fingerprinted or the index file cannot be written
+	 */
+	void store(File writtenJar, int level, Map<String,Stamp> stamps)
+	throws IOException {
+		String fingerprint = ClasspathCache.fingerprint(writtenJar.toPath());
+		if (fingerprint == null)
+			throw new IOException("Cannot fingerprint " + writtenJar.getAbsolutePath());
+		List<String> lines = new ArrayList<>();
+		lines.add("jar " + fingerprint + " " + writtenJar.getAbsolutePath());
+		lines.add("level " + level);
+		for (Entry<String,Stamp> stamp: new TreeMap<>(stamps).entrySet()) {
+			lines.add("entry "
+					+ stamp.getValue().size + " "
+					+ stamp.getValue().lastModified + " "
+					+ stamp.getValue().crc + " "
+					+ stamp.getKey());
+		}
+		this.cache.write(lines);
+		this.jar = writtenJar.getAbsoluteFile();
+		this.compressionLevel = level;
+		this.entries = new HashMap<>(stamps);
+	}
+
+}
@@ -0,0 +1,220 @@
+package com.safits;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The jar index knows which packages each jar contains, and which jars are corrupt.
+ * A jar is only opened when it is new or its size or modification time changed,
+ * and then only its central directory is read.
+ *
+ * The index file is a plain text file, two lines per jar:
+ * <pre>
+ * jar &lt;size&gt; &lt;modification time&gt; &lt;absolute path&gt;
+ * packages &lt;package&gt; ...
+ * </pre>
+ * For a corrupt jar, the second line is <code>corrupt &lt;reason&gt;</code>.
+ */
+class JarIndex {
+
+	/**
+	 * What is known about one jar
+	 */
+	static class JarInfo {
+
+		final long size;
+
+		final long lastModified;
+
+		/** the packages holding classes, sorted */
+		final Set<String> packages;
+
+		/** why the jar could not be read, or null */
+		final String corruption;
+
+		JarInfo(long size, long lastModified, Set<String> packages, String corruption) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.packages = packages;
+			this.corruption = corruption;
+		}
+	}
+
+	private final CacheFile cache;
+
+	private final Map<String,JarInfo> jars = new ConcurrentHashMap<>();
+
+	private volatile boolean dirty;
+
+	JarIndex(File indexFile) {
+		this.cache = new CacheFile(indexFile, "jar index", 1);
+	}
+
+	File getIndexFile() {
+		return this.cache.getFile();
+	}
+
+	/**
+	 * Load the index file. A missing or unreadable index is just empty.
+	 */
+	void load() {
+		List<String> lines = this.cache.read();
+		if (lines == null)
+			return;
+		for (int i = 0; i + 1 < lines.size(); i += 2) {
+			String[] jar = lines.get(i).split(" ", 4);
+			String[] content = lines.get(i + 1).split(" ", 2);
+			if (jar.length != 4 || !"jar".equals(jar[0]))
+				return;
+			try {
+				long size = Long.parseLong(jar[1]);
+				long lastModified = Long.parseLong(jar[2]);
+				if ("packages".equals(content[0])) {
+					Set<String> packages = new TreeSet<>();
+					if (content.length == 2 && !content[1].isEmpty()) {
+						for (String packageName: content[1].split(" "))
+							packages.add(packageName);
+					}
+					this.jars.put(jar[3], new JarInfo(size, lastModified, packages, null));
+				}
+				else if ("corrupt".equals(content[0]))
+					this.jars.put(jar[3], new JarInfo(size, lastModified, new TreeSet<>(),
+							content.length == 2? content[1] : "corrupt"));
+			}
+			catch (NumberFormatException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Write the index file if anything changed
+	 * @throws Exception if the index file cannot be written
+	 */
+	void store()
+	throws Exception {
+		if (!this.dirty)
+			return;
+		List<String> lines = new ArrayList<>();
+		for (Entry<String,JarInfo> entry: new TreeMap<>(this.jars).entrySet()) {
+			JarInfo info = entry.getValue();
+			lines.add("jar " + info.size + " " + info.lastModified + " " + entry.getKey());
+			if (info.corruption != null)
+				lines.add("corrupt " + info.corruption.replace('\n', ' ').replace('\r', ' '));
+			else
+				lines.add("packages " + String.join(" ", info.packages));
+		}
+		this.cache.write(lines);
+		this.dirty = false;
+	}
+
+	/**
+	 * Get the information of jars, reading those that are new or changed
+	 * @param jarPaths the jars
+	 * @param threads the number of jars read concurrently
+	 * @return the information for each jar, in the given order
+	 * @throws Exception if a jar cannot even be stat'ed
+	 */
+	Map<Path,JarInfo> index(List<Path> jarPaths, int threads)
+	throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			Map<Path,Future<JarInfo>> futures = new LinkedHashMap<>();
+			for (Path jarPath: jarPaths)
+				futures.put(jarPath, executor.submit(() -> index(jarPath)));
+			Map<Path,JarInfo> infos = new LinkedHashMap<>();
+			for (Entry<Path,Future<JarInfo>> future: futures.entrySet()) {
+				try {
+					infos.put(future.getKey(), future.getValue().get());
+				}
+				catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof Error)
+						throw (Error) cause;
+					throw cause instanceof IOException?
+							(IOException) cause : new IOException("Cannot index jar " + future.getKey(), cause);
+				}
+			}
+			return infos;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Get the information of one jar, reading it if it is new or changed
+	 */
+	private JarInfo index(Path jarPath)
+	throws IOException {
+		String key = jarPath.toAbsolutePath().toString();
+		BasicFileAttributes attributes = Files.readAttributes(jarPath, BasicFileAttributes.class);
+		long size = attributes.size();
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		JarInfo info = this.jars.get(key);
+		if (info != null && info.size == size && info.lastModified == lastModified)
+			return info;
+		try {
+			ZipCentralDirectory centralDirectory = ZipCentralDirectory.read(jarPath);
+			Set<String> packages = new TreeSet<>();
+			for (ZipCentralDirectory.Entry entry: centralDirectory.getEntries()) {
+				String packageName = packageOf(entry.name);
+				if (packageName != null)
+					packages.add(packageName);
+			}
+			info = new JarInfo(size, lastModified, packages, null);
+		}
+		catch (Exception e) {
+			info = new JarInfo(size, lastModified, new TreeSet<>(), String.valueOf(e.getMessage()));
+		}
+		this.jars.put(key, info);
+		this.dirty = true;
+		return info;
+	}
+
+	/**
+	 * @param entryName of a jar entry
+	 * @return the package of a class entry, or null if the entry is no class in a package
+	 */
+	static String packageOf(String entryName) {
+		if (!entryName.endsWith(".class") || entryName.startsWith("META-INF/"))
+			return null;
+		int slash = entryName.lastIndexOf('/');
+		if (slash <= 0)
+			//default package or module-info
+			return null;
+		return entryName.substring(0, slash).replace('/', '.');
+	}
+
+	/**
+	 * Find the packages which are contained in more than one jar
+	 * @param infos of the jars
+	 * @return the jars by package, for split packages only
+	 */
+	static Map<String,List<Path>> splitPackages(Map<Path,JarInfo> infos) {
+		Map<String,List<Path>> jarsByPackage = new TreeMap<>();
+		for (Entry<Path,JarInfo> info: infos.entrySet()) {
+			for (String packageName: info.getValue().packages)
+				jarsByPackage.computeIfAbsent(packageName, p -> new ArrayList<>()).add(info.getKey());
+		}
+		jarsByPackage.values().removeIf(jars -> jars.size() < 2);
+		return jarsByPackage;
+	}
+
+}
@@ -0,0 +1,98 @@
+package com.safits;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * What is known about a jar once it has been seen in a directory listing or resolved:
+ * its file, its bundle name and version as far as the file name tells, its size and modification time.
+ */
+final class JarRecord {
+
+	final File file;
+
+	/** the file name */
+	final String name;
+
+	/** the bundle name without version, or the file name without .jar if it carries no version */
+	final String bundleName;
+
+	/** the version as it appears in the file name, or null */
+	final String versionText;
+
+	/** the parsed version, or null */
+	final BundleVersion version;
+
+	final long size;
+
+	final long lastModified;
+
+	private JarRecord(File file, long size, long lastModified) {
+		this.file = file;
+		this.name = file.getName();
+		String[] nameAndVersion = BundleVersion.splitJarName(this.name);
+		if (nameAndVersion == null) {
+			this.bundleName = this.name.endsWith(".jar")?
+					this.name.substring(0, this.name.length() - 4) : this.name;
+			this.versionText = null;
+			this.version = null;
+		}
+		else {
+			this.bundleName = nameAndVersion[0];
+			this.versionText = nameAndVersion[1];
+			this.version = BundleVersion.parse(nameAndVersion[1]);
+		}
+		this.size = size;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Create a record from attributes that were delivered with a directory listing
+	 * @param path of the jar
+	 * @param attributes of the jar
+	 * @return the record
+	 */
+	static JarRecord of(Path path, BasicFileAttributes attributes) {
+		return new JarRecord(
+				path.toAbsolutePath().toFile(),
+				attributes.size(),
+				attributes.lastModifiedTime().toMillis());
+	}
+
+	/**
+	 * Create a record, reading the attributes of the jar
+	 * @param file of the jar
+	 * @return the record
+	 * @throws IOException if the jar is not a readable file
+	 */
+	static JarRecord of(File file)
+	throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		if (!attributes.isRegularFile())
+			throw new IOException(file.getAbsolutePath() + " is not a file");
+		return of(file.toPath(), attributes);
+	}
+
+	/**
+	 * @return this record if the jar still has its size and modification time, else a new record
+	 * @throws IOException if the jar is not a readable file any more
+	 */
+	JarRecord current()
+	throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(this.file.toPath(), BasicFileAttributes.class);
+		if (!attributes.isRegularFile())
+			throw new IOException(this.file.getAbsolutePath() + " is not a file");
+		if (attributes.size() == this.size && attributes.lastModifiedTime().toMillis() == this.lastModified)
+			return this;
+		return of(this.file.toPath(), attributes);
+	}
+
+	@Override
+	public String toString() {
+		return this.file.getPath();
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.safits;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The jar scanner finds all jars below a directory.
+ * Each directory is read exactly once through a {@link DirectoryWalk}, whose attributes
+ * tell files from directories and become the fingerprints of the jars.
+ * Sub directories are scanned in parallel on a fork-join pool.
+ * The outcome does not depend on the listing order: entries are sorted by name
+ * within each directory, so the jars come out in path order.
+ */
+class JarScanner {
+
+	private final int parallelism;
+
+	/**
+	 * @param parallelism the number of threads to scan with
+	 */
+	JarScanner(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * The outcome of a scan
+	 */
+	static class Scan {
+
+		/** the jars found, in path order */
+		final List<JarRecord> jars = new ArrayList<>();
+
+		/** the fingerprints of all scanned directories, taken before they were listed */
+		final Map<Path,String> directoryStamps = new LinkedHashMap<>();
+
+		private void add(Scan scan) {
+			this.jars.addAll(scan.jars);
+			this.directoryStamps.putAll(scan.directoryStamps);
+		}
+	}
+
+	/**
+	 * Scan a directory tree for jars
+	 * @param root directory to start from
+	 * @return the jars and the scanned directories
+	 * @throws IOException if a directory cannot be read
+	 */
+	Scan scan(Path root)
+	throws IOException {
+		return scanAll(Collections.singletonList(root)).get(root);
+	}
+
+	/**
+	 * Scan several directory trees at the same time on one pool
+	 * @param roots directories to start from
+	 * @return the outcome for each root, in the given order
+	 * @throws IOException if a directory cannot be read
+	 */
+	Map<Path,Scan> scanAll(List<Path> roots)
+	throws IOException {
+		List<DirectoryTask> tasks = new ArrayList<>();
+		for (Path root: roots) {
+			BasicFileAttributes rootAttributes = Files.readAttributes(root, BasicFileAttributes.class);
+			if (!rootAttributes.isDirectory())
+				throw new IOException(root + " is not a directory");
+			tasks.add(new DirectoryTask(root, rootAttributes, Collections.emptySet()));
+		}
+		List<Scan> outcomes = DirectoryWalk.invoke(this.parallelism, tasks);
+		Map<Path,Scan> scans = new LinkedHashMap<>();
+		for (int i = 0; i < roots.size(); i++)
+			scans.put(roots.get(i), outcomes.get(i));
+		return scans;
+	}
+
+	/**
+	 * Scans one directory and forks a task for each of its sub directories.
+	 */
+	private static class DirectoryTask
+	extends DirectoryWalk<Scan> {
+
+		private static final long serialVersionUID = 1L;
+
+		/** the file keys of this directory and all directories above it, to break cycles through links */
+		private final Set<Object> path;
+
+		DirectoryTask(Path directory, BasicFileAttributes attributes, Set<Object> ancestors) {
+			super(directory, attributes);
+			this.path = new HashSet<>(ancestors);
+			if (attributes.fileKey() != null)
+				this.path.add(attributes.fileKey());
+		}
+
+		@Override
+		protected Scan begin() {
+			Scan scan = new Scan();
+			scan.directoryStamps.put(this.directory, ClasspathCache.fingerprint(this.attributes));
+			return scan;
+		}
+
+		@Override
+		protected DirectoryTask walk(Path subDirectory, BasicFileAttributes subAttributes) {
+			Object fileKey = subAttributes.fileKey();
+			if (fileKey != null && this.path.contains(fileKey))
+				//a link back to a directory above
+				return null;
+			return new DirectoryTask(subDirectory, subAttributes, this.path);
+		}
+
+		@Override
+		protected void file(Scan scan, Path file, BasicFileAttributes fileAttributes) {
+			if (file.getFileName().toString().endsWith(".jar"))
+				scan.jars.add(JarRecord.of(file, fileAttributes));
+		}
+
+		@Override
+		protected void merge(Scan scan, Scan subScan) {
+			scan.add(subScan);
+		}
+	}
+
+	/**
+	 * @return the default parallelism for scanning, which is I/O bound and may use more threads than cores
+	 */
+	static int defaultParallelism() {
+		return Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+	}
+
+}
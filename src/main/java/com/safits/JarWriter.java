@@ -0,0 +1,869 @@
+package com.safits;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * The jar writer creates a jar in process, the way the jar tool does with
+ * <code>jar --create --manifest=... additions... -C classes .</code>:
+ * the manifest comes first, then the additions with their relative paths, then the content
+ * of the classes directory. Directories are walked in name order.
+ *
+ * Entries are collected first and written by {@link #finish()}. Each entry is deflated on its own,
+ * with a fresh deflater state, and the entries are assembled into the zip in the order they were added.
+ * With more than one thread the entries are deflated on a worker pool while the calling thread
+ * assembles them, so the jar is byte for byte the same whatever the number of threads.
+ *
+ * Files up to {@link #MAX_BUFFERED_SIZE} are read and deflated through buffers that each thread reuses,
+ * and only their compressed data is held until it is written. Larger files are deflated into a temporary
+ * file next to the jar, or streamed from their file when they are stored, so at most a few entries
+ * per thread of bounded size are held in memory at a time, whatever the size of the files.
+ *
+ * Given the {@link JarEntryIndex} of a previous jar, entries whose file has the same size and modification time
+ * as when that jar was written are copied from it as they are stored. Since deflating is deterministic,
+ * the outcome is the same as if they had been deflated again.
+ * The jar is written to a temporary file first and moved into place when complete,
+ * so the previous jar may have the same name.
+ *
+ * In reproducible mode all entries carry the same fixed time, taken as UTC rather than local time,
+ * all entries but the manifest are sorted by name, and the sections of the manifest are sorted by name,
+ * so that the same content gives the same jar on any machine.
+ * The SHA-256 digest of the jar is computed while it is written.
+ *
+ * The manifest is completed only when all entries are known, so that headers computed
+ * from the entries by {@link BundleHeaders} can be added to it.
+ *
+ * Jars of more than 65535 entries or of 4 GB and more get the zip64 extensions of {@link ZipFormat}.
+ */
+class JarWriter {
+
+	private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+	private static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+	private static final int LOCAL_SIZE = 30;
+
+	private static final int CENTRAL_SIZE = 46;
+
+	/** general purpose flag: names are UTF-8 */
+	private static final int UTF8_FLAG = 0x0800;
+
+	/** the extra field the jar tool puts on the first entry to mark the file as a jar */
+	private static final byte[] JAR_MAGIC = { (byte) 0xfe, (byte) 0xca, 0, 0 };
+
+	/** entries deflated ahead of the one being written, per thread */
+	private static final int ENTRIES_AHEAD_PER_THREAD = 4;
+
+	/** the size up to which a file is deflated in memory */
+	static final int MAX_BUFFERED_SIZE = 1024 * 1024;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File jarFile;
+
+	private final int compressionLevel;
+
+	private final int threads;
+
+	private final List<Source> sources = new ArrayList<>();
+
+	private final Set<String> entryNames = new HashSet<>();
+
+	private final Set<String> duplicates = new HashSet<>();
+
+	/** one deflater per thread, reset for every entry */
+	private final ThreadLocal<Deflater> deflaters;
+
+	/** all deflaters handed out, to release them when done */
+	private final Queue<Deflater> allDeflaters = new ConcurrentLinkedQueue<>();
+
+	/** the buffers of each thread, reused for every entry */
+	private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+	/** the temporary files large entries were deflated into and not yet written */
+	private final Set<File> spills = ConcurrentHashMap.newKeySet();
+
+	private boolean finished;
+
+	/** the previous jar to copy unchanged entries from, or null */
+	private ZipCentralDirectory previous;
+
+	private JarEntryIndex previousIndex;
+
+	private FileChannel previousChannel;
+
+	/** what the entries made from files were made from */
+	private final Map<String,JarEntryIndex.Stamp> stamps = new ConcurrentHashMap<>();
+
+	private final AtomicInteger reusedEntries = new AtomicInteger();
+
+	/** the time of all entries in reproducible mode, or null */
+	private Long fixedTime;
+
+	private String sha256;
+
+	/** the manifest given, completed by {@link #finish()} */
+	private Manifest manifest;
+
+	/** computes headers from the entries, or null */
+	private BundleHeaders bundleHeaders;
+
+	/** the computed headers that were added to the manifest */
+	private final Map<String,String> addedHeaders = new LinkedHashMap<>();
+
+	/** the computed headers that the manifest already had with another value */
+	private final Map<String,String> differingHeaders = new LinkedHashMap<>();
+
+	/**
+	 * What goes into one entry: the given bytes, a file, or nothing for a directory
+	 */
+	private static class Source {
+
+		final String name;
+
+		final File file;
+
+		final byte[] content;
+
+		final long time;
+
+		Source(String name, File file, byte[] content, long time) {
+			this.name = name;
+			this.file = file;
+			this.content = content;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * The buffers a thread reads and deflates small entries with
+	 */
+	private static class Buffers {
+
+		byte[] input = new byte[BUFFER_SIZE];
+
+		byte[] output = new byte[BUFFER_SIZE];
+	}
+
+	/**
+	 * One entry, read and compressed, ready to be written.
+	 * Its data is held in memory, or is a region of a file: the file itself, a temporary file or the previous jar.
+	 */
+	private static class Payload {
+
+		final byte[] name;
+
+		final int method;
+
+		final long crc;
+
+		final long size;
+
+		final byte[] data;
+
+		final File dataFile;
+
+		final long dataOffset;
+
+		final long dataLength;
+
+		/** true if the data file is a temporary file to delete once written */
+		final boolean spilled;
+
+		final long dosTime;
+
+		Payload(byte[] name, int method, long crc, long size, byte[] data, long dosTime) {
+			this(name, method, crc, size, data, null, 0, data.length, false, dosTime);
+		}
+
+		Payload(byte[] name, int method, long crc, long size, File dataFile, long dataOffset, long dataLength, boolean spilled, long dosTime) {
+			this(name, method, crc, size, null, dataFile, dataOffset, dataLength, spilled, dosTime);
+		}
+
+		private Payload(byte[] name, int method, long crc, long size,
+				byte[] data, File dataFile, long dataOffset, long dataLength, boolean spilled, long dosTime) {
+			this.name = name;
+			this.method = method;
+			this.crc = crc;
+			this.size = size;
+			this.data = data;
+			this.dataFile = dataFile;
+			this.dataOffset = dataOffset;
+			this.dataLength = dataLength;
+			this.spilled = spilled;
+			this.dosTime = dosTime;
+		}
+	}
+
+	/**
+	 * Where a written entry is, for the central directory
+	 */
+	private static class Written {
+
+		final Payload payload;
+
+		final long offset;
+
+		final byte[] extra;
+
+		Written(Payload payload, long offset, byte[] extra) {
+			this.payload = payload;
+			this.offset = offset;
+			this.extra = extra;
+		}
+	}
+
+	/**
+	 * Create a writer that compresses on the calling thread
+	 * @param jarFile the jar to create
+	 * @param compressionLevel 0 to store entries uncompressed, 1 to 9 to deflate them
+	 * @throws IOException if the compression level is invalid
+	 */
+	JarWriter(File jarFile, int compressionLevel)
+	throws IOException {
+		this(jarFile, compressionLevel, 1);
+	}
+
+	/**
+	 * @param jarFile the jar to create
+	 * @param compressionLevel 0 to store entries uncompressed, 1 to 9 to deflate them
+	 * @param threads the number of threads to compress with. 1 compresses on the calling thread.
+	 * @throws IOException if the compression level or the number of threads is invalid
+	 */
+	JarWriter(File jarFile, int compressionLevel, int threads)
+	throws IOException {
+		if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)
+			throw new IOException("Invalid compression level " + compressionLevel);
+		if (threads < 1)
+			throw new IOException("Invalid number of compression threads " + threads);
+		this.jarFile = jarFile;
+		this.compressionLevel = compressionLevel;
+		this.threads = threads;
+		this.deflaters = ThreadLocal.withInitial(() -> {
+			Deflater deflater = new Deflater(compressionLevel, true);
+			this.allDeflaters.add(deflater);
+			return deflater;
+		});
+	}
+
+	/**
+	 * @return the names of entries that were added more than once. Only the first was written.
+	 */
+	Set<String> getDuplicates() {
+		return this.duplicates;
+	}
+
+	/**
+	 * @return the number of entries
+	 */
+	int getEntryCount() {
+		return this.entryNames.size();
+	}
+
+	/**
+	 * @return the number of entries copied from the previous jar
+	 */
+	int getReusedEntryCount() {
+		return this.reusedEntries.get();
+	}
+
+	/**
+	 * @return what the entries made from files were made from, by entry name, for the next {@link JarEntryIndex}
+	 */
+	Map<String,JarEntryIndex.Stamp> getStamps() {
+		return this.stamps;
+	}
+
+	/**
+	 * @return the SHA-256 digest of the jar in hex, valid after {@link #finish()}
+	 */
+	String getSha256() {
+		return this.sha256;
+	}
+
+	/**
+	 * Compute headers from the entries and add those the manifest lacks. Must be called before entries are added.
+	 * @param headers to compute the headers with
+	 */
+	void generateHeaders(BundleHeaders headers) {
+		this.bundleHeaders = headers;
+	}
+
+	/**
+	 * @return the computed headers that were added to the manifest, valid after {@link #finish()}
+	 */
+	Map<String,String> getAddedHeaders() {
+		return this.addedHeaders;
+	}
+
+	/**
+	 * @return the computed headers that the manifest already had with another value, which was kept
+	 */
+	Map<String,String> getDifferingHeaders() {
+		return this.differingHeaders;
+	}
+
+	/**
+	 * Make the jar reproducible. Must be called before the manifest is added.
+	 * @param time the time of all entries, in milliseconds since the epoch
+	 */
+	void setReproducible(long time) {
+		this.fixedTime = time;
+	}
+
+	/**
+	 * Copy unchanged entries from a previous jar instead of deflating them again
+	 * @param index of the previous jar, successfully loaded
+	 * @return true if the previous jar can be used, false if it was written with another compression level
+	 * @throws IOException if the previous jar cannot be read
+	 */
+	boolean reuseFrom(JarEntryIndex index)
+	throws IOException {
+		if (index.getCompressionLevel() != this.compressionLevel)
+			return false;
+		this.previous = ZipCentralDirectory.read(index.getJar().toPath());
+		this.previousIndex = index;
+		return true;
+	}
+
+	/**
+	 * Add the manifest, which must be the first entry.
+	 * A missing Manifest-Version is added, as the jar tool does.
+	 * @param manifestFile to read the manifest from
+	 * @throws IOException if the manifest cannot be read
+	 */
+	void writeManifest(File manifestFile)
+	throws IOException {
+		Manifest manifest;
+		try (InputStream in = new FileInputStream(manifestFile)) {
+			manifest = new Manifest(in);
+		}
+		if (manifest.getMainAttributes().getValue(Attributes.Name.MANIFEST_VERSION) == null)
+			manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		this.manifest = manifest;
+		addSource("META-INF/", null, new byte[0], manifestFile.lastModified());
+		//the content follows when all entries are known
+		addSource(JarFile.MANIFEST_NAME, null, null, manifestFile.lastModified());
+	}
+
+	/**
+	 * Add the computed headers to the manifest and put its content into its entry
+	 */
+	private void completeManifest()
+	throws IOException {
+		if (this.manifest == null)
+			return;
+		if (this.bundleHeaders != null) {
+			Attributes attributes = this.manifest.getMainAttributes();
+			for (Entry<String,String> header: this.bundleHeaders.getHeaders().entrySet()) {
+				String given = attributes.getValue(header.getKey());
+				if (given == null) {
+					attributes.putValue(header.getKey(), header.getValue());
+					this.addedHeaders.put(header.getKey(), header.getValue());
+				}
+				else if (!BundleHeaders.agrees(header.getKey(), given, header.getValue()))
+					this.differingHeaders.put(header.getKey(), header.getValue());
+			}
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		if (this.fixedTime == null)
+			this.manifest.write(bytes);
+		else
+			writeSorted(this.manifest, bytes);
+		for (int i = 0; i < this.sources.size(); i++) {
+			Source source = this.sources.get(i);
+			if (JarFile.MANIFEST_NAME.equals(source.name) && source.file == null)
+				this.sources.set(i, new Source(source.name, null, bytes.toByteArray(), source.time));
+		}
+	}
+
+	/**
+	 * Write a manifest with its sections sorted by name, which {@link Manifest#write} does not guarantee
+	 */
+	private static void writeSorted(Manifest manifest, ByteArrayOutputStream bytes)
+	throws IOException {
+		Manifest main = new Manifest();
+		main.getMainAttributes().putAll(manifest.getMainAttributes());
+		main.write(bytes);
+		for (Entry<String,Attributes> section: new TreeMap<>(manifest.getEntries()).entrySet()) {
+			Manifest single = new Manifest();
+			single.getEntries().put(section.getKey(), section.getValue());
+			ByteArrayOutputStream sectionBytes = new ByteArrayOutputStream();
+			single.write(sectionBytes);
+			//skip the line ending the empty main section
+			byte[] written = sectionBytes.toByteArray();
+			bytes.write(written, 2, written.length - 2);
+		}
+	}
+
+	/**
+	 * Add a file, or a directory with everything below it
+	 * @param file to add
+	 * @param entryName the name in the jar, with forward slashes. Empty for the root of a directory.
+	 * @throws IOException if a directory cannot be listed
+	 */
+	void add(File file, String entryName)
+	throws IOException {
+		if (file.isDirectory()) {
+			if (!entryName.isEmpty())
+				addSource(entryName + "/", null, new byte[0], file.lastModified());
+			String[] names = file.list();
+			if (names == null)
+				throw new IOException("Cannot list " + file.getAbsolutePath());
+			Arrays.sort(names);
+			for (String name: names)
+				add(new File(file, name), entryName.isEmpty()? name : entryName + "/" + name);
+		}
+		else if (file.isFile())
+			addSource(entryName, file, null, file.lastModified());
+		else
+			throw new IOException("Cannot find " + file.getAbsolutePath());
+	}
+
+	/**
+	 * Turn a relative path as given on the jar command line into an entry name
+	 * @param path relative path
+	 * @return the entry name, with forward slashes and without leading ./
+	 */
+	static String entryName(String path) {
+		String name = path.replace(File.separatorChar, '/');
+		while (name.startsWith("./"))
+			name = name.substring(2);
+		while (name.endsWith("/"))
+			name = name.substring(0, name.length() - 1);
+		return name;
+	}
+
+	private void addSource(String entryName, File file, byte[] content, long time)
+	throws IOException {
+		if (JarFile.MANIFEST_NAME.equals(entryName) && this.entryNames.contains(entryName))
+			//the manifest given explicitly wins over one in the classes
+			return;
+		if (!this.entryNames.add(entryName)) {
+			if (!entryName.endsWith("/"))
+				this.duplicates.add(entryName);
+			return;
+		}
+		this.sources.add(new Source(entryName, file, content, time));
+		if (this.bundleHeaders != null && file != null)
+			this.bundleHeaders.entry(entryName, file);
+	}
+
+	/**
+	 * Read, compress and write all entries. A jar that could not be written completely is deleted.
+	 * @throws IOException if a file cannot be read or the jar cannot be written
+	 */
+	void finish()
+	throws IOException {
+		if (this.finished)
+			throw new IOException(this.jarFile + " has already been written");
+		this.finished = true;
+		completeManifest();
+		if (this.fixedTime != null) {
+			//the manifest stays first
+			this.sources.sort((a, b) -> {
+				boolean aFirst = isManifestEntry(a.name);
+				boolean bFirst = isManifestEntry(b.name);
+				if (aFirst != bFirst)
+					return aFirst? -1 : 1;
+				return a.name.compareTo(b.name);
+			});
+		}
+		MessageDigest digest = InputDigest.sha256();
+		File temporaryFile = new File(this.jarFile.getPath() + ".tmp");
+		boolean complete = false;
+		if (this.previous != null)
+			this.previousChannel = FileChannel.open(this.previous.getFile().toPath(), StandardOpenOption.READ);
+		try (OutputStream out = new BufferedOutputStream(
+				new DigestOutputStream(new FileOutputStream(temporaryFile), digest), 64 * 1024)) {
+			List<Written> written = new ArrayList<>(this.sources.size());
+			long offset = 0;
+			byte[] buffer = new byte[BUFFER_SIZE];
+			if (this.threads == 1) {
+				for (Source source: this.sources)
+					offset = writeLocal(out, prepare(source), offset, written, buffer);
+			}
+			else {
+				ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+				Deque<Future<Payload>> ahead = new ArrayDeque<>();
+				try {
+					for (Source source: this.sources) {
+						ahead.add(pool.submit(() -> prepare(source)));
+						if (ahead.size() >= this.threads * ENTRIES_AHEAD_PER_THREAD)
+							offset = writeLocal(out, await(ahead.poll()), offset, written, buffer);
+					}
+					while (!ahead.isEmpty())
+						offset = writeLocal(out, await(ahead.poll()), offset, written, buffer);
+				}
+				finally {
+					for (Future<Payload> future: ahead)
+						future.cancel(true);
+					pool.shutdown();
+					awaitTermination(pool);
+				}
+			}
+			writeCentralDirectory(out, written, offset);
+			complete = true;
+		}
+		finally {
+			for (Deflater deflater: this.allDeflaters)
+				deflater.end();
+			this.allDeflaters.clear();
+			if (this.previousChannel != null)
+				this.previousChannel.close();
+			for (File spill: this.spills)
+				spill.delete();
+			this.spills.clear();
+			this.buffers.remove();
+			if (!complete)
+				temporaryFile.delete();
+		}
+		CacheFile.moveIntoPlace(temporaryFile, this.jarFile);
+		this.sha256 = InputDigest.hex(digest);
+	}
+
+	private static boolean isManifestEntry(String name) {
+		return "META-INF/".equals(name) || JarFile.MANIFEST_NAME.equals(name);
+	}
+
+	private static Payload await(Future<Payload> future)
+	throws IOException {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		}
+	}
+
+	private static void awaitTermination(ExecutorService pool)
+	throws IOException {
+		try {
+			//the deflaters must not be in use any more when they are released
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		}
+	}
+
+	/**
+	 * Read and compress one entry. Runs on any thread.
+	 */
+	private Payload prepare(Source source)
+	throws IOException {
+		byte[] name = source.name.getBytes(StandardCharsets.UTF_8);
+		if (source.file != null && this.previous != null) {
+			Payload reused = reuse(source, name);
+			if (reused != null)
+				return reused;
+		}
+		if (source.file != null && source.file.length() > MAX_BUFFERED_SIZE)
+			return prepareLarge(source, name);
+		Buffers buffers = this.buffers.get();
+		byte[] content;
+		int length;
+		if (source.content != null) {
+			content = source.content;
+			length = content.length;
+		}
+		else {
+			length = read(source.file, buffers);
+			content = buffers.input;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(content, 0, length);
+		if (source.file != null)
+			this.stamps.put(source.name, new JarEntryIndex.Stamp(length, source.time, crc.getValue()));
+		long dosTime = entryTime(source);
+		if (source.name.endsWith("/") || this.compressionLevel == Deflater.NO_COMPRESSION)
+			return new Payload(name, ZipEntry.STORED, crc.getValue(), length, Arrays.copyOf(content, length), dosTime);
+
+		Deflater deflater = this.deflaters.get();
+		deflater.reset();
+		deflater.setInput(content, 0, length);
+		deflater.finish();
+		int deflated = 0;
+		while (!deflater.finished()) {
+			if (deflated == buffers.output.length)
+				buffers.output = Arrays.copyOf(buffers.output, buffers.output.length * 2);
+			deflated += deflater.deflate(buffers.output, deflated, buffers.output.length - deflated);
+		}
+		return new Payload(name, ZipEntry.DEFLATED, crc.getValue(), length, Arrays.copyOf(buffers.output, deflated), dosTime);
+	}
+
+	/**
+	 * Read a file into the input buffer of a thread, growing it if needed
+	 * @return the number of bytes read
+	 */
+	private static int read(File file, Buffers buffers)
+	throws IOException {
+		try (InputStream in = new FileInputStream(file)) {
+			int length = 0;
+			int read;
+			while (true) {
+				if (length == buffers.input.length) {
+					if (length >= MAX_BUFFERED_SIZE * 2)
+						throw new IOException(file.getAbsolutePath() + " changed while it was read");
+					buffers.input = Arrays.copyOf(buffers.input, length * 2);
+				}
+				read = in.read(buffers.input, length, buffers.input.length - length);
+				if (read < 0)
+					return length;
+				length += read;
+			}
+		}
+	}
+
+	/**
+	 * Compress a file larger than {@link #MAX_BUFFERED_SIZE} without holding it in memory:
+	 * a stored one is only checksummed and later written from the file itself,
+	 * a deflated one is deflated into a temporary file that is written and deleted later.
+	 */
+	private Payload prepareLarge(Source source, byte[] name)
+	throws IOException {
+		Buffers buffers = this.buffers.get();
+		CRC32 crc = new CRC32();
+		long size = 0;
+		long dosTime = entryTime(source);
+		if (this.compressionLevel == Deflater.NO_COMPRESSION) {
+			try (InputStream in = new FileInputStream(source.file)) {
+				int read;
+				while ((read = in.read(buffers.input)) >= 0) {
+					crc.update(buffers.input, 0, read);
+					size += read;
+				}
+			}
+			this.stamps.put(source.name, new JarEntryIndex.Stamp(size, source.time, crc.getValue()));
+			return new Payload(name, ZipEntry.STORED, crc.getValue(), size, source.file, 0, size, false, dosTime);
+		}
+		File parent = this.jarFile.getAbsoluteFile().getParentFile();
+		File spill = File.createTempFile(this.jarFile.getName() + ".", ".deflate", parent);
+		this.spills.add(spill);
+		Deflater deflater = this.deflaters.get();
+		deflater.reset();
+		long deflated = 0;
+		try (InputStream in = new FileInputStream(source.file);
+				OutputStream out = new FileOutputStream(spill)) {
+			int read;
+			while ((read = in.read(buffers.input)) >= 0) {
+				crc.update(buffers.input, 0, read);
+				size += read;
+				deflater.setInput(buffers.input, 0, read);
+				while (!deflater.needsInput())
+					deflated += drain(deflater, buffers.output, out);
+			}
+			deflater.finish();
+			while (!deflater.finished())
+				deflated += drain(deflater, buffers.output, out);
+		}
+		this.stamps.put(source.name, new JarEntryIndex.Stamp(size, source.time, crc.getValue()));
+		return new Payload(name, ZipEntry.DEFLATED, crc.getValue(), size, spill, 0, deflated, true, dosTime);
+	}
+
+	private static int drain(Deflater deflater, byte[] buffer, OutputStream out)
+	throws IOException {
+		int length = deflater.deflate(buffer);
+		out.write(buffer, 0, length);
+		return length;
+	}
+
+	/**
+	 * Copy an entry from the previous jar if its file is unchanged since
+	 * @return the entry as stored in the previous jar, or null if it has to be made anew
+	 */
+	private Payload reuse(Source source, byte[] name)
+	throws IOException {
+		JarEntryIndex.Stamp stamp = this.previousIndex.get(source.name);
+		ZipCentralDirectory.Entry entry = this.previous.getEntry(source.name);
+		if (stamp == null || entry == null)
+			return null;
+		int method = this.compressionLevel == Deflater.NO_COMPRESSION? ZipEntry.STORED : ZipEntry.DEFLATED;
+		if (stamp.lastModified != source.time
+				|| stamp.size != source.file.length()
+				|| stamp.size != entry.size
+				|| stamp.crc != entry.crc
+				|| entry.method != method)
+			return null;
+		this.stamps.put(source.name, stamp);
+		this.reusedEntries.incrementAndGet();
+		if (entry.compressedSize > MAX_BUFFERED_SIZE)
+			return new Payload(name, entry.method, entry.crc, entry.size,
+					this.previous.getFile(), ZipCentralDirectory.dataOffset(this.previousChannel, entry), entry.compressedSize,
+					false, entryTime(source));
+		byte[] data = ZipCentralDirectory.readRaw(this.previousChannel, entry);
+		return new Payload(name, entry.method, entry.crc, entry.size, data, entryTime(source));
+	}
+
+	/**
+	 * @return the time of the entry in MS-DOS format
+	 */
+	private long entryTime(Source source) {
+		if (this.fixedTime != null)
+			return dosTime(this.fixedTime, ZoneOffset.UTC);
+		return dosTime(source.time, ZoneId.systemDefault());
+	}
+
+	/**
+	 * Convert a time to the MS-DOS format of zip entries.
+	 * The jar tool takes local time, which makes the jar depend on the time zone.
+	 */
+	static long dosTime(long time, ZoneId zone) {
+		LocalDateTime local = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), zone);
+		int year = local.getYear() - 1980;
+		if (year < 0)
+			return (1 << 21) | (1 << 16);
+		return ((long) year << 25)
+				| (local.getMonthValue() << 21)
+				| (local.getDayOfMonth() << 16)
+				| (local.getHour() << 11)
+				| (local.getMinute() << 5)
+				| (local.getSecond() >> 1);
+	}
+
+	private static int versionNeeded(int method) {
+		return method == ZipEntry.STORED? 10 : 20;
+	}
+
+	private long writeLocal(OutputStream out, Payload payload, long offset, List<Written> written, byte[] buffer)
+	throws IOException {
+		byte[] extra = written.isEmpty()? JAR_MAGIC : new byte[0];
+		//an entry of 4 GB or more has both sizes in a zip64 extra field
+		boolean zip64 = ZipFormat.overflows(payload.size) || ZipFormat.overflows(payload.dataLength);
+		byte[] zip64Extra = zip64? ZipFormat.localExtra(payload.size, payload.dataLength) : new byte[0];
+		ByteBuffer header = ByteBuffer.allocate(LOCAL_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(LOCAL_SIGNATURE);
+		header.putShort((short) (zip64? ZipFormat.ZIP64_VERSION : versionNeeded(payload.method)));
+		header.putShort((short) UTF8_FLAG);
+		header.putShort((short) payload.method);
+		header.putInt((int) payload.dosTime);
+		header.putInt((int) payload.crc);
+		header.putInt(zip64? (int) ZipFormat.MAX_VALUE : (int) payload.dataLength);
+		header.putInt(zip64? (int) ZipFormat.MAX_VALUE : (int) payload.size);
+		header.putShort((short) payload.name.length);
+		header.putShort((short) (extra.length + zip64Extra.length));
+		out.write(header.array());
+		out.write(payload.name);
+		out.write(extra);
+		out.write(zip64Extra);
+		if (payload.data != null)
+			out.write(payload.data);
+		else {
+			copyRegion(payload, out, buffer);
+			if (payload.spilled) {
+				Files.delete(payload.dataFile.toPath());
+				this.spills.remove(payload.dataFile);
+			}
+		}
+		written.add(new Written(payload, offset, extra));
+		return offset + LOCAL_SIZE + payload.name.length + extra.length + zip64Extra.length + payload.dataLength;
+	}
+
+	/**
+	 * Write the data of an entry that is a region of a file
+	 */
+	private static void copyRegion(Payload payload, OutputStream out, byte[] buffer)
+	throws IOException {
+		try (FileChannel channel = FileChannel.open(payload.dataFile.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() < payload.dataOffset + payload.dataLength)
+				throw new IOException(payload.dataFile.getAbsolutePath() + " changed while it was written");
+			ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+			long position = payload.dataOffset;
+			long end = payload.dataOffset + payload.dataLength;
+			while (position < end) {
+				wrapped.clear();
+				wrapped.limit((int) Math.min(buffer.length, end - position));
+				int read = channel.read(wrapped, position);
+				if (read < 0)
+					throw new IOException(payload.dataFile.getAbsolutePath() + " changed while it was written");
+				out.write(buffer, 0, read);
+				position += read;
+			}
+		}
+	}
+
+	private static void writeCentralDirectory(OutputStream out, List<Written> written, long offset)
+	throws IOException {
+		long size = 0;
+		for (Written entry: written) {
+			Payload payload = entry.payload;
+			byte[] zip64Extra = ZipFormat.centralExtra(payload.size, payload.dataLength, entry.offset);
+			int version = zip64Extra.length > 0? ZipFormat.ZIP64_VERSION : versionNeeded(payload.method);
+			ByteBuffer header = ByteBuffer.allocate(CENTRAL_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(CENTRAL_SIGNATURE);
+			header.putShort((short) version);
+			header.putShort((short) version);
+			header.putShort((short) UTF8_FLAG);
+			header.putShort((short) payload.method);
+			header.putInt((int) payload.dosTime);
+			header.putInt((int) payload.crc);
+			header.putInt(ZipFormat.field(payload.dataLength));
+			header.putInt(ZipFormat.field(payload.size));
+			header.putShort((short) payload.name.length);
+			header.putShort((short) (entry.extra.length + zip64Extra.length));
+			header.putShort((short) 0);
+			header.putShort((short) 0);
+			header.putShort((short) 0);
+			header.putInt(0);
+			header.putInt(ZipFormat.field(entry.offset));
+			out.write(header.array());
+			out.write(payload.name);
+			out.write(entry.extra);
+			out.write(zip64Extra);
+			size += CENTRAL_SIZE + payload.name.length + entry.extra.length + zip64Extra.length;
+		}
+		ZipFormat.writeEnd(out, written.size(), offset, size);
+	}
+
+}
@@ -0,0 +1,142 @@
+package com.safits;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The launcher ini of an exported product: the program arguments, one per line,
+ * then -vmargs and the arguments of the virtual machine, one per line.
+ *
+ * Arguments of the virtual machine are merged: one that sets what an earlier one has set,
+ * like the maximum heap size, a system property or the garbage collector, replaces it.
+ * That way the profiles configured for the build override what the product file says.
+ */
+class LauncherIni {
+
+	/** the product file elements of the operating systems, by their os name */
+	private static final String[][] OS_SUFFIXES = {
+			{ "linux", "Lin" },
+			{ "win32", "Win" },
+			{ "macosx", "Mac" },
+			{ "solaris", "Sol" } };
+
+	private final List<String> programArgs = new ArrayList<>();
+
+	private final List<String> vmArgs = new ArrayList<>();
+
+	/**
+	 * @param os the os name of an Eclipse platform, like linux
+	 * @return the suffix of the product file elements for that OS, like Lin, or null if there are none
+	 */
+	static String osSuffix(String os) {
+		for (String[] suffix: OS_SUFFIXES) {
+			if (suffix[0].equals(os))
+				return suffix[1];
+		}
+		return null;
+	}
+
+	/**
+	 * Split arguments at white space outside of double quotes, dropping the quotes
+	 * @param args as written in a product file, may be null
+	 * @return the arguments
+	 */
+	static List<String> split(String args) {
+		List<String> split = new ArrayList<>();
+		if (args == null)
+			return split;
+		StringBuilder arg = new StringBuilder();
+		boolean quoted = false;
+		boolean inArg = false;
+		for (int i = 0; i < args.length(); i++) {
+			char c = args.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+				inArg = true;
+			}
+			else if (Character.isWhitespace(c) && !quoted) {
+				if (inArg)
+					split.add(arg.toString());
+				arg.setLength(0);
+				inArg = false;
+			}
+			else {
+				arg.append(c);
+				inArg = true;
+			}
+		}
+		if (inArg)
+			split.add(arg.toString());
+		return split;
+	}
+
+	/**
+	 * Add program arguments, after those added before
+	 * @param args to add
+	 */
+	void addProgramArgs(List<String> args) {
+		this.programArgs.addAll(args);
+	}
+
+	/**
+	 * Add arguments of the virtual machine, replacing those added before that set the same
+	 * @param args to add
+	 */
+	void addVmArgs(List<String> args) {
+		for (String arg: args) {
+			String key = key(arg);
+			this.vmArgs.removeIf(vmArg -> key.equals(key(vmArg)));
+			this.vmArgs.add(arg);
+		}
+	}
+
+	/**
+	 * @param arg of the virtual machine
+	 * @return what it sets, the same for arguments that replace each other
+	 */
+	static String key(String arg) {
+		for (String sized: new String[] { "-Xmx", "-Xms", "-Xss", "-Xmn" }) {
+			if (arg.startsWith(sized))
+				return sized;
+		}
+		if (arg.startsWith("-Xshare:"))
+			return "-Xshare";
+		if (arg.startsWith("-D")) {
+			int equals = arg.indexOf('=');
+			return equals < 0? arg : arg.substring(0, equals);
+		}
+		if (arg.startsWith("-XX:")) {
+			String option = arg.substring(4);
+			if (option.startsWith("+") || option.startsWith("-")) {
+				//only one collector can be selected, and selecting or deselecting one replaces the choice before
+				if (option.startsWith("Use", 1) && option.endsWith("GC"))
+					return "-XX:Use*GC";
+				return "-XX:" + option.substring(1);
+			}
+			int equals = option.indexOf('=');
+			return equals < 0? arg : "-XX:" + option.substring(0, equals);
+		}
+		return arg;
+	}
+
+	/**
+	 * @param arg a program argument
+	 * @return true if it was added
+	 */
+	boolean hasProgramArg(String arg) {
+		return this.programArgs.contains(arg);
+	}
+
+	/**
+	 * @return the lines of the ini file
+	 */
+	List<String> lines() {
+		List<String> lines = new ArrayList<>(this.programArgs);
+		if (!this.vmArgs.isEmpty()) {
+			lines.add("-vmargs");
+			lines.addAll(this.vmArgs);
+		}
+		return lines;
+	}
+
+}
@@ -1,9 +1,19 @@
 package com.safits;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.AbstractMojo;
@@ -17,6 +27,9 @@ import org.apache.maven.project.MavenProject;
 public class MainJarCreator
 extends AbstractMojo {
 
+	/** the project property the SHA-256 digest of the jar is published as */
+	public static final String JAR_HASH_PROPERTY = "pictet.main.jar.sha256";
+
 	@Parameter( defaultValue = "${project}", readonly = true, required = true )
     private MavenProject project;
 
@@ -26,8 +39,72 @@ extends AbstractMojo {
 	@Parameter( name = "classes", required = true )
 	private String classes;
 
-	@Parameter( name = "jarbinary", required = false)
-	private String jarbinary;
+	/** 0 stores the entries uncompressed, which is fastest for development builds; 1 to 9 deflate them */
+	@Parameter( name = "compression-level", defaultValue = "6" )
+	private int compressionLevel;
+
+	/**
+	 * The number of threads deflating entries. The jar is the same whatever the number.
+	 * 1 deflates on the build thread.
+	 */
+	@Parameter( name = "compression-threads", defaultValue = "1" )
+	private int compressionThreads;
+
+	/**
+	 * If true, the plugins directory is kept, and entries whose files are unchanged since the previous jar
+	 * are copied from it instead of being deflated again. The previous jar is then removed.
+	 */
+	@Parameter( name = "incremental", defaultValue = "false" )
+	private boolean incremental;
+
+	/** Where the incremental mode remembers what the previous jar was made of */
+	@Parameter( name = "jar-index", defaultValue = "${project.build.directory}/pictet-main-jar.index" )
+	private File jarIndex;
+
+	/**
+	 * If true, all entries get the time of output-timestamp, entries and manifest sections are sorted,
+	 * and the time stamp in the jar name is taken from output-timestamp too,
+	 * so that unchanged content gives an identical jar with the same name
+	 */
+	@Parameter( name = "reproducible", defaultValue = "false" )
+	private boolean reproducible;
+
+	/**
+	 * The time of a reproducible jar, in seconds since the epoch or as ISO-8601 date and time with offset.
+	 * If not set, the environment variable SOURCE_DATE_EPOCH is used.
+	 */
+	@Parameter( name = "output-timestamp", defaultValue = "${project.build.outputTimestamp}" )
+	private String outputTimestamp;
+
+	/** Where the SHA-256 digest of the jar is written to, in the format of sha256sum */
+	@Parameter( name = "hash-file", defaultValue = "${project.build.directory}/pictet-main-jar.sha256" )
+	private File hashFile;
+
+	/**
+	 * If true, the jar is only created if the manifest, the additions or the classes changed since the previous jar.
+	 * Otherwise the previous jar is taken over under the new name.
+	 */
+	@Parameter( name = "skip-if-unchanged", defaultValue = "false" )
+	private boolean skipIfUnchanged;
+
+	/** Where the digest of the inputs of the previous jar is kept */
+	@Parameter( name = "inputs-file", defaultValue = "${project.build.directory}/pictet-main-jar.inputs" )
+	private File inputsFile;
+
+	/**
+	 * If true, Export-Package, Bundle-ClassPath and Multi-Release are computed from the entries
+	 * while they are added, and those missing in the manifest are added to it
+	 */
+	@Parameter( name = "generate-headers", defaultValue = "false" )
+	private boolean generateHeaders;
+
+	/** Packages not to list in a generated Export-Package, together with their sub packages */
+	@Parameter( name = "private-packages", required = false )
+	private String[] privatePackages;
+
+	/** The number of threads walking the inputs for skip-if-unchanged */
+	@Parameter( name = "scan-threads", required = false )
+	private int scanThreads = JarScanner.defaultParallelism();
 
 	private File pictetDirectory;
 
@@ -43,6 +120,43 @@ extends AbstractMojo {
     	String timeStamp = this.project.getProperties().getProperty(TimeStamp.TIMESTAMP_PROPERTY);
     	if (timeStamp == null)
     		throw new MojoExecutionException("Cannot find Pictet time stamp in project properties");
+    	Long reproducibleTime = null;
+    	if (this.reproducible) {
+    		reproducibleTime = outputTime();
+    		timeStamp = DateTimeFormatter.ofPattern("yyyyMMdd-HHmm")
+    				.withZone(ZoneOffset.UTC)
+    				.format(Instant.ofEpochMilli(reproducibleTime));
+    		getLog().info("Reproducible jar with entry time " + Instant.ofEpochMilli(reproducibleTime));
+    	}
+
+    	//same layout as jar --create --manifest=META-INF/MANIFEST.MF additions... -C classes .
+    	File classesDirectory = new File(this.classes);
+    	if (!classesDirectory.isDirectory())
+    		throw new MojoExecutionException("Cannot find classes directory " + classesDirectory.getAbsolutePath());
+    	File manifestFile = new File("META-INF/MANIFEST.MF");
+    	if (!manifestFile.isFile())
+    		throw new MojoExecutionException("Cannot find " + manifestFile.getAbsolutePath());
+
+    	//find out whether the previous jar is up to date, before the plugins directory is erased
+    	String inputDigest = null;
+    	File upToDateJar = null;
+    	String upToDateHash = null;
+    	JarEntryIndex upToDateIndex = null;
+    	if (this.skipIfUnchanged) {
+    		inputDigest = inputDigest(reproducibleTime, classesDirectory, manifestFile);
+    		String[] jarAndHash = readInputsFile(inputDigest);
+    		if (jarAndHash != null) {
+    			upToDateJar = new File(jarAndHash[0]);
+    			upToDateHash = jarAndHash[1];
+    			upToDateIndex = new JarEntryIndex(this.jarIndex);
+    			if (!this.incremental
+    					|| !upToDateIndex.load()
+    					|| !upToDateIndex.getJar().getAbsoluteFile().equals(upToDateJar.getAbsoluteFile()))
+    				upToDateIndex = null;
+    		}
+    		else
+    			getLog().info("Inputs changed since the previous jar");
+    	}
 
     	//make sure that the versioned pictet directory exists
     	this.pictetDirectory = new File("pictet");
@@ -70,7 +184,18 @@ extends AbstractMojo {
     		}
     	}
     	this.pluginsDirectory = new File(this.versionedPictetDirectory, "plugins");
-    	if (this.pluginsDirectory.isDirectory()) {
+    	if (upToDateJar != null && !this.incremental) {
+    		//keep it out of the way of erasing
+    		File keptJar = new File(this.versionedPictetDirectory, upToDateJar.getName() + ".kept");
+    		try {
+    			Files.move(upToDateJar.toPath(), keptJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    		}
+    		catch (Exception e) {
+    			throw new MojoExecutionException("Could not move " + upToDateJar.getAbsolutePath(), e);
+    		}
+    		upToDateJar = keptJar;
+    	}
+    	if (this.pluginsDirectory.isDirectory() && !this.incremental) {
     		//plugins exist. Need to kill it.
     		try {
     			FileUtils.deleteDirectory(this.pluginsDirectory);
@@ -91,24 +216,6 @@ extends AbstractMojo {
 					e);
     	}
 
-    	//find the jar binary on the path
-    	getLog().info("Path is " + System.getenv("PATH"));
-    	String[] pathComponents = System.getenv("PATH").split(File.pathSeparator);
-    	File jarBinary = null;
-    	String jarBinaryName = 
-    			System.getProperty("os.name").toLowerCase().startsWith("windows")?
-    					"jar.exe" : "jar";
-    	for (String pathComponent: pathComponents) {
-    		File file = new File(pathComponent + File.separator + jarBinaryName);
-    		if (file.exists() && file.canExecute()) {
-    			getLog().info("Found jar in " + pathComponent);
-    			jarBinary = file;
-    			break;
-    		}
-    	}
-    	if (jarBinary == null)
-    		throw new MojoExecutionException("Could not find an installed jar binary on the path");
-
     	getLog().info("Classes directory will be " + this.classes);
 
     	if (this.additions == null)
@@ -120,8 +227,6 @@ extends AbstractMojo {
     		}
     	}
 
-    	Calendar calendar = Calendar.getInstance();
-    	calendar.setTimeInMillis(System.currentTimeMillis());
     	String fileName = String.format(
     			"pictet/%s/plugins/%s_%s_%s.jar",
     			this.project.getVersion(),
@@ -129,35 +234,232 @@ extends AbstractMojo {
     			this.project.getVersion(),
     			timeStamp);
 
-    	List<String> jarCommands = new ArrayList<>();
-    	jarCommands.add(jarBinary.getAbsolutePath());
-    	jarCommands.add("--create");
-    	jarCommands.add("--file=" + fileName);
-    	jarCommands.add("--manifest=META-INF/MANIFEST.MF");
-    	if (this.additions != null) {
-    		for (String addition: this.additions) {
-    			jarCommands.add(addition);
-    		}
+    	if (upToDateJar != null) {
+    		takeOver(upToDateJar, upToDateHash, upToDateIndex, new File(fileName), inputDigest);
+    		return;
     	}
-    	jarCommands.add("-C");		//switch directory
-    	jarCommands.add(this.classes);
-    	jarCommands.add(".");
 
-		ProcessBuilder processBuilder = new ProcessBuilder(jarCommands);
+    	JarEntryIndex previousIndex = this.incremental? new JarEntryIndex(this.jarIndex) : null;
+    	JarWriter jarWriter;
     	try {
-    		Process process = processBuilder.inheritIO().start();
-    		process.waitFor();
+    		jarWriter = new JarWriter(new File(fileName), this.compressionLevel, this.compressionThreads);
+    		if (reproducibleTime != null)
+    			jarWriter.setReproducible(reproducibleTime);
+    		if (this.generateHeaders)
+    			jarWriter.generateHeaders(new BundleHeaders(
+    					this.privatePackages == null? new ArrayList<>() : Arrays.asList(this.privatePackages)));
+    		if (previousIndex != null) {
+    			if (!previousIndex.load())
+    				getLog().info("No usable previous jar, creating all entries");
+    			else if (!jarWriter.reuseFrom(previousIndex))
+    				getLog().info("Previous jar has another compression level, creating all entries");
+    		}
+    		jarWriter.writeManifest(manifestFile);
+    		if (this.additions != null) {
+    			for (String addition: this.additions) {
+    				jarWriter.add(new File(addition), JarWriter.entryName(addition));
+    			}
+    		}
+    		jarWriter.add(classesDirectory, "");
+    		jarWriter.finish();
     	}
     	catch (Exception e) {
-    		throw new MojoExecutionException("Failed to execute jar creation");
+    		throw new MojoExecutionException("Failed to create " + fileName, e);
     	}
+    	for (String duplicate: jarWriter.getDuplicates())
+    		getLog().warn("Duplicate entry " + duplicate + " ignored");
+    	for (Map.Entry<String,String> header: jarWriter.getAddedHeaders().entrySet())
+    		getLog().info("Added " + header.getKey() + ": " + header.getValue());
+    	for (Map.Entry<String,String> header: jarWriter.getDifferingHeaders().entrySet())
+    		getLog().warn(header.getKey() + " of the manifest kept, the entries suggest " + header.getValue());
 
     	File jarFile = new File(fileName);
     	if (jarFile.isFile())
-    		getLog().info("Produced " + fileName);
+    		getLog().info("Produced " + fileName + " with " + jarWriter.getEntryCount() + " entries");
     	else
     		throw new MojoExecutionException("Production of " + fileName + " failed");
 
+    	publishHash(jarFile, jarWriter.getSha256());
+
+    	if (previousIndex != null) {
+    		getLog().info(jarWriter.getReusedEntryCount() + " entries copied from the previous jar");
+    		try {
+    			previousIndex.store(jarFile, this.compressionLevel, jarWriter.getStamps());
+    		}
+    		catch (Exception e) {
+    			throw new MojoExecutionException("Could not write " + this.jarIndex.getAbsolutePath(), e);
+    		}
+    		removePreviousJars(jarFile);
+    	}
+    	if (inputDigest != null)
+    		writeInputsFile(inputDigest, jarFile, jarWriter.getSha256());
+
+    }
+
+    /**
+     * Take over the previous jar, whose inputs are unchanged, under the new name
+     * @param previousJar the previous jar
+     * @param sha256 its digest
+     * @param index its entry index in incremental mode, or null
+     * @param jarFile the new name
+     * @param inputDigest the digest of the inputs
+     */
+    private void takeOver(File previousJar, String sha256, JarEntryIndex index, File jarFile, String inputDigest)
+    throws MojoExecutionException {
+    	try {
+    		if (!previousJar.getAbsoluteFile().equals(jarFile.getAbsoluteFile()))
+    			CacheFile.moveIntoPlace(previousJar, jarFile);
+    	}
+    	catch (Exception e) {
+    		throw new MojoExecutionException("Could not move " + previousJar.getAbsolutePath(), e);
+    	}
+    	getLog().info("Inputs unchanged, took over the previous jar as " + jarFile.getPath());
+    	publishHash(jarFile, sha256);
+    	if (index != null) {
+    		try {
+    			index.store(jarFile, index.getCompressionLevel(), index.getStamps());
+    		}
+    		catch (Exception e) {
+    			throw new MojoExecutionException("Could not write " + this.jarIndex.getAbsolutePath(), e);
+    		}
+    	}
+    	if (this.incremental)
+    		removePreviousJars(jarFile);
+    	writeInputsFile(inputDigest, jarFile, sha256);
+    }
+
+    /**
+     * Publish the digest of the jar as project property and in the hash file
+     */
+    private void publishHash(File jarFile, String sha256)
+    throws MojoExecutionException {
+    	this.project.getProperties().setProperty(JAR_HASH_PROPERTY, sha256);
+    	getLog().info("SHA-256 is " + sha256);
+    	try {
+    		CacheFile.replace(this.hashFile, (sha256 + "  " + jarFile.getName() + "\n").getBytes(StandardCharsets.UTF_8));
+    	}
+    	catch (Exception e) {
+    		throw new MojoExecutionException("Could not write " + this.hashFile.getAbsolutePath(), e);
+    	}
+    }
+
+    /**
+     * Compute the digest of everything the jar is made of, and of the configuration
+     */
+    private String inputDigest(Long reproducibleTime, File classesDirectory, File manifestFile)
+    throws MojoExecutionException {
+    	String key = String.join("\n",
+    			this.project.getArtifactId(),
+    			this.project.getVersion(),
+    			"level " + this.compressionLevel,
+    			"time " + reproducibleTime,
+    			"classes " + this.classes,
+    			"additions " + (this.additions == null? "" : Arrays.toString(this.additions)),
+    			"headers " + this.generateHeaders + " "
+    			+ (this.privatePackages == null? "" : Arrays.toString(this.privatePackages)));
+    	Map<String,File> inputs = new LinkedHashMap<>();
+    	inputs.put("manifest", manifestFile);
+    	if (this.additions != null) {
+    		for (String addition: this.additions)
+    			inputs.put("addition/" + JarWriter.entryName(addition), new File(addition));
+    	}
+    	inputs.put("classes", classesDirectory);
+    	try {
+    		return new InputDigest(this.scanThreads).digest(key, inputs);
+    	}
+    	catch (Exception e) {
+    		throw new MojoExecutionException("Could not compute the digest of the inputs", e);
+    	}
+    }
+
+    /**
+     * Read the inputs file of the previous jar
+     * @param inputDigest the digest of the current inputs
+     * @return the path and the SHA-256 of the previous jar, or null if the inputs differ or the jar changed
+     */
+    private String[] readInputsFile(String inputDigest) {
+    	List<String> lines = inputsCache().read();
+    	if (lines == null
+    			|| lines.size() != 3
+    			|| !lines.get(0).equals("digest " + inputDigest)
+    			|| !lines.get(1).startsWith("jar ")
+    			|| !lines.get(2).startsWith("sha256 "))
+    		return null;
+    	String[] fingerprintAndPath = lines.get(1).substring(4).split(" ", 2);
+    	if (fingerprintAndPath.length != 2)
+    		return null;
+    	File previousJar = new File(fingerprintAndPath[1]);
+    	if (!fingerprintAndPath[0].equals(ClasspathCache.fingerprint(previousJar.toPath())))
+    		//the jar was changed or removed since
+    		return null;
+    	return new String[] { fingerprintAndPath[1], lines.get(2).substring(7) };
+    }
+
+    private CacheFile inputsCache() {
+    	return new CacheFile(this.inputsFile, "main jar inputs", 1);
+    }
+
+    private void writeInputsFile(String inputDigest, File jarFile, String sha256)
+    throws MojoExecutionException {
+    	String fingerprint = ClasspathCache.fingerprint(jarFile.toPath());
+    	if (fingerprint == null)
+    		throw new MojoExecutionException("Cannot fingerprint " + jarFile.getAbsolutePath());
+    	List<String> lines = new ArrayList<>();
+    	lines.add("digest " + inputDigest);
+    	lines.add("jar " + fingerprint + " " + jarFile.getAbsolutePath());
+    	lines.add("sha256 " + sha256);
+    	try {
+    		inputsCache().write(lines);
+    	}
+    	catch (Exception e) {
+    		throw new MojoExecutionException("Could not write " + this.inputsFile.getAbsolutePath(), e);
+    	}
+    }
+
+    /**
+     * @return the time of a reproducible jar in milliseconds, from output-timestamp or SOURCE_DATE_EPOCH
+     */
+    private long outputTime()
+    throws MojoExecutionException {
+    	String value = this.outputTimestamp;
+    	String origin = "output-timestamp";
+    	if (value == null || value.trim().isEmpty()) {
+    		value = System.getenv("SOURCE_DATE_EPOCH");
+    		origin = "SOURCE_DATE_EPOCH";
+    	}
+    	if (value == null || value.trim().isEmpty())
+    		throw new MojoExecutionException("A reproducible jar needs output-timestamp or SOURCE_DATE_EPOCH");
+    	value = value.trim();
+    	try {
+    		if (value.matches("[0-9]+"))
+    			return Long.parseLong(value) * 1000;
+    		return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+    	}
+    	catch (Exception e) {
+    		throw new MojoExecutionException("Invalid " + origin + " " + value, e);
+    	}
+    }
+
+    /**
+     * Remove the jars of this artifact and version created before, which the plugins directory
+     * still holds in incremental mode
+     * @param jarFile the jar just created
+     */
+    private void removePreviousJars(File jarFile)
+    throws MojoExecutionException {
+    	Pattern ownJar = Pattern.compile(
+    			Pattern.quote(this.project.getArtifactId() + "_" + this.project.getVersion() + "_")
+    			+ "[0-9]{8}-[0-9]{4}\\.jar");
+    	File[] files = this.pluginsDirectory.listFiles();
+    	if (files == null)
+    		throw new MojoExecutionException("Cannot list " + this.pluginsDirectory.getAbsolutePath());
+    	for (File file: files) {
+    		if (ownJar.matcher(file.getName()).matches() && !file.getName().equals(jarFile.getName())) {
+    			if (!file.delete())
+    				throw new MojoExecutionException("Could not remove previous jar " + file.getAbsolutePath());
+    			getLog().info("Removed previous jar " + file.getName());
+    		}
+    	}
     }
 
 }
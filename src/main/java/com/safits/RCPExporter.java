@@ -1,18 +1,27 @@
 package com.safits;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
@@ -31,12 +40,112 @@ extends AbstractMojo {
 	@Parameter( defaultValue = "${project}", readonly = true, required = true )
     private MavenProject project;
 
+    @Parameter( defaultValue = "${session}", readonly = true, required = true )
+    private MavenSession session;
+
     @Parameter( defaultValue = "${settings}", readonly = true )
     private Settings settings;
 
     @Parameter( name = "resources", required = false)
     private String[] resources;
 
+    /** The number of files copied at the same time */
+    @Parameter( name = "copy-threads", required = false )
+    private int copyThreads = JarScanner.defaultParallelism();
+
+    /**
+     * How the plugins, the launch directory and the resources get into the export:
+     * 'copy' copies them, 'link' hard links them to their source, 'reflink' clones them on copy on write file systems.
+     * Files that cannot be linked or cloned are copied.
+     */
+    @Parameter( name = "export-mode", defaultValue = "copy" )
+    private String exportMode;
+
+    /**
+     * If true, files whose destination is current are not copied again, and plugins that are
+     * no longer part of the product are removed from the export. The main jar of the project is kept.
+     */
+    @Parameter( name = "sync", defaultValue = "false" )
+    private boolean sync;
+
+    /** How sync tells a current destination: 'time' by size and modification time, 'content' by size and bytes */
+    @Parameter( name = "sync-compare", defaultValue = "time" )
+    private String syncCompare;
+
+    /**
+     * If set to 'zip' or 'tar.gz', the product is written straight into pictet/&lt;version&gt;.zip or .tar.gz
+     * instead of the pictet/&lt;version&gt; directory, reading every file once.
+     * The main jar is taken from pictet/&lt;version&gt;/plugins, where create-main-jar puts it.
+     */
+    @Parameter( name = "archive", required = false )
+    private String archive;
+
+    /** Where the symbolic names and versions of the bundles in the resources are remembered between builds */
+    @Parameter( name = "bundle-catalog", defaultValue = "${project.build.directory}/pictet-bundle-catalog" )
+    private File bundleCatalog;
+
+    /**
+     * Which version of a plugin to export if several are available and the product does not name one:
+     * 'highest', 'lowest', or 'unique' to fail instead
+     */
+    @Parameter( name = "version-policy", defaultValue = "highest" )
+    private String versionPolicy;
+
+    /**
+     * What to do about the requirements of the plugins: 'off', 'warn' to report those that are not satisfied,
+     * 'fail' to fail for them, or 'add' to export the plugins needed but not named by the product and fail for the rest
+     */
+    @Parameter( name = "dependency-check", defaultValue = "warn" )
+    private String dependencyCheck;
+
+    /**
+     * The home of the Java runtime the product runs on, of version 9 or later. The dependency check takes
+     * the packages its modules export as provided by the system bundle. By default those of the runtime running Maven.
+     */
+    @Parameter( name = "runtime-java-home", required = false )
+    private File runtimeJavaHome;
+
+    /** Where the parsed feature.xml files of feature based products are remembered between builds */
+    @Parameter( name = "feature-cache", defaultValue = "${project.build.directory}/pictet-feature-cache" )
+    private File featureCache;
+
+    /**
+     * If true, config.ini and the bundles.info of the simple configurator are generated from the exported plugins,
+     * with the start levels of the product, so the framework need not discover the bundles at first start.
+     * The config.ini of the resources is taken as a base if there is one.
+     */
+    @Parameter( name = "generate-config", defaultValue = "false" )
+    private boolean generateConfig;
+
+    /**
+     * Arguments of the virtual machine for the launcher ini, by os name: 'all', 'linux', 'win32' or 'macosx'.
+     * They override what the launcherArgs of the product say, those of the OS override those for all.
+     */
+    @Parameter( name = "jvm-profiles", required = false )
+    private Map<String,String> jvmProfiles;
+
+    /** The class data sharing archive the launcher ini points the virtual machine to, used if it is valid */
+    @Parameter( name = "cds-archive", required = false )
+    private String cdsArchive;
+
+    /** If true, the launcher ini makes the product start with -clearPersistedState */
+    @Parameter( name = "clear-persisted-state", defaultValue = "true" )
+    private boolean clearPersistedState;
+
+    /**
+     * The architecture the product is exported for, as in the os.arch property, like amd64 or aarch64.
+     * It selects the plugins of features that are meant for one architecture only.
+     */
+    @Parameter( name = "os-arch", defaultValue = "${os.arch}" )
+    private String osArch;
+
+    /**
+     * What is done about the requirements of the plugins
+     */
+    private enum DependencyCheck {
+    	OFF, WARN, FAIL, ADD
+    }
+
     private File pictetDirectory;
 
     private File versionDirectory;
@@ -51,15 +160,25 @@ extends AbstractMojo {
 
     private File osSpecificResourceRcpDirectory;
 
+	private File productFile;
+
 	private Element productElement;
 
 	private Element launcherElement;
 
 	private String launcherName;
 
-	private Map<String,File> repositoryResolutions;
+	private Map<String,JarRecord> repositoryResolutions;
 
 	private String osName = System.getProperty("os.name");
+
+	/** copies the plugins, the launch directory and the resources */
+	private CopyEngine copyEngine;
+
+	/** the directories below plugins created from the launch directory */
+	private final Set<File> exportedDirectories = new HashSet<>();
+
+	private File exportPlugins;
 	
     @Override
 	public void execute()
@@ -68,13 +187,57 @@ extends AbstractMojo {
     	linkResourceDirectories();
     	parseProductFile();
     	createPictetDirectory();
+    	if (this.archive != null) {
+    		writeArchive();
+    		return;
+    	}
     	createVersionDirectory();
     	createConfigurationDirectory();
-    	copyConfigIni();
+    	if (!this.generateConfig)
+    		copyConfigIni();
     	createProductIni();
     	copyLauncher();
-    	copyPlugins();
-    	copyResources();
+    	CopyEngine.Mode mode;
+    	try {
+    		mode = CopyEngine.Mode.of(this.exportMode);
+    	}
+    	catch (IllegalArgumentException e) {
+    		throw new MojoExecutionException("Invalid export-mode " + this.exportMode);
+    	}
+    	this.copyEngine = new CopyEngine(this.copyThreads, mode);
+    	if (this.sync)
+    		this.copyEngine.setSync(isContentCompare());
+    	try {
+    		copyPlugins();
+    		copyResources();
+    		this.copyEngine.await();
+    		if (mode != CopyEngine.Mode.COPY)
+    			getLog().info(this.copyEngine.getLinked() + " files linked, " + this.copyEngine.getCopied() + " copied, "
+    					+ this.copyEngine.getNotLinked() + " of them because they could not be linked");
+    		if (this.sync) {
+    			int removed = removeStale(this.exportPlugins, true);
+    			getLog().info("Sync: "
+    					+ this.copyEngine.getUnchanged() + " files unchanged, "
+    					+ (this.copyEngine.getCopied() + this.copyEngine.getLinked()) + " copied or linked, "
+    					+ removed + " removed, "
+    					+ this.copyEngine.getSavedBytes() + " bytes not copied");
+    		}
+    	}
+    	catch (IOException e) {
+    		throw new MojoExecutionException(e.getMessage(), e);
+    	}
+    	finally {
+    		this.copyEngine.shutdown();
+    	}
+    }
+
+    private boolean isContentCompare()
+    throws MojoExecutionException {
+    	if ("content".equals(this.syncCompare))
+    		return true;
+    	if ("time".equals(this.syncCompare))
+    		return false;
+    	throw new MojoExecutionException("Invalid sync-compare " + this.syncCompare);
     }
 
     /**
@@ -96,14 +259,16 @@ extends AbstractMojo {
     			CompilePathSetter.REPOSITORY_RESOLUTIONS);
     	if (repositoryResolutions == null)
     		return;
-    	this.repositoryResolutions = new HashMap<>();
-    	String[] resolutions = repositoryResolutions.split(File.pathSeparator);
-    	for (String resolution: resolutions) {
-    		String[] artifactAndFilename = resolution.split(CompilePathSetter.SEPARATOR);
-    		File artifactFile = new File(artifactAndFilename[1]);
-    		if (!artifactFile.isFile())
-    			throw new MojoExecutionException("Cannot resolve repository file " + artifactFile.getAbsolutePath());
-    		this.repositoryResolutions.put(artifactAndFilename[0], artifactFile);
+    	try {
+    		//the set-compile-path goal of this build may have left them in typed form
+    		this.repositoryResolutions = ResolutionService.get(this.session).getRepositoryResolutions(
+    				this.project.getBasedir(),
+    				repositoryResolutions);
+    		if (this.repositoryResolutions == null)
+    			this.repositoryResolutions = ResolutionService.parseRepositoryResolutions(repositoryResolutions);
+    	}
+    	catch (Exception e) {
+    		throw new MojoExecutionException("Cannot resolve repository resolutions " + repositoryResolutions, e);
     	}
 	}
 
@@ -134,6 +299,7 @@ extends AbstractMojo {
     		throw new MojoExecutionException("Product file " + productFile + " does not exist");
     	if (!productFile.isFile())
     		throw new MojoExecutionException("Invalid product file");
+    	this.productFile = productFile;
     	//ready to parse the product file
     	SAXBuilder saxBuilder = new SAXBuilder();
     	Document productDocument;
@@ -172,14 +338,20 @@ extends AbstractMojo {
 		getLog().info("Pictet directory created");
 	}
 
+	/**
+	 * @return the version of the product, without qualifier
+	 */
+	private String productVersion() {
+		return this.productElement.getAttributeValue("version")
+				.replaceAll("\\.qualifier", "");
+	}
+
 	/**
 	 * Create a version directory in the pictet directory
 	 */
 	private void createVersionDirectory()
 	throws MojoExecutionException {
-		String version = this.productElement.getAttributeValue("version")
-				.replaceAll("\\.qualifier", "");
-		this.versionDirectory = new File(this.pictetDirectory, version);
+		this.versionDirectory = new File(this.pictetDirectory, productVersion());
 		if (this.versionDirectory.exists()) {
 			if (this.versionDirectory.isDirectory())
 				//all is well
@@ -230,6 +402,111 @@ extends AbstractMojo {
      * Copy a config.ini file in the from OS dependent resource directory
      */
     private void copyConfigIni()
+    throws MojoExecutionException {
+    	File dstConfigIni = new File(this.configurationDirectory, "config.ini");
+    	copyFile(configIniSource(), dstConfigIni);
+    	getLog().info("config.ini created");
+    }
+
+    /**
+     * Write config.ini and bundles.info into the configuration directory
+     * @param requiredFiles the resolved plugins
+     */
+    private void writeConfiguration(List<File> requiredFiles)
+    throws MojoExecutionException {
+    	SimpleConfiguration configuration = simpleConfiguration(requiredFiles);
+    	File bundlesInfo = new File(this.configurationDirectory, SimpleConfiguration.BUNDLES_INFO);
+    	try {
+    		bundlesInfo.getParentFile().mkdirs();
+    		Files.write(bundlesInfo.toPath(), configuration.bundlesInfo().getBytes(StandardCharsets.UTF_8));
+    		Files.write(new File(this.configurationDirectory, "config.ini").toPath(), configIni(configuration));
+    	}
+    	catch (IOException e) {
+    		throw new MojoExecutionException("Could not write the configuration of " + this.configurationDirectory.getAbsolutePath(), e);
+    	}
+    	getLog().info("config.ini and bundles.info generated");
+    }
+
+    /**
+     * Describe the bundles of the export and how they are started
+     * @param requiredFiles the resolved plugins
+     * @return the configuration
+     */
+    private SimpleConfiguration simpleConfiguration(List<File> requiredFiles)
+    throws MojoExecutionException {
+    	SimpleConfiguration configuration = new SimpleConfiguration();
+    	List<File> bundles = new ArrayList<>(requiredFiles);
+    	File[] mainJars = new File(this.versionDirectory, "plugins").listFiles(file -> file.isFile() && isMainJar(file));
+    	if (mainJars != null)
+    		bundles.addAll(Arrays.asList(mainJars));
+    	File[] launchFiles = launchDirectory().listFiles();
+    	if (launchFiles != null) {
+    		Arrays.sort(launchFiles);
+    		bundles.addAll(Arrays.asList(launchFiles));
+    	}
+    	for (File bundle: bundles) {
+    		String[] description;
+    		try {
+    			description = SimpleConfiguration.describe(bundle);
+    		}
+    		catch (IOException e) {
+    			throw new MojoExecutionException("Cannot read the manifest of " + bundle.getAbsolutePath(), e);
+    		}
+    		if (description == null)
+    			//the launch directory has more than bundles
+    			continue;
+    		configuration.add(description[0], description[1],
+    				"plugins/" + bundle.getName() + (bundle.isDirectory()? "/" : ""));
+    	}
+    	if (!configuration.contains(SimpleConfiguration.SIMPLE_CONFIGURATOR))
+    		throw new MojoExecutionException("generate-config needs " + SimpleConfiguration.SIMPLE_CONFIGURATOR
+    				+ " in the product");
+    	Element configurationsElement = this.productElement.getChild("configurations");
+    	if (configurationsElement != null) {
+    		for (Element pluginElement: configurationsElement.getChildren("plugin")) {
+    			String startLevel = pluginElement.getAttributeValue("startLevel");
+    			int level;
+    			try {
+    				level = startLevel == null || startLevel.isEmpty()? 0 : Integer.parseInt(startLevel.trim());
+    			}
+    			catch (NumberFormatException e) {
+    				throw new MojoExecutionException("Invalid startLevel " + startLevel + " of " + pluginElement.getAttributeValue("id"));
+    			}
+    			configuration.setStart(
+    					pluginElement.getAttributeValue("id"),
+    					level,
+    					"true".equals(pluginElement.getAttributeValue("autoStart")));
+    		}
+    	}
+    	return configuration;
+    }
+
+    /**
+     * @return the generated config.ini, based on the one in the resources if there is one
+     */
+    private byte[] configIni(SimpleConfiguration configuration)
+    throws MojoExecutionException {
+    	File base = new File(this.osSpecificResourceRcpDirectory, "config.ini");
+    	List<String> lines = Collections.emptyList();
+    	if (base.isFile()) {
+    		try {
+    			lines = Files.readAllLines(base.toPath(), StandardCharsets.ISO_8859_1);
+    		}
+    		catch (IOException e) {
+    			throw new MojoExecutionException("Cannot read " + base.getAbsolutePath(), e);
+    		}
+    	}
+    	return configuration.configIni(
+    			lines,
+    			this.productElement.getAttributeValue("id"),
+    			this.productElement.getAttributeValue("application"))
+    			.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return the config.ini in the OS dependent resource directory
+     */
+    private File configIniSource()
     throws MojoExecutionException {
     	File resourceRcpOsDirectory = new File(this.resourceRcpDirectory, 
     			this.osName.toLowerCase());
@@ -237,9 +514,7 @@ extends AbstractMojo {
     	if (!srcConfigIni.isFile())
     		throw new MojoExecutionException("Cannot find config.ini resource for target OS '" + 
     				this.osName + "'");
-    	File dstConfigIni = new File(this.configurationDirectory, "config.ini");
-    	copyFile(srcConfigIni, dstConfigIni);
-    	getLog().info("config.ini created");
+    	return srcConfigIni;
     }
 
     private void createProductIni()
@@ -248,7 +523,8 @@ extends AbstractMojo {
     	PrintWriter iniWriter = null;
     	try {
     		iniWriter = new PrintWriter(launcherIniFile);
-    		iniWriter.println("-clearPersistedState");
+    		for (String line: productIniLines())
+    			iniWriter.println(line);
     	}
     	catch (Exception e) {
     		throw new MojoExecutionException("Could not create " + launcherIniFile.getAbsolutePath(), e);
@@ -262,94 +538,325 @@ extends AbstractMojo {
     	getLog().info(launcherIniFile.getName() + " created");
 	}
 
+    /**
+     * @return the lines of the launcher ini, from the launcherArgs of the product and the jvm-profiles
+     */
+    private List<String> productIniLines() {
+    	String os = FeatureCatalog.platform(this.osName, this.osArch)[0];
+    	String suffix = LauncherIni.osSuffix(os);
+    	LauncherIni ini = new LauncherIni();
+    	Element launcherArgs = this.productElement.getChild("launcherArgs");
+    	if (launcherArgs != null) {
+    		ini.addProgramArgs(LauncherIni.split(launcherArgs.getChildText("programArgs")));
+    		ini.addVmArgs(LauncherIni.split(launcherArgs.getChildText("vmArgs")));
+    		if (suffix != null) {
+    			ini.addProgramArgs(LauncherIni.split(launcherArgs.getChildText("programArgs" + suffix)));
+    			ini.addVmArgs(LauncherIni.split(launcherArgs.getChildText("vmArgs" + suffix)));
+    		}
+    	}
+    	if (this.jvmProfiles != null) {
+    		ini.addVmArgs(LauncherIni.split(this.jvmProfiles.get("all")));
+    		ini.addVmArgs(LauncherIni.split(this.jvmProfiles.get(os)));
+    	}
+    	if (this.cdsArchive != null && !this.cdsArchive.isEmpty())
+    		ini.addVmArgs(Arrays.asList("-XX:SharedArchiveFile=" + this.cdsArchive, "-Xshare:auto"));
+    	List<String> lines = new ArrayList<>();
+    	if (this.clearPersistedState && !ini.hasProgramArg("-clearPersistedState"))
+    		lines.add("-clearPersistedState");
+    	lines.addAll(ini.lines());
+    	return lines;
+    }
+
     private void copyLauncher()
+    throws MojoExecutionException {
+    	File copiedLauncher = copyFile(launcherSource(), new File(this.versionDirectory, launcherFileName()));
+    	copiedLauncher.setExecutable(true);
+    }
+
+    private File launcherSource()
     throws MojoExecutionException {
     	File launchFile = new File(this.osSpecificResourceRcpDirectory, "launcher-executable");
     	if (!launchFile.isFile())
     		throw new MojoExecutionException("Cannot find " + launchFile.getAbsolutePath());
-    	File copiedLauncher = copyFile(launchFile, new File(
-    			this.versionDirectory, 
-    			thisIsMSWindows()?
-    					this.launcherName + ".exe" :
-    						this.launcherName));
-    	copiedLauncher.setExecutable(true);
+    	return launchFile;
+    }
+
+    private String launcherFileName() {
+    	return thisIsMSWindows()?
+    			this.launcherName + ".exe" :
+    				this.launcherName;
     }
 
     private void copyPlugins()
     throws MojoExecutionException {
 
-    	File exportPlugins = new File(this.versionDirectory, "plugins");
+    	File exportPlugins = new File(this.versionDirectory, "plugins").getAbsoluteFile();
     	exportPlugins.mkdir();
+    	this.exportPlugins = exportPlugins;
+
+    	List<File> requiredFiles = resolvePlugins();
+    	if (this.generateConfig)
+    		writeConfiguration(requiredFiles);
+    	//copy
+    	for (File requiredFile: requiredFiles) {
+    		submitCopy(requiredFile, new File(exportPlugins, requiredFile.getName()));
+    	}
 
-    	Map<String,File> available = new HashMap<>();
+    	//copy the OS specific launch directory
+    	for (File launchFile: launchDirectory().listFiles()) {
+    		if (launchFile.isDirectory()) {
+    			File launchTargetDirectory = new File(exportPlugins, launchFile.getName());
+    			launchTargetDirectory.mkdir();
+    			this.exportedDirectories.add(launchTargetDirectory.getAbsoluteFile());
+    			copyDeep(launchFile, launchTargetDirectory);
+    		}
+    		else if (launchFile.isFile()) {
+    			File launchTargetFile = new File(exportPlugins, launchFile.getName());
+    			submitCopy(launchFile, launchTargetFile);
+    		}
+    	}
+
+    }
+
+    /**
+     * Resolve the plugins of the product from the repository resolutions and the plugins in the resources
+     * @return the files of the plugins, without the one the Main JAR Creator builds
+     */
+    private List<File> resolvePlugins()
+    throws MojoExecutionException {
+    	Map<String,JarRecord> repository = new HashMap<>();
     	if (this.repositoryResolutions != null) {
-    		for (Entry<String, File> entry: this.repositoryResolutions.entrySet()) {
-    			available.put(entry.getKey(), entry.getValue());
+    		for (Entry<String,JarRecord> entry: this.repositoryResolutions.entrySet()) {
+    			repository.put(entry.getKey(), entry.getValue());
     		}
     	}
 
-    	//map the available common plugins and the OS dependent launcher artifacts
+    	//catalog the available common plugins and the OS dependent launcher artifacts
     	final Pattern pluginNameAndVersion = Pattern.compile("(.*?)_([0-9]+\\..*\\.jar)");
-    	List<File> requiredFiles = new ArrayList<>();
+    	List<JarRecord> resourceJars = new ArrayList<>();
     	File commonResources = new File("resources/rcp/common/plugins");
     	if (!commonResources.isDirectory())
     		throw new MojoExecutionException("Cannot find directory " + commonResources.getAbsolutePath());
-    	for (File commonResource: commonResources.listFiles()) {
-    		Matcher matcher = pluginNameAndVersion.matcher(commonResource.getName());
+    	JarDirectoryIndex commonIndex = indexDirectory(commonResources);
+    	if (!commonIndex.getOtherEntries().isEmpty())
+    		throw new MojoExecutionException("Unexpected resource file name " + commonIndex.getOtherEntries().get(0));
+    	for (JarRecord commonResource: commonIndex.getJars().values()) {
+    		Matcher matcher = pluginNameAndVersion.matcher(commonResource.name);
     		if (!matcher.matches())
-    			throw new MojoExecutionException("Unexpected resource file name " + commonResource.getName());
-    		available.put(matcher.group(1), commonResource);
-    		getLog().info(matcher.group(1) + " is available as " + commonResource.getName());
+    			throw new MojoExecutionException("Unexpected resource file name " + commonResource.name);
+    		resourceJars.add(commonResource);
     	}
-    	for (File osSpecificResource: this.osSpecificResourceRcpDirectory.listFiles()) {
-    		Matcher matcher = pluginNameAndVersion.matcher(osSpecificResource.getName());
+    	for (JarRecord osSpecificResource: indexDirectory(this.osSpecificResourceRcpDirectory).getJars().values()) {
+    		Matcher matcher = pluginNameAndVersion.matcher(osSpecificResource.name);
     		if (!matcher.matches())
-    			//that will be config.ini or the launcher executable or something like that
+    			//that will be something other than a bundle
     			continue;
-    		available.put(matcher.group(1), osSpecificResource);
-    		getLog().info(matcher.group(1) + " is available as " + osSpecificResource.getName());
+    		//later ones win, so the OS dependent ones beat common ones of the same version
+    		resourceJars.add(osSpecificResource);
     	}
-    	getLog().info("");
-    	List<String> osgiBundles = new ArrayList<>();
-    	Element pluginsElement = this.productElement.getChild("plugins");
-    	List<Element> pluginElements = pluginsElement.getChildren("plugin");
-    	for (Element pluginElement: pluginElements) {
-    		osgiBundles.add(pluginElement.getAttributeValue("id"));
+    	BundleCatalog catalog = new BundleCatalog(this.bundleCatalog);
+    	BundleCatalog.Policy policy;
+    	try {
+    		policy = BundleCatalog.Policy.of(this.versionPolicy);
+    	}
+    	catch (IllegalArgumentException e) {
+    		throw new MojoExecutionException("Invalid version-policy " + this.versionPolicy);
+    	}
+    	DependencyCheck dependencyCheck;
+    	try {
+    		dependencyCheck = DependencyCheck.valueOf(this.dependencyCheck.toUpperCase(Locale.ROOT));
+    	}
+    	catch (IllegalArgumentException e) {
+    		throw new MojoExecutionException("Invalid dependency-check " + this.dependencyCheck);
+    	}
+    	//the repository resolutions are looked at only for what the product does not name
+    	BundleCatalog repositoryCatalog = new BundleCatalog(new File(this.bundleCatalog.getPath() + "-repository"));
+    	try {
+    		catalog.refresh(resourceJars);
+    		if (dependencyCheck != DependencyCheck.OFF)
+    			repositoryCatalog.refresh(new ArrayList<>(new LinkedHashSet<>(repository.values())));
+    	}
+    	catch (IOException e) {
+    		throw new MojoExecutionException(e.getMessage(), e);
     	}
-    	Collections.sort(osgiBundles);
+    	getLog().info("Bundle catalog: " + catalog.size() + " bundles, "
+    			+ catalog.getReadCount() + " read, "
+    			+ catalog.getReusedCount() + " unchanged");
+
+    	//id and version of each plugin
+    	List<String[]> requested = new ArrayList<>();
+    	String type = this.productElement.getAttributeValue("type");
+    	boolean useFeatures = "true".equals(this.productElement.getAttributeValue("useFeatures"))
+    			|| "features".equals(type);
+    	if (!useFeatures) {
+    		Element pluginsElement = this.productElement.getChild("plugins");
+    		if (pluginsElement != null) {
+    			for (Element pluginElement: pluginsElement.getChildren("plugin"))
+    				requested.add(new String[] { pluginElement.getAttributeValue("id"), pluginElement.getAttributeValue("version") });
+    		}
+    	}
+    	if (useFeatures || "mixed".equals(type))
+    		requested.addAll(featurePlugins(policy));
+    	requested.sort((a, b) -> a[0].compareTo(b[0]));
     	String productName = this.productElement.getAttributeValue("name");
-    	for (String osgiBundle: osgiBundles) {
+    	Set<File> requiredFiles = new LinkedHashSet<>();
+    	List<BundleCatalog.Bundle> roots = new ArrayList<>();
+    	for (String[] plugin: requested) {
+    		String osgiBundle = plugin[0];
     		if (productName.equals(osgiBundle))
     			//we don't need that one, the Main JAR Creator has already built it
     			continue;
-    		File bundleFile = available.get(osgiBundle);
-    		if (bundleFile == null)
-    			throw new MojoExecutionException("Cannot resolve " + osgiBundle);
+    		String version = plugin[1];
+    		List<BundleCatalog.Bundle> candidates = catalog.candidates(osgiBundle, version);
+    		File bundleFile;
+    		if (!candidates.isEmpty()) {
+    			BundleCatalog.Bundle bundle = BundleCatalog.choose(candidates, policy);
+    			if (bundle == null)
+    				throw new MojoExecutionException("Several versions of " + osgiBundle + " are available: "
+    						+ candidates + ". Name one in the product file.");
+    			bundleFile = bundle.jar.file;
+    			roots.add(bundle);
+    		}
+    		else {
+    			JarRecord repositoryJar = repository.get(osgiBundle);
+    			if (repositoryJar == null)
+    				throw new MojoExecutionException("Cannot resolve " + osgiBundle
+    						+ (version == null || version.isEmpty()? "" : " " + version));
+    			bundleFile = repositoryJar.file;
+    			if (repositoryCatalog.get(bundleFile) != null)
+    				roots.add(repositoryCatalog.get(bundleFile));
+    		}
     		getLog().info(osgiBundle + " is resolved by " + bundleFile.getName());
     		requiredFiles.add(bundleFile);
     	}
-    	//copy
-    	exportPlugins.mkdir();
-    	for (File requiredFile: requiredFiles) {
-    		copyFile(requiredFile, new File(exportPlugins, requiredFile.getName()));
+    	if (dependencyCheck != DependencyCheck.OFF)
+    		requiredFiles.addAll(checkDependencies(dependencyCheck, Arrays.asList(catalog, repositoryCatalog), policy, roots));
+    	return new ArrayList<>(requiredFiles);
+    }
+
+    /**
+     * Resolve the features of the product, with the features they include,
+     * from the features directories next to the plugins in the resources
+     * @return id and version of the plugins of the features meant for this OS
+     */
+    private List<String[]> featurePlugins(BundleCatalog.Policy policy)
+    throws MojoExecutionException {
+    	FeatureCatalog features = new FeatureCatalog(this.featureCache, this.copyThreads);
+    	try {
+    		features.refresh(Arrays.asList(
+    				new File(this.resourceRcpDirectory, "common/features"),
+    				new File(this.osSpecificResourceRcpDirectory, "features")));
+    	}
+    	catch (IOException e) {
+    		throw new MojoExecutionException(e.getMessage(), e);
     	}
+    	getLog().info("Features: " + features.getParsedCount() + " parsed, " + features.getReusedCount() + " unchanged");
+    	List<String[]> roots = new ArrayList<>();
+    	Element featuresElement = this.productElement.getChild("features");
+    	if (featuresElement != null) {
+    		for (Element featureElement: featuresElement.getChildren("feature"))
+    			roots.add(new String[] { featureElement.getAttributeValue("id"), featureElement.getAttributeValue("version") });
+    	}
+    	List<String> problems = new ArrayList<>();
+    	List<FeatureCatalog.Feature> resolved = features.resolve(roots, policy, problems);
+    	if (!problems.isEmpty()) {
+    		for (String problem: problems)
+    			getLog().error(problem);
+    		throw new MojoExecutionException(problems.get(0));
+    	}
+    	for (FeatureCatalog.Feature feature: resolved)
+    		getLog().info("Feature " + feature + " is resolved by " + feature.source.getName());
+    	return FeatureCatalog.plugins(resolved, FeatureCatalog.platform(this.osName, this.osArch));
+    }
 
-    	//copy the OS specific launch directory
-    	File osSpecificLaunchDirectory = new File(this.osSpecificResourceRcpDirectory, "launch");
-    	if (!osSpecificLaunchDirectory.isDirectory())
-    		throw new MojoExecutionException("Cannot find " + osSpecificLaunchDirectory.getAbsolutePath());
-    	for (File launchFile: osSpecificLaunchDirectory.listFiles()) {
-    		if (launchFile.isDirectory()) {
-    			File launchTargetDirectory = new File(exportPlugins, launchFile.getName());
-    			launchTargetDirectory.mkdir();
-    			copyDeep(launchFile, launchTargetDirectory);
+    /**
+     * Resolve the closure of the product plugins and the main jar, and report what is missing
+     * @return the files of the plugins needed but not named by the product, if they are to be added
+     */
+    private List<File> checkDependencies(
+    		DependencyCheck dependencyCheck,
+    		List<BundleCatalog> catalogs,
+    		BundleCatalog.Policy policy,
+    		List<BundleCatalog.Bundle> roots)
+    throws MojoExecutionException {
+    	List<BundleCatalog.Bundle> allRoots = new ArrayList<>(roots);
+    	File[] mainJars = new File(this.versionDirectory, "plugins").listFiles(file -> file.isFile() && isMainJar(file));
+    	if (mainJars != null) {
+    		for (File mainJar: mainJars) {
+    			try {
+    				allRoots.add(BundleCatalog.describe(JarRecord.of(mainJar)));
+    			}
+    			catch (IOException e) {
+    				throw new MojoExecutionException(e.getMessage(), e);
+    			}
     		}
-    		else if (launchFile.isFile()) {
-    			File launchTargetFile = new File(exportPlugins, launchFile.getName());
-    			copyFile(launchFile, launchTargetFile);
+    	}
+    	Set<String> systemPackages;
+    	if (this.runtimeJavaHome != null) {
+    		try {
+    			systemPackages = BundleResolver.runtimePackages(this.runtimeJavaHome);
     		}
+    		catch (IOException e) {
+    			throw new MojoExecutionException(e.getMessage(), e);
+    		}
+    		getLog().info("Requirements are checked against the packages of the Java runtime in " + this.runtimeJavaHome);
+    	}
+    	else {
+    		systemPackages = BundleResolver.runtimePackages();
+    		getLog().info("Requirements are checked against the packages of the Java " + Runtime.version()
+    				+ " running Maven in " + System.getProperty("java.home") + ", set runtime-java-home for another");
+    	}
+    	BundleResolver resolver = new BundleResolver(catalogs, policy, systemPackages);
+    	resolver.resolve(allRoots);
+    	List<File> addedFiles = new ArrayList<>();
+    	Set<String> problems = new TreeSet<>(resolver.getProblems());
+    	for (BundleCatalog.Bundle added: resolver.getAdded()) {
+    		if (dependencyCheck == DependencyCheck.ADD) {
+    			getLog().info(added + " is needed and added as " + added.jar.name);
+    			addedFiles.add(added.jar.file);
+    		}
+    		else
+    			problems.add("The product does not name " + added + ", which is needed");
     	}
+    	if (problems.isEmpty()) {
+    		getLog().info("All requirements of the product are satisfied");
+    		return addedFiles;
+    	}
+    	for (String problem: problems) {
+    		if (dependencyCheck == DependencyCheck.WARN)
+    			getLog().warn(problem);
+    		else
+    			getLog().error(problem);
+    	}
+    	if (dependencyCheck != DependencyCheck.WARN)
+    		throw new MojoExecutionException(problems.size() + " requirements of the product are not satisfied");
+    	return addedFiles;
+    }
 
+    /**
+     * @return the OS specific launch directory, whose content goes into plugins
+     */
+    private File launchDirectory()
+    throws MojoExecutionException {
+    	File osSpecificLaunchDirectory = new File(this.osSpecificResourceRcpDirectory, "launch");
+    	if (!osSpecificLaunchDirectory.isDirectory())
+    		throw new MojoExecutionException("Cannot find " + osSpecificLaunchDirectory.getAbsolutePath());
+    	return osSpecificLaunchDirectory;
+    }
+
+    /**
+     * Get the index of a resource directory, which is shared with the other goals of this build
+     * @param directory to index
+     * @return the index
+     */
+    private JarDirectoryIndex indexDirectory(File directory)
+    throws MojoExecutionException {
+    	try {
+    		return ResolutionService.get(this.session).directory(directory);
+    	}
+    	catch (Exception e) {
+    		throw new MojoExecutionException("Cannot list " + directory.getAbsolutePath(), e);
+    	}
     }
 
 	private void copyDeep(File srcDir, File dstDir)
@@ -363,11 +870,12 @@ extends AbstractMojo {
     			//directory
     			File deepDir = new File(dstDir, file.getName());
     			deepDir.mkdir();
+    			this.exportedDirectories.add(deepDir.getAbsoluteFile());
     			copyDeep(file, deepDir);
     		}
     		else if (file.isFile()) {
     			//just a file
-    			copyFile(file, new File(dstDir, file.getName()));
+    			submitCopy(file, new File(dstDir, file.getName()));
     		}
     		else
     			throw new MojoExecutionException(file.getAbsolutePath() + " is not a file and not a directory");
@@ -376,25 +884,82 @@ extends AbstractMojo {
 
 	private File copyFile(File src, File dst)
 	throws MojoExecutionException {
-    	byte[] fileBytes = null;
     	try {
+    		if (this.sync && CopyEngine.isCurrent(src, dst, isContentCompare())) {
+    			getLog().info(dst.getAbsolutePath() + " is current");
+    			return dst;
+    		}
     		getLog().info("Copying " + src.getAbsolutePath());
-    		FileInputStream in = new FileInputStream(src);
-    		fileBytes = new byte[in.available()];
-    		in.read(fileBytes);
-    		in.close();
     		getLog().info("     to " + dst.getAbsolutePath());
-    		FileOutputStream out = new FileOutputStream(dst);
-    		out.write(fileBytes);
-    		out.flush();
-    		out.close();
+    		CopyEngine.copy(src, dst);
+    		if (this.sync)
+    			dst.setLastModified(src.lastModified());
     		return dst;
     	}
+    	catch (MojoExecutionException e) {
+    		throw e;
+    	}
     	catch (Exception e) {
     		throw new MojoExecutionException("Could not copy file " + src.getAbsolutePath(), e);
     	}
 	}
 
+	/**
+	 * Copy a file on the copy engine. Failures are reported when the copies are awaited.
+	 */
+	private void submitCopy(File src, File dst) {
+		getLog().info("Copying " + src.getAbsolutePath());
+		getLog().info("     to " + dst.getAbsolutePath());
+		this.copyEngine.submit(src, dst);
+	}
+
+	/**
+	 * Remove what is no longer part of the export
+	 * @param directory below plugins, or plugins itself
+	 * @param top true for plugins itself, where the main jar of the project is kept
+	 * @return the number of files and directories removed
+	 */
+	private int removeStale(File directory, boolean top)
+	throws MojoExecutionException {
+		File[] files = directory.listFiles();
+		if (files == null)
+			throw new MojoExecutionException("Cannot list " + directory.getAbsolutePath());
+		int removed = 0;
+		for (File file: files) {
+			File absolute = file.getAbsoluteFile();
+			if (file.isDirectory() && this.exportedDirectories.contains(absolute)) {
+				removed += removeStale(file, false);
+				continue;
+			}
+			if (this.copyEngine.getDestinations().contains(absolute))
+				continue;
+			if (top && isMainJar(file))
+				continue;
+			getLog().info("Removing " + absolute + ", which is no longer exported");
+			try {
+				if (file.isDirectory())
+					FileUtils.deleteDirectory(file);
+				else
+					Files.delete(file.toPath());
+			}
+			catch (Exception e) {
+				throw new MojoExecutionException("Could not remove " + absolute, e);
+			}
+			removed++;
+		}
+		return removed;
+	}
+
+	/**
+	 * @param file in plugins
+	 * @return true if it was built by the Main JAR Creator
+	 */
+	private boolean isMainJar(File file) {
+		String productName = this.productElement.getAttributeValue("name");
+		return file.getName().startsWith(productName + "_")
+				|| file.getName().startsWith(this.project.getArtifactId() + "_");
+	}
+
 	private void copyResources()
 	throws MojoExecutionException {
 		if (this.resources == null || this.resources.length == 0)
@@ -408,8 +973,138 @@ extends AbstractMojo {
 			if (!src.isFile())
 				throw new MojoExecutionException("Cannot find " + src.getAbsolutePath());
 			File dst = new File(this.versionResourcesDirectory, src.getName());
-			copyFile(src, dst);
+			submitCopy(src, dst);
+		}
+	}
+
+	/**
+	 * Write the product into an archive instead of the version directory,
+	 * streaming each file into it as it is resolved.
+	 * Directories and generated files get the newest modification time of the inputs,
+	 * so an unchanged product yields an identical archive.
+	 */
+	private void writeArchive()
+	throws MojoExecutionException {
+		if (this.sync || !"copy".equals(this.exportMode))
+			throw new MojoExecutionException("sync and export-mode do not apply to an archive");
+		ArchiveWriter.Format format;
+		try {
+			format = ArchiveWriter.Format.of(this.archive);
+		}
+		catch (IllegalArgumentException e) {
+			throw new MojoExecutionException("Invalid archive " + this.archive);
+		}
+		String version = productVersion();
+		this.versionDirectory = new File(this.pictetDirectory, version);
+		File archiveFile = new File(this.pictetDirectory, version + format.extension);
+
+		File launcher = launcherSource();
+		File configIni = this.generateConfig? null : configIniSource();
+		File[] built = new File(this.versionDirectory, "plugins").listFiles(file -> file.isFile() && isMainJar(file));
+		if (built == null)
+			built = new File[0];
+		List<File> requiredFiles = resolvePlugins();
+		List<File> inputs = new ArrayList<>(requiredFiles);
+		inputs.addAll(Arrays.asList(built));
+		inputs.add(this.productFile);
+		inputs.add(launcher);
+		if (configIni != null)
+			inputs.add(configIni);
+		if (this.resources != null) {
+			for (String resource: this.resources)
+				inputs.add(new File(this.resourceDirectory, resource));
 		}
+		long time = 0;
+		for (File input: inputs)
+			time = Math.max(time, input.lastModified());
+
+		ArchiveWriter writer;
+		try {
+			writer = ArchiveWriter.open(archiveFile, format);
+		}
+		catch (IOException e) {
+			throw new MojoExecutionException("Cannot create " + archiveFile.getAbsolutePath(), e);
+		}
+		try {
+			writer.addDirectory(version, time);
+			writer.addDirectory(version + "/configuration", time);
+			if (configIni != null)
+				writer.addFile(configIni, version + "/configuration/config.ini", false);
+			writer.addContent(
+					(String.join(System.lineSeparator(), productIniLines()) + System.lineSeparator())
+					.getBytes(StandardCharsets.UTF_8),
+					version + "/" + this.launcherName + ".ini",
+					time);
+			writer.addFile(launcher, version + "/" + launcherFileName(), true);
+
+			String plugins = version + "/plugins";
+			writer.addDirectory(plugins, time);
+			if (built.length == 0)
+				getLog().warn("No main jar in " + this.versionDirectory.getAbsolutePath() + "/plugins, run create-main-jar first");
+			else {
+				for (File mainJar: built)
+					writer.addFile(mainJar, plugins + "/" + mainJar.getName(), false);
+			}
+			if (this.generateConfig) {
+				SimpleConfiguration configuration = simpleConfiguration(requiredFiles);
+				writer.addContent(configIni(configuration), version + "/configuration/config.ini", time);
+				String bundlesInfo = version + "/configuration/" + SimpleConfiguration.BUNDLES_INFO;
+				writer.addDirectory(bundlesInfo.substring(0, bundlesInfo.lastIndexOf('/')), time);
+				writer.addContent(configuration.bundlesInfo().getBytes(StandardCharsets.UTF_8), bundlesInfo, time);
+			}
+			for (File requiredFile: requiredFiles) {
+				getLog().info("Archiving " + requiredFile.getAbsolutePath());
+				writer.addFile(requiredFile, plugins + "/" + requiredFile.getName(), false);
+			}
+			archiveDeep(writer, launchDirectory(), plugins);
+
+			if (this.resources != null && this.resources.length > 0) {
+				writer.addDirectory(version + "/resources", time);
+				for (String resource: this.resources) {
+					File src = new File(this.resourceDirectory, resource);
+					if (!src.isFile())
+						throw new MojoExecutionException("Cannot find " + src.getAbsolutePath());
+					writer.addFile(src, version + "/resources/" + src.getName(), isExecutable(src));
+				}
+			}
+			writer.finish();
+		}
+		catch (IOException e) {
+			throw new MojoExecutionException("Could not write " + archiveFile.getAbsolutePath(), e);
+		}
+		finally {
+			writer.abort();
+		}
+		getLog().info(archiveFile.getAbsolutePath() + " written: "
+				+ writer.getEntryCount() + " entries, "
+				+ writer.getStoredCount() + " stored without compressing them again");
+	}
+
+	private void archiveDeep(ArchiveWriter writer, File srcDir, String path)
+	throws MojoExecutionException, IOException {
+		File[] files = srcDir.listFiles();
+		if (files == null)
+			throw new MojoExecutionException("Cannot list " + srcDir.getAbsolutePath());
+		Arrays.sort(files);
+		for (File file: files) {
+			String filePath = path + "/" + file.getName();
+			if (file.isDirectory()) {
+				writer.addDirectory(filePath, file.lastModified());
+				archiveDeep(writer, file, filePath);
+			}
+			else if (file.isFile())
+				writer.addFile(file, filePath, isExecutable(file));
+			else
+				throw new MojoExecutionException(file.getAbsolutePath() + " is not a file and not a directory");
+		}
+	}
+
+	/**
+	 * @param file to archive
+	 * @return true if it is to be marked executable in the archive, which MS Windows cannot tell
+	 */
+	private boolean isExecutable(File file) {
+		return !thisIsMSWindows() && file.canExecute();
 	}
 
 }
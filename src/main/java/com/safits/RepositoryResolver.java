@@ -0,0 +1,151 @@
+package com.safits;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import com.safits.CompilePathSetter.Dependency;
+
+/**
+ * The repository resolver finds the jars of dependencies in the groupId/artifactId/version layout
+ * of the local Maven repository.
+ *
+ * A dependency whose jar is there is resolved with a single stat, which also yields its fingerprint.
+ * Only a dependency whose jar is missing is probed level by level, so it is reported with the
+ * directory that is missing, or with the versions that its artifact directory does have.
+ * All dependencies are resolved in one batch, grouped by groupId directory, and the groups
+ * are checked concurrently.
+ */
+class RepositoryResolver {
+
+	private final File localRepository;
+
+	/**
+	 * The outcome of resolving one dependency
+	 */
+	static class Resolution {
+
+		final File jar;
+
+		final String fingerprint;
+
+		Resolution(File jar, String fingerprint) {
+			this.jar = jar;
+			this.fingerprint = fingerprint;
+		}
+	}
+
+	RepositoryResolver(File localRepository) {
+		this.localRepository = localRepository;
+	}
+
+	/**
+	 * Resolve all dependencies in one batch
+	 * @param dependencies to resolve
+	 * @param threads the maximum number of groups checked concurrently
+	 * @return the resolutions, in the order of the dependencies
+	 * @throws MojoExecutionException for the first dependency that cannot be resolved
+	 */
+	Map<Dependency,Resolution> resolve(Dependency[] dependencies, int threads)
+	throws MojoExecutionException {
+		Map<String,List<Dependency>> groups = new TreeMap<>();
+		for (Dependency dependency: dependencies)
+			groups.computeIfAbsent(dependency.groupId, groupId -> new ArrayList<>()).add(dependency);
+
+		Map<String,Future<Map<Dependency,Resolution>>> futures = new LinkedHashMap<>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, groups.size())));
+		try {
+			for (Entry<String,List<Dependency>> group: groups.entrySet())
+				futures.put(group.getKey(), executor.submit(() -> resolveGroup(group.getKey(), group.getValue())));
+			Map<Dependency,Resolution> resolved = new LinkedHashMap<>();
+			for (Future<Map<Dependency,Resolution>> future: futures.values())
+				resolved.putAll(future.get());
+			Map<Dependency,Resolution> ordered = new LinkedHashMap<>();
+			for (Dependency dependency: dependencies)
+				ordered.put(dependency, resolved.get(dependency));
+			return ordered;
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof MojoExecutionException)
+				throw (MojoExecutionException) e.getCause();
+			throw new MojoExecutionException("Failed to resolve repository dependencies", e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while resolving repository dependencies", e);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Resolve all dependencies of one groupId
+	 */
+	private Map<Dependency,Resolution> resolveGroup(String groupId, List<Dependency> dependencies)
+	throws MojoExecutionException {
+		File groupIdDirectory = new File(this.localRepository, groupId.replace('.', File.separatorChar));
+		Map<Dependency,Resolution> resolved = new LinkedHashMap<>();
+		for (Dependency dependency: dependencies) {
+			File jar = new File(
+					groupIdDirectory,
+					dependency.artifactId
+					+ File.separator
+					+ dependency.version
+					+ File.separator
+					+ dependency.artifactId
+					+ "-"
+					+ dependency.version
+					+ ".jar");
+			String fingerprint = ClasspathCache.fingerprint(jar.toPath());
+			if (fingerprint == null) {
+				//find out what is missing
+				probe(groupIdDirectory, dependency, jar);
+				throw new MojoExecutionException("Cannot find repository dependency " + jar.getAbsolutePath());
+			}
+			resolved.put(dependency, new Resolution(jar, fingerprint));
+		}
+		return resolved;
+	}
+
+	/**
+	 * Check a dependency level by level, to report what is missing
+	 */
+	private static void probe(File groupIdDirectory, Dependency dependency, File jar)
+	throws MojoExecutionException {
+		if (!groupIdDirectory.isDirectory())
+			throw new MojoExecutionException(
+					"Cannot find repository dependency directory "
+							+ groupIdDirectory.getAbsolutePath());
+		File artifactDirectory = new File(groupIdDirectory, dependency.artifactId);
+		File[] versionDirectories = artifactDirectory.listFiles(File::isDirectory);
+		if (versionDirectories == null)
+			throw new MojoExecutionException(
+					"Cannot find repository dependency directory "
+							+ artifactDirectory.getAbsolutePath());
+		TreeSet<String> artifactVersions = new TreeSet<>();
+		for (File versionDirectory: versionDirectories)
+			artifactVersions.add(versionDirectory.getName());
+		if (!artifactVersions.contains(dependency.version))
+			throw new MojoExecutionException(
+					"Cannot find repository dependency directory "
+							+ new File(artifactDirectory, dependency.version).getAbsolutePath()
+							+ ", available versions: " + String.join(", ", artifactVersions));
+		if (!jar.isFile())
+			throw new MojoExecutionException(
+					"Cannot find repository dependency "
+							+ jar.getAbsolutePath());
+	}
+
+}
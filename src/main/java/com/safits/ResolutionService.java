@@ -0,0 +1,187 @@
+package com.safits;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.maven.execution.MavenSession;
+
+/**
+ * The resolution service is shared by all goals of this plugin within one build, that is one Maven session.
+ * A build tool which keeps the plugin loaded, like the Maven daemon, starts each build with a new service.
+ * It scans each resource directory once and hands out typed jar records,
+ * and it passes the repository resolutions of a project from set-compile-path to export-rcp
+ * without a round trip through a project property string.
+ *
+ * Scans and directory indexes are checked against the fingerprints of the directories they came from,
+ * with one stat per directory, before they are handed out again. Within one build that is enough,
+ * as resource directories are not rewritten while it runs, and no record outlives the build.
+ * The repository resolutions are not covered by a directory fingerprint, so each of their few jars
+ * is stat'ed again before they are handed out, and a jar replaced in place gets a new record.
+ */
+final class ResolutionService {
+
+	/** the services by session, dropped with the session */
+	private static final Map<MavenSession,ResolutionService> SERVICES = new WeakHashMap<>();
+
+	/** recursive scans by root directory */
+	private final Map<Path,JarScanner.Scan> trees = new ConcurrentHashMap<>();
+
+	/** flat directory indexes by canonical directory */
+	private final Map<String,JarDirectoryIndex> directories = new ConcurrentHashMap<>();
+
+	/** repository resolutions by canonical project base directory */
+	private final Map<String,RepositoryResolutions> repositoryResolutions = new ConcurrentHashMap<>();
+
+	/**
+	 * The repository resolutions of a project, together with the property value they were published as
+	 */
+	private static class RepositoryResolutions {
+
+		final String property;
+
+		final Map<String,JarRecord> jars;
+
+		RepositoryResolutions(String property, Map<String,JarRecord> jars) {
+			this.property = property;
+			this.jars = jars;
+		}
+	}
+
+	private ResolutionService() {
+	}
+
+	/**
+	 * @param session of the build
+	 * @return the service of the build
+	 */
+	static ResolutionService get(MavenSession session) {
+		synchronized (SERVICES) {
+			return SERVICES.computeIfAbsent(session, key -> new ResolutionService());
+		}
+	}
+
+	/**
+	 * Get the jars below several directories, scanning only those that are new or changed
+	 * @param roots directories to start from
+	 * @param threads the number of threads to scan with
+	 * @return the outcome for each root, in the given order
+	 * @throws IOException if a directory cannot be read
+	 */
+	Map<Path,JarScanner.Scan> scanTrees(List<Path> roots, int threads)
+	throws IOException {
+		List<Path> toScan = new ArrayList<>();
+		for (Path root: roots) {
+			JarScanner.Scan scan = this.trees.get(key(root));
+			if (scan == null || !isCurrent(scan))
+				toScan.add(root);
+		}
+		if (!toScan.isEmpty()) {
+			Map<Path,JarScanner.Scan> scanned = new JarScanner(threads).scanAll(toScan);
+			for (Entry<Path,JarScanner.Scan> scan: scanned.entrySet())
+				this.trees.put(key(scan.getKey()), scan.getValue());
+		}
+		Map<Path,JarScanner.Scan> scans = new LinkedHashMap<>();
+		for (Path root: roots)
+			scans.put(root, this.trees.get(key(root)));
+		return scans;
+	}
+
+	private static Path key(Path root) {
+		return root.toAbsolutePath().normalize();
+	}
+
+	private static boolean isCurrent(JarScanner.Scan scan) {
+		for (Entry<Path,String> stamp: scan.directoryStamps.entrySet()) {
+			if (!stamp.getValue().equals(ClasspathCache.fingerprint(stamp.getKey())))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param jars records by name
+	 * @return current records by name
+	 * @throws IOException if a jar is gone
+	 */
+	private static Map<String,JarRecord> current(Map<String,JarRecord> jars)
+	throws IOException {
+		Map<String,JarRecord> current = new LinkedHashMap<>();
+		for (Entry<String,JarRecord> jar: jars.entrySet())
+			current.put(jar.getKey(), jar.getValue().current());
+		return current;
+	}
+
+	/**
+	 * Get the index of a single directory, listing it only if it is new or changed
+	 * @param directory to index
+	 * @return the index
+	 * @throws IOException if the directory cannot be read
+	 */
+	JarDirectoryIndex directory(File directory)
+	throws IOException {
+		String key = directory.getCanonicalPath();
+		JarDirectoryIndex index = this.directories.get(key);
+		if (index != null && index.isCurrent())
+			return index;
+		index = JarDirectoryIndex.create(directory);
+		this.directories.put(key, index);
+		return index;
+	}
+
+	/**
+	 * Remember the repository resolutions of a project
+	 * @param baseDirectory of the project
+	 * @param property the resolutions as published in the project property
+	 * @param resolutions jars by artifact name
+	 * @throws IOException if the base directory cannot be resolved
+	 */
+	void setRepositoryResolutions(File baseDirectory, String property, Map<String,JarRecord> resolutions)
+	throws IOException {
+		this.repositoryResolutions.put(
+				baseDirectory.getCanonicalPath(),
+				new RepositoryResolutions(property, Collections.unmodifiableMap(new LinkedHashMap<>(resolutions))));
+	}
+
+	/**
+	 * Get the repository resolutions of a project, if they are the ones of the given property value
+	 * @param baseDirectory of the project
+	 * @param property the resolutions as found in the project property
+	 * @return jars by artifact name, or null if there are none for that property value
+	 * @throws IOException if the base directory cannot be resolved
+	 */
+	Map<String,JarRecord> getRepositoryResolutions(File baseDirectory, String property)
+	throws IOException {
+		RepositoryResolutions resolutions = this.repositoryResolutions.get(baseDirectory.getCanonicalPath());
+		if (resolutions == null || !resolutions.property.equals(property))
+			return null;
+		return Collections.unmodifiableMap(current(resolutions.jars));
+	}
+
+	/**
+	 * Parse repository resolutions as published in the project property
+	 * @param property artifact=file pairs, separated by the path separator
+	 * @return jars by artifact name
+	 * @throws IOException if a jar is not a readable file
+	 */
+	static Map<String,JarRecord> parseRepositoryResolutions(String property)
+	throws IOException {
+		Map<String,JarRecord> resolutions = new LinkedHashMap<>();
+		for (String resolution: property.split(File.pathSeparator)) {
+			String[] artifactAndFilename = resolution.split(CompilePathSetter.SEPARATOR);
+			if (artifactAndFilename.length != 2)
+				throw new IOException("Invalid repository resolution " + resolution);
+			resolutions.put(artifactAndFilename[0], JarRecord.of(new File(artifactAndFilename[1])));
+		}
+		return resolutions;
+	}
+
+}
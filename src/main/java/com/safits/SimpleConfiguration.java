@@ -0,0 +1,261 @@
+package com.safits;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * The simple configuration lists the bundles of an exported product the way the simple configurator
+ * of Equinox reads them from bundles.info, each with its start level and whether it is started,
+ * and makes the config.ini that points the framework to it. That way the framework installs
+ * the bundles from the list at first start instead of discovering them.
+ *
+ * Bundles get the start levels an Eclipse product export gives them, unless the product configures others.
+ */
+class SimpleConfiguration {
+
+	/** where bundles.info goes, below the configuration directory */
+	static final String BUNDLES_INFO = "org.eclipse.equinox.simpleconfigurator/bundles.info";
+
+	static final String SIMPLE_CONFIGURATOR = "org.eclipse.equinox.simpleconfigurator";
+
+	static final String FRAMEWORK = "org.eclipse.osgi";
+
+	static final int DEFAULT_START_LEVEL = 4;
+
+	/** the config.ini keys that are generated, in the order they are written */
+	private static final String[] GENERATED_KEYS = {
+			"eclipse.product",
+			"eclipse.application",
+			"osgi.framework",
+			"osgi.bundles",
+			"osgi.bundles.defaultStartLevel",
+			"org.eclipse.equinox.simpleconfigurator.configUrl" };
+
+	/**
+	 * How a bundle is started
+	 */
+	private static class Start {
+
+		/** the start level, or -1 for the framework */
+		final int level;
+
+		final boolean started;
+
+		Start(int level, boolean started) {
+			this.level = level;
+			this.started = started;
+		}
+	}
+
+	/**
+	 * A bundle of the product
+	 */
+	private static class Bundle {
+
+		final String symbolicName;
+
+		final String version;
+
+		/** relative to the product directory */
+		final String location;
+
+		Bundle(String symbolicName, String version, String location) {
+			this.symbolicName = symbolicName;
+			this.version = version;
+			this.location = location;
+		}
+	}
+
+	private final Map<String,Start> starts = new HashMap<>();
+
+	private final List<Bundle> bundles = new ArrayList<>();
+
+	SimpleConfiguration() {
+		this.starts.put(SIMPLE_CONFIGURATOR, new Start(1, true));
+		this.starts.put("org.eclipse.equinox.common", new Start(2, true));
+		this.starts.put("org.eclipse.equinox.event", new Start(2, true));
+		this.starts.put("org.eclipse.equinox.ds", new Start(2, true));
+		this.starts.put("org.apache.felix.scr", new Start(2, true));
+		this.starts.put("org.eclipse.core.runtime", new Start(DEFAULT_START_LEVEL, true));
+		this.starts.put(FRAMEWORK, new Start(-1, true));
+	}
+
+	/**
+	 * Configure how a bundle is started, like the configurations element of a product file does
+	 * @param symbolicName of the bundle
+	 * @param level the start level, 0 for the default
+	 * @param started true to start the bundle
+	 */
+	void setStart(String symbolicName, int level, boolean started) {
+		this.starts.put(symbolicName, new Start(level <= 0? DEFAULT_START_LEVEL : level, started));
+	}
+
+	/**
+	 * Add a bundle of the product
+	 * @param symbolicName of the bundle
+	 * @param version of the bundle
+	 * @param location relative to the product directory, like plugins/a_1.0.jar, with a trailing slash for directories
+	 */
+	void add(String symbolicName, String version, String location) {
+		this.bundles.add(new Bundle(symbolicName, version, location));
+	}
+
+	/**
+	 * @param symbolicName of a bundle
+	 * @return true if a bundle of that name was added
+	 */
+	boolean contains(String symbolicName) {
+		return location(symbolicName) != null;
+	}
+
+	private String location(String symbolicName) {
+		for (Bundle bundle: this.bundles) {
+			if (bundle.symbolicName.equals(symbolicName))
+				return bundle.location;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the content of bundles.info, the bundles sorted by symbolic name and version
+	 */
+	String bundlesInfo() {
+		List<Bundle> sorted = new ArrayList<>(this.bundles);
+		sorted.sort((a, b) -> {
+			int result = a.symbolicName.compareTo(b.symbolicName);
+			if (result != 0)
+				return result;
+			BundleVersion aVersion = BundleVersion.parse(a.version);
+			BundleVersion bVersion = BundleVersion.parse(b.version);
+			return aVersion != null && bVersion != null? aVersion.compareTo(bVersion) : a.version.compareTo(b.version);
+		});
+		StringBuilder info = new StringBuilder();
+		info.append("#encoding=UTF-8\n");
+		info.append("#version=1\n");
+		for (Bundle bundle: sorted) {
+			Start start = this.starts.getOrDefault(bundle.symbolicName, new Start(DEFAULT_START_LEVEL, false));
+			info.append(bundle.symbolicName).append(',')
+					.append(bundle.version).append(',')
+					.append(bundle.location).append(',')
+					.append(start.level).append(',')
+					.append(start.started).append('\n');
+		}
+		return info.toString();
+	}
+
+	/**
+	 * Make the config.ini, keeping what a given one says apart from the generated keys
+	 * @param base the lines of a config.ini to start from, may be empty
+	 * @param product the product id, or null
+	 * @param application the application id, or null
+	 * @return the content of config.ini
+	 */
+	String configIni(List<String> base, String product, String application) {
+		Map<String,String> generated = new LinkedHashMap<>();
+		if (product != null)
+			generated.put("eclipse.product", product);
+		if (application != null)
+			generated.put("eclipse.application", application);
+		String framework = location(FRAMEWORK);
+		if (framework != null)
+			generated.put("osgi.framework", "file\\:" + framework);
+		generated.put("osgi.bundles", SIMPLE_CONFIGURATOR + "@1\\:start");
+		generated.put("osgi.bundles.defaultStartLevel", Integer.toString(DEFAULT_START_LEVEL));
+		generated.put("org.eclipse.equinox.simpleconfigurator.configUrl", "file\\:" + BUNDLES_INFO);
+
+		StringBuilder ini = new StringBuilder();
+		boolean skipping = false;
+		for (String line: base) {
+			boolean continued = line.endsWith("\\");
+			if (skipping) {
+				//the continuation of a value that is replaced
+				skipping = continued;
+				continue;
+			}
+			String key = key(line);
+			if (key != null && isGenerated(key) && (generated.containsKey(key) || !keepsBase(key))) {
+				skipping = continued;
+				continue;
+			}
+			ini.append(line).append('\n');
+		}
+		for (Entry<String,String> entry: generated.entrySet())
+			ini.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+		return ini.toString();
+	}
+
+	/**
+	 * @return true for keys the base keeps if nothing is generated for them, like the product id
+	 */
+	private static boolean keepsBase(String key) {
+		return "eclipse.product".equals(key) || "eclipse.application".equals(key) || "osgi.framework".equals(key);
+	}
+
+	private static boolean isGenerated(String key) {
+		for (String generatedKey: GENERATED_KEYS) {
+			if (generatedKey.equals(key))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the key of a properties line, or null for comments and blank lines
+	 */
+	private static String key(String line) {
+		String trimmed = line.trim();
+		if (trimmed.isEmpty() || trimmed.startsWith("#") || trimmed.startsWith("!"))
+			return null;
+		int end = 0;
+		while (end < trimmed.length() && "=: \t".indexOf(trimmed.charAt(end)) < 0)
+			end++;
+		return trimmed.substring(0, end);
+	}
+
+	/**
+	 * Read the symbolic name and version of a bundle jar or bundle directory
+	 * @param bundle jar or directory
+	 * @return symbolic name and version, or null if it is not a bundle
+	 * @throws IOException if the manifest cannot be read
+	 */
+	static String[] describe(File bundle)
+	throws IOException {
+		Manifest manifest;
+		if (bundle.isDirectory()) {
+			File manifestFile = new File(bundle, JarFile.MANIFEST_NAME);
+			if (!manifestFile.isFile())
+				return null;
+			try (InputStream in = new FileInputStream(manifestFile)) {
+				manifest = new Manifest(in);
+			}
+		}
+		else {
+			ZipCentralDirectory directory = ZipCentralDirectory.read(bundle.toPath());
+			ZipCentralDirectory.Entry entry = directory.getEntry(JarFile.MANIFEST_NAME);
+			if (entry == null)
+				return null;
+			manifest = new Manifest(new ByteArrayInputStream(directory.read(entry)));
+		}
+		Attributes attributes = manifest.getMainAttributes();
+		String symbolicName = attributes.getValue(BundleCatalog.BUNDLE_SYMBOLIC_NAME);
+		if (symbolicName == null || symbolicName.trim().isEmpty())
+			return null;
+		String version = attributes.getValue(BundleCatalog.BUNDLE_VERSION);
+		return new String[] {
+				symbolicName.split(";", 2)[0].trim(),
+				version == null || version.trim().isEmpty()? "0.0.0" : version.trim() };
+	}
+
+}
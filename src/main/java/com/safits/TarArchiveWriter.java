@@ -0,0 +1,193 @@
+package com.safits;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a gzip compressed tar archive in the ustar format, streaming each file into it as it is read.
+ *
+ * The gzip stream is one deflate stream for the whole archive, but the compression level is switched
+ * for files that are compressed already: they go into stored deflate blocks, which costs a few bytes
+ * per 64k and no time, instead of being deflated in vain.
+ *
+ * Names longer than 100 bytes are split into the prefix and the name field of the ustar header,
+ * which holds names of up to 256 bytes. Files are limited to 8 GB.
+ */
+class TarArchiveWriter
+extends ArchiveWriter {
+
+	private static final int BLOCK_SIZE = 512;
+
+	private static final int NAME_SIZE = 100;
+
+	private static final int PREFIX_SIZE = 155;
+
+	/** the largest size in the 11 octal digits of the size field */
+	private static final long MAX_SIZE = 077777777777L;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final FileOutputStream file;
+
+	private final LevelGzipStream gzip;
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * A gzip stream whose compression level can be changed between writes
+	 */
+	private static class LevelGzipStream
+	extends GZIPOutputStream {
+
+		LevelGzipStream(OutputStream out)
+		throws IOException {
+			super(out, BUFFER_SIZE);
+		}
+
+		void setLevel(int level) {
+			this.def.setLevel(level);
+		}
+	}
+
+	TarArchiveWriter(File archive)
+	throws IOException {
+		super(archive);
+		this.file = new FileOutputStream(this.temporary);
+		this.gzip = new LevelGzipStream(new BufferedOutputStream(this.file, BUFFER_SIZE));
+	}
+
+	@Override
+	void addDirectory(String path, long time)
+	throws IOException {
+		writeHeader(path + "/", 0, time, EXECUTABLE_MODE, '5');
+		counted(false);
+	}
+
+	@Override
+	void addFile(File file, String path, boolean executable)
+	throws IOException {
+		boolean store = isCompressed(path);
+		long size = file.length();
+		writeHeader(path, size, file.lastModified(), executable? EXECUTABLE_MODE : FILE_MODE, '0');
+		if (store)
+			this.gzip.setLevel(Deflater.NO_COMPRESSION);
+		try (InputStream in = new FileInputStream(file)) {
+			long remaining = size;
+			int read;
+			while (remaining > 0 && (read = in.read(this.buffer, 0, (int) Math.min(this.buffer.length, remaining))) >= 0) {
+				this.gzip.write(this.buffer, 0, read);
+				remaining -= read;
+			}
+			if (remaining > 0 || in.read() >= 0)
+				throw new IOException(file.getAbsolutePath() + " changed while it was archived");
+		}
+		finally {
+			if (store)
+				this.gzip.setLevel(Deflater.DEFAULT_COMPRESSION);
+		}
+		pad(size);
+		counted(store);
+	}
+
+	@Override
+	void addContent(byte[] content, String path, long time)
+	throws IOException {
+		writeHeader(path, content.length, time, FILE_MODE, '0');
+		this.gzip.write(content);
+		pad(content.length);
+		counted(false);
+	}
+
+	private void pad(long size)
+	throws IOException {
+		int rest = (int) (size % BLOCK_SIZE);
+		if (rest != 0)
+			this.gzip.write(new byte[BLOCK_SIZE - rest]);
+	}
+
+	private void writeHeader(String path, long size, long time, int mode, char type)
+	throws IOException {
+		if (size > MAX_SIZE)
+			throw new IOException(path + " too large for a tar archive");
+		byte[] name = path.getBytes(StandardCharsets.UTF_8);
+		byte[] prefix = new byte[0];
+		if (name.length > NAME_SIZE) {
+			//split at a slash, leaving a name that fits
+			int split = -1;
+			for (int i = Math.max(0, name.length - NAME_SIZE - 1); i < name.length - 1 && i <= PREFIX_SIZE; i++) {
+				if (name[i] == '/') {
+					split = i;
+					break;
+				}
+			}
+			if (split < 0)
+				throw new IOException("Name too long for a tar archive: " + path);
+			prefix = Arrays.copyOfRange(name, 0, split);
+			name = Arrays.copyOfRange(name, split + 1, name.length);
+		}
+		byte[] header = new byte[BLOCK_SIZE];
+		System.arraycopy(name, 0, header, 0, name.length);
+		octal(header, 100, 8, mode);
+		octal(header, 108, 8, 0);
+		octal(header, 116, 8, 0);
+		octal(header, 124, 12, size);
+		octal(header, 136, 12, Math.max(0, time / 1000));
+		header[156] = (byte) type;
+		System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+		header[263] = '0';
+		header[264] = '0';
+		System.arraycopy(prefix, 0, header, 345, prefix.length);
+
+		//the checksum is taken with its own field as spaces
+		for (int i = 148; i < 156; i++)
+			header[i] = ' ';
+		long checksum = 0;
+		for (byte b: header)
+			checksum += b & 0xff;
+		octal(header, 148, 7, checksum);
+		this.gzip.write(header);
+	}
+
+	/**
+	 * Put a number into a header field as octal digits, terminated by a NUL
+	 */
+	private static void octal(byte[] header, int offset, int length, long value) {
+		String digits = Long.toOctalString(value);
+		int width = length - 1;
+		for (int i = 0; i < width; i++) {
+			int digit = i - (width - digits.length());
+			header[offset + i] = (byte) (digit < 0? '0' : digits.charAt(digit));
+		}
+		header[offset + width] = 0;
+	}
+
+	@Override
+	protected void writeEnd()
+	throws IOException {
+		//two empty blocks end the archive
+		this.gzip.write(new byte[2 * BLOCK_SIZE]);
+		this.gzip.finish();
+		this.gzip.flush();
+	}
+
+	@Override
+	protected void closeStreams()
+	throws IOException {
+		try {
+			this.gzip.close();
+		}
+		finally {
+			this.file.close();
+		}
+	}
+
+}
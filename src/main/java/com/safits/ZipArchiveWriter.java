@@ -0,0 +1,264 @@
+package com.safits;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip archive, streaming each file into it as it is read.
+ * The sizes and the CRC of an entry are only known once it is written, so its local header
+ * is written with zeros first and completed in place afterwards, which keeps the archive
+ * readable by streaming readers, unlike data descriptors after stored entries.
+ *
+ * The central directory records the entries as made on unix, with their permissions.
+ * Archives of more than 65535 entries or of 4 GB and more get the zip64 extensions of {@link ZipFormat}.
+ * A file that may reach 4 GB once written gets room for its sizes in a zip64 extra field up front,
+ * as its local header is written before its data.
+ */
+class ZipArchiveWriter
+extends ArchiveWriter {
+
+	private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+	private static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+	private static final int LOCAL_SIZE = 30;
+
+	private static final int CENTRAL_SIZE = 46;
+
+	/** general purpose flag: names are UTF-8 */
+	private static final int UTF8_FLAG = 0x0800;
+
+	/** where the CRC is in a local header, followed by the sizes */
+	private static final int LOCAL_CRC_OFFSET = 14;
+
+	/** version made by: unix, zip 2.0 */
+	private static final int MADE_BY_UNIX = (3 << 8) | 20;
+
+	private static final int UNIX_FILE = 0100000;
+
+	private static final int UNIX_DIRECTORY = 0040000;
+
+	/** the MS-DOS directory attribute */
+	private static final int DOS_DIRECTORY = 0x10;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final FileChannel channel;
+
+	private final OutputStream out;
+
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	private final List<Written> written = new ArrayList<>();
+
+	/**
+	 * An entry written, as the central directory needs it
+	 */
+	private static class Written {
+
+		final byte[] name;
+
+		final int method;
+
+		final long dosTime;
+
+		final long crc;
+
+		final long compressedSize;
+
+		final long size;
+
+		final long offset;
+
+		final long externalAttributes;
+
+		Written(byte[] name, int method, long dosTime, long crc, long compressedSize, long size, long offset, long externalAttributes) {
+			this.name = name;
+			this.method = method;
+			this.dosTime = dosTime;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.offset = offset;
+			this.externalAttributes = externalAttributes;
+		}
+	}
+
+	ZipArchiveWriter(File archive)
+	throws IOException {
+		super(archive);
+		this.channel = FileChannel.open(
+				this.temporary.toPath(),
+				StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.out = new BufferedOutputStream(Channels.newOutputStream(this.channel), BUFFER_SIZE);
+	}
+
+	@Override
+	void addDirectory(String path, long time)
+	throws IOException {
+		write(path + "/", new ByteArrayInputStream(new byte[0]), 0, time,
+				((long) (UNIX_DIRECTORY | EXECUTABLE_MODE) << 16) | DOS_DIRECTORY, true);
+		counted(false);
+	}
+
+	@Override
+	void addFile(File file, String path, boolean executable)
+	throws IOException {
+		boolean store = isCompressed(path);
+		try (InputStream in = new FileInputStream(file)) {
+			write(path, in, file.length(), file.lastModified(),
+					(long) (UNIX_FILE | (executable? EXECUTABLE_MODE : FILE_MODE)) << 16, store);
+		}
+		counted(store);
+	}
+
+	@Override
+	void addContent(byte[] content, String path, long time)
+	throws IOException {
+		write(path, new ByteArrayInputStream(content), content.length, time, (long) (UNIX_FILE | FILE_MODE) << 16, false);
+		counted(false);
+	}
+
+	/**
+	 * Stream one entry into the archive and complete its local header
+	 * @param length what the input is expected to hold, to tell whether it needs zip64 sizes
+	 */
+	private void write(String path, InputStream in, long length, long time, long externalAttributes, boolean store)
+	throws IOException {
+		byte[] name = path.getBytes(StandardCharsets.UTF_8);
+		int method = store? ZipEntry.STORED : ZipEntry.DEFLATED;
+		long dosTime = JarWriter.dosTime(time, ZoneId.systemDefault());
+
+		this.out.flush();
+		long offset = this.channel.position();
+		//deflate may grow incompressible data by a few bytes per block
+		boolean zip64 = ZipFormat.overflows(length + (length >>> 11) + BUFFER_SIZE);
+		byte[] extra = zip64? ZipFormat.localExtra(0, 0) : new byte[0];
+		ByteBuffer header = ByteBuffer.allocate(LOCAL_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(LOCAL_SIGNATURE);
+		header.putShort((short) (zip64? ZipFormat.ZIP64_VERSION : versionNeeded(method)));
+		header.putShort((short) UTF8_FLAG);
+		header.putShort((short) method);
+		header.putInt((int) dosTime);
+		//CRC and sizes follow when known, the sizes in the extra field with zip64
+		header.putInt(0);
+		header.putInt(zip64? (int) ZipFormat.MAX_VALUE : 0);
+		header.putInt(zip64? (int) ZipFormat.MAX_VALUE : 0);
+		header.putShort((short) name.length);
+		header.putShort((short) extra.length);
+		this.out.write(header.array());
+		this.out.write(name);
+		this.out.write(extra);
+		long dataOffset = offset + LOCAL_SIZE + name.length + extra.length;
+
+		CRC32 crc = new CRC32();
+		long size = 0;
+		OutputStream data = this.out;
+		DeflaterOutputStream deflated = null;
+		if (!store) {
+			this.deflater.reset();
+			deflated = new DeflaterOutputStream(this.out, this.deflater, BUFFER_SIZE);
+			data = deflated;
+		}
+		int read;
+		while ((read = in.read(this.buffer)) >= 0) {
+			crc.update(this.buffer, 0, read);
+			data.write(this.buffer, 0, read);
+			size += read;
+		}
+		if (deflated != null)
+			deflated.finish();
+		this.out.flush();
+		long compressedSize = this.channel.position() - dataOffset;
+		if (!zip64 && (ZipFormat.overflows(size) || ZipFormat.overflows(compressedSize)))
+			throw new IOException(path + " grew to 4 GB while it was archived");
+
+		ByteBuffer sizes = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+		sizes.putInt((int) crc.getValue());
+		if (!zip64) {
+			sizes.putInt((int) compressedSize);
+			sizes.putInt((int) size);
+		}
+		sizes.flip();
+		patch(sizes, offset + LOCAL_CRC_OFFSET);
+		if (zip64) {
+			//past the tag and length of the extra field
+			patch(ByteBuffer.wrap(ZipFormat.localExtra(size, compressedSize), 4, 16), offset + LOCAL_SIZE + name.length + 4);
+		}
+		this.written.add(new Written(name, method, dosTime, crc.getValue(), compressedSize, size, offset, externalAttributes));
+	}
+
+	private void patch(ByteBuffer bytes, long position)
+	throws IOException {
+		while (bytes.hasRemaining())
+			position += this.channel.write(bytes, position);
+	}
+
+	private static int versionNeeded(int method) {
+		return method == ZipEntry.STORED? 10 : 20;
+	}
+
+	@Override
+	protected void writeEnd()
+	throws IOException {
+		this.out.flush();
+		long offset = this.channel.position();
+		long size = 0;
+		for (Written entry: this.written) {
+			byte[] extra = ZipFormat.centralExtra(entry.size, entry.compressedSize, entry.offset);
+			ByteBuffer header = ByteBuffer.allocate(CENTRAL_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(CENTRAL_SIGNATURE);
+			header.putShort((short) MADE_BY_UNIX);
+			header.putShort((short) (extra.length > 0? ZipFormat.ZIP64_VERSION : versionNeeded(entry.method)));
+			header.putShort((short) UTF8_FLAG);
+			header.putShort((short) entry.method);
+			header.putInt((int) entry.dosTime);
+			header.putInt((int) entry.crc);
+			header.putInt(ZipFormat.field(entry.compressedSize));
+			header.putInt(ZipFormat.field(entry.size));
+			header.putShort((short) entry.name.length);
+			header.putShort((short) extra.length);
+			header.putShort((short) 0);
+			header.putShort((short) 0);
+			header.putShort((short) 0);
+			header.putInt((int) entry.externalAttributes);
+			header.putInt(ZipFormat.field(entry.offset));
+			this.out.write(header.array());
+			this.out.write(entry.name);
+			this.out.write(extra);
+			size += CENTRAL_SIZE + entry.name.length + extra.length;
+		}
+		ZipFormat.writeEnd(this.out, this.written.size(), offset, size);
+		this.out.flush();
+	}
+
+	@Override
+	protected void closeStreams()
+	throws IOException {
+		this.deflater.end();
+		this.channel.close();
+	}
+
+}
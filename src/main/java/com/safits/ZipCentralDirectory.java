@@ -0,0 +1,308 @@
+package com.safits;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * The zip central directory reader lists the entries of a jar by reading only its end record
+ * and its central directory through a memory mapping, without touching the entry data.
+ * Single entries can then be read, either raw as they are stored or inflated.
+ * Anything that does not add up, like offsets outside of the file or missing signatures,
+ * is reported as an IOException, which is how truncated jars are detected.
+ */
+class ZipCentralDirectory {
+
+	private static final int END_SIGNATURE = 0x06054b50;
+
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+	private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+
+	private static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+	private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+	private static final int END_SIZE = 22;
+
+	private static final int CENTRAL_SIZE = 46;
+
+	private static final int LOCAL_SIZE = 30;
+
+	/**
+	 * One entry of the central directory
+	 */
+	static class Entry {
+
+		final String name;
+
+		final int method;
+
+		final long crc;
+
+		final long compressedSize;
+
+		final long size;
+
+		/** the modification time and date in MS-DOS format, as stored */
+		final long dosTime;
+
+		final long localHeaderOffset;
+
+		Entry(String name, int method, long crc, long compressedSize, long size, long dosTime, long localHeaderOffset) {
+			this.name = name;
+			this.method = method;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.dosTime = dosTime;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+
+		boolean isDirectory() {
+			return this.name.endsWith("/");
+		}
+	}
+
+	private final File file;
+
+	private final Map<String,Entry> entries;
+
+	private ZipCentralDirectory(File file, Map<String,Entry> entries) {
+		this.file = file;
+		this.entries = entries;
+	}
+
+	File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * @return the entries, in central directory order
+	 */
+	List<Entry> getEntries() {
+		return Collections.unmodifiableList(new ArrayList<>(this.entries.values()));
+	}
+
+	/**
+	 * @param name of the entry
+	 * @return the entry or null
+	 */
+	Entry getEntry(String name) {
+		return this.entries.get(name);
+	}
+
+	/**
+	 * Read the central directory of a zip file
+	 * @param path of the zip file
+	 * @return the central directory
+	 * @throws IOException if the file cannot be read or is not a valid zip file
+	 */
+	static ZipCentralDirectory read(Path path)
+	throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long length = channel.size();
+			if (length < END_SIZE)
+				throw new IOException("Too short for a zip file");
+
+			//the end record is followed by a comment of at most 64k
+			long tailLength = Math.min(length, END_SIZE + 0xffff);
+			MappedByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, length - tailLength, tailLength);
+			tail.order(ByteOrder.LITTLE_ENDIAN);
+			int end = -1;
+			for (int i = (int) tailLength - END_SIZE; i >= 0; i--) {
+				if (tail.getInt(i) == END_SIGNATURE
+						&& i + END_SIZE + (tail.getShort(i + 20) & 0xffff) == tailLength) {
+					end = i;
+					break;
+				}
+			}
+			if (end < 0)
+				throw new IOException("No end of central directory record");
+
+			long count = tail.getShort(end + 10) & 0xffff;
+			long centralSize = tail.getInt(end + 12) & 0xffffffffL;
+			long centralOffset = tail.getInt(end + 16) & 0xffffffffL;
+			if (count == 0xffff || centralSize == 0xffffffffL || centralOffset == 0xffffffffL) {
+				//zip64: the real values are in the zip64 end record, found through the locator
+				int locator = end - 20;
+				if (locator < 0 || tail.getInt(locator) != ZIP64_LOCATOR_SIGNATURE)
+					throw new IOException("No zip64 end of central directory locator");
+				long zip64End = tail.getLong(locator + 8);
+				if (zip64End < 0 || zip64End + 56 > length)
+					throw new IOException("Invalid zip64 end of central directory offset");
+				MappedByteBuffer zip64 = channel.map(FileChannel.MapMode.READ_ONLY, zip64End, 56);
+				zip64.order(ByteOrder.LITTLE_ENDIAN);
+				if (zip64.getInt(0) != ZIP64_END_SIGNATURE)
+					throw new IOException("No zip64 end of central directory record");
+				count = zip64.getLong(32);
+				centralSize = zip64.getLong(40);
+				centralOffset = zip64.getLong(48);
+			}
+			if (centralOffset < 0 || centralSize < 0 || centralOffset + centralSize > length
+					|| centralSize > Integer.MAX_VALUE)
+				throw new IOException("Central directory lies outside of the file");
+
+			MappedByteBuffer central = channel.map(FileChannel.MapMode.READ_ONLY, centralOffset, centralSize);
+			central.order(ByteOrder.LITTLE_ENDIAN);
+			Map<String,Entry> entries = new LinkedHashMap<>();
+			int position = 0;
+			for (long i = 0; i < count; i++) {
+				if (position + CENTRAL_SIZE > centralSize || central.getInt(position) != CENTRAL_SIGNATURE)
+					throw new IOException("Corrupt central directory entry " + i);
+				int method = central.getShort(position + 10) & 0xffff;
+				long dosTime = central.getInt(position + 12) & 0xffffffffL;
+				long crc = central.getInt(position + 16) & 0xffffffffL;
+				long compressedSize = central.getInt(position + 20) & 0xffffffffL;
+				long size = central.getInt(position + 24) & 0xffffffffL;
+				int nameLength = central.getShort(position + 28) & 0xffff;
+				int extraLength = central.getShort(position + 30) & 0xffff;
+				int commentLength = central.getShort(position + 32) & 0xffff;
+				long localHeaderOffset = central.getInt(position + 42) & 0xffffffffL;
+				int next = position + CENTRAL_SIZE + nameLength + extraLength + commentLength;
+				if (next > centralSize)
+					throw new IOException("Corrupt central directory entry " + i);
+				byte[] nameBytes = new byte[nameLength];
+				central.position(position + CENTRAL_SIZE);
+				central.get(nameBytes);
+				String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+				//zip64 extended information replaces the values that overflowed, in this order
+				int extra = position + CENTRAL_SIZE + nameLength;
+				int extraEnd = extra + extraLength;
+				while (extra + 4 <= extraEnd) {
+					int tag = central.getShort(extra) & 0xffff;
+					int dataSize = central.getShort(extra + 2) & 0xffff;
+					if (tag == 0x0001) {
+						int field = extra + 4;
+						if (size == 0xffffffffL && field + 8 <= extra + 4 + dataSize) {
+							size = central.getLong(field);
+							field += 8;
+						}
+						if (compressedSize == 0xffffffffL && field + 8 <= extra + 4 + dataSize) {
+							compressedSize = central.getLong(field);
+							field += 8;
+						}
+						if (localHeaderOffset == 0xffffffffL && field + 8 <= extra + 4 + dataSize)
+							localHeaderOffset = central.getLong(field);
+					}
+					extra += 4 + dataSize;
+				}
+
+				if (localHeaderOffset < 0 || localHeaderOffset + LOCAL_SIZE + compressedSize > centralOffset)
+					throw new IOException("Entry " + name + " lies outside of the file");
+				entries.put(name, new Entry(name, method, crc, compressedSize, size, dosTime, localHeaderOffset));
+				position = next;
+			}
+			return new ZipCentralDirectory(path.toFile(), entries);
+		}
+		catch (IndexOutOfBoundsException e) {
+			throw new IOException("Corrupt zip file", e);
+		}
+	}
+
+	/**
+	 * Read the data of an entry as it is stored, which is compressed for deflated entries
+	 * @param entry to read
+	 * @return the stored bytes
+	 * @throws IOException if the entry cannot be read
+	 */
+	byte[] readRaw(Entry entry)
+	throws IOException {
+		try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+			return readRaw(channel, entry);
+		}
+	}
+
+	/**
+	 * Read the data of an entry as it is stored, through an open channel on the file
+	 * @param channel on this zip file
+	 * @param entry to read
+	 * @return the stored bytes
+	 * @throws IOException if the entry cannot be read
+	 */
+	static byte[] readRaw(FileChannel channel, Entry entry)
+	throws IOException {
+		if (entry.compressedSize > Integer.MAX_VALUE)
+			throw new IOException("Entry " + entry.name + " is too large");
+		long dataOffset = dataOffset(channel, entry);
+		MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, entry.compressedSize);
+		byte[] bytes = new byte[(int) entry.compressedSize];
+		data.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Find where the data of an entry starts, behind its local header
+	 * @param channel on this zip file
+	 * @param entry whose data to find
+	 * @return the offset of the data in the file
+	 * @throws IOException if the local header is corrupt or the data is truncated
+	 */
+	static long dataOffset(FileChannel channel, Entry entry)
+	throws IOException {
+		MappedByteBuffer local = channel.map(FileChannel.MapMode.READ_ONLY, entry.localHeaderOffset, LOCAL_SIZE);
+		local.order(ByteOrder.LITTLE_ENDIAN);
+		if (local.getInt(0) != LOCAL_SIGNATURE)
+			throw new IOException("Corrupt local header of " + entry.name);
+		long dataOffset = entry.localHeaderOffset
+				+ LOCAL_SIZE
+				+ (local.getShort(26) & 0xffff)
+				+ (local.getShort(28) & 0xffff);
+		if (dataOffset + entry.compressedSize > channel.size())
+			throw new IOException("Entry " + entry.name + " is truncated");
+		return dataOffset;
+	}
+
+	/**
+	 * Read the uncompressed data of an entry
+	 * @param entry to read
+	 * @return the bytes
+	 * @throws IOException if the entry cannot be read or inflated
+	 */
+	byte[] read(Entry entry)
+	throws IOException {
+		byte[] raw = readRaw(entry);
+		if (entry.method == ZipEntry.STORED)
+			return raw;
+		if (entry.method != ZipEntry.DEFLATED)
+			throw new IOException("Unsupported compression method " + entry.method + " of " + entry.name);
+		if (entry.size > Integer.MAX_VALUE)
+			throw new IOException("Entry " + entry.name + " is too large");
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(raw);
+			byte[] bytes = new byte[(int) entry.size];
+			int length = 0;
+			while (length < bytes.length) {
+				int inflated = inflater.inflate(bytes, length, bytes.length - length);
+				if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				length += inflated;
+			}
+			if (length != bytes.length)
+				throw new IOException("Entry " + entry.name + " is truncated");
+			return bytes;
+		}
+		catch (DataFormatException e) {
+			throw new IOException("Corrupt data in entry " + entry.name, e);
+		}
+		finally {
+			inflater.end();
+		}
+	}
+
+}
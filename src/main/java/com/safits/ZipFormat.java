@@ -0,0 +1,142 @@
+package com.safits;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The zip64 extensions the jar and archive writers share. A zip file without them holds
+ * at most 65535 entries, and sizes and offsets below 4 GB. Values that do not fit are replaced
+ * by 0xffffffff in the headers and written into a zip64 extra field, and the end record is preceded
+ * by a zip64 end record and its locator. Entries and archives that fit are written without them.
+ */
+final class ZipFormat {
+
+	/** the largest value of a 4 byte field, and the marker that the value is in the zip64 extra field */
+	static final long MAX_VALUE = 0xffffffffL;
+
+	/** the largest number of entries of the end record, and the marker that it is in the zip64 end record */
+	static final int MAX_ENTRIES = 0xffff;
+
+	/** the version needed to extract entries with zip64 extensions */
+	static final int ZIP64_VERSION = 45;
+
+	private static final int ZIP64_EXTRA_TAG = 0x0001;
+
+	private static final int END_SIGNATURE = 0x06054b50;
+
+	private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+	private static final int END_SIZE = 22;
+
+	private static final int ZIP64_END_SIZE = 56;
+
+	private static final int ZIP64_LOCATOR_SIZE = 20;
+
+	/** the size of the zip64 extra field of a local header, which holds both sizes */
+	static final int LOCAL_ZIP64_EXTRA_SIZE = 20;
+
+	private ZipFormat() {
+	}
+
+	/**
+	 * @param value of a 4 byte field
+	 * @return true if it does not fit
+	 */
+	static boolean overflows(long value) {
+		return value >= MAX_VALUE;
+	}
+
+	/**
+	 * @param value of a 4 byte field
+	 * @return the value, or the marker if it does not fit
+	 */
+	static int field(long value) {
+		return (int) (overflows(value)? MAX_VALUE : value);
+	}
+
+	/**
+	 * The zip64 extra field of a local header, which holds both sizes if one does not fit.
+	 * The sizes of the local header are then both the marker.
+	 * @param size uncompressed
+	 * @param compressedSize as stored
+	 * @return the extra field
+	 */
+	static byte[] localExtra(long size, long compressedSize) {
+		ByteBuffer extra = ByteBuffer.allocate(LOCAL_ZIP64_EXTRA_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		extra.putShort((short) ZIP64_EXTRA_TAG);
+		extra.putShort((short) 16);
+		extra.putLong(size);
+		extra.putLong(compressedSize);
+		return extra.array();
+	}
+
+	/**
+	 * The zip64 extra field of a central directory header, which holds the values that do not fit, in this order
+	 * @param size uncompressed
+	 * @param compressedSize as stored
+	 * @param offset of the local header
+	 * @return the extra field, empty if all values fit
+	 */
+	static byte[] centralExtra(long size, long compressedSize, long offset) {
+		int count = (overflows(size)? 1 : 0) + (overflows(compressedSize)? 1 : 0) + (overflows(offset)? 1 : 0);
+		if (count == 0)
+			return new byte[0];
+		ByteBuffer extra = ByteBuffer.allocate(4 + 8 * count).order(ByteOrder.LITTLE_ENDIAN);
+		extra.putShort((short) ZIP64_EXTRA_TAG);
+		extra.putShort((short) (8 * count));
+		if (overflows(size))
+			extra.putLong(size);
+		if (overflows(compressedSize))
+			extra.putLong(compressedSize);
+		if (overflows(offset))
+			extra.putLong(offset);
+		return extra.array();
+	}
+
+	/**
+	 * Write the end of a zip file after its central directory, with a zip64 end record where needed
+	 * @param out to write to
+	 * @param entries the number of entries
+	 * @param centralOffset where the central directory starts
+	 * @param centralSize the size of the central directory
+	 * @throws IOException if it cannot be written
+	 */
+	static void writeEnd(OutputStream out, long entries, long centralOffset, long centralSize)
+	throws IOException {
+		if (entries >= MAX_ENTRIES || overflows(centralOffset) || overflows(centralSize)) {
+			ByteBuffer end = ByteBuffer.allocate(ZIP64_END_SIZE + ZIP64_LOCATOR_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			end.putInt(ZIP64_END_SIGNATURE);
+			//the size of the record after this field
+			end.putLong(ZIP64_END_SIZE - 12);
+			end.putShort((short) ZIP64_VERSION);
+			end.putShort((short) ZIP64_VERSION);
+			end.putInt(0);
+			end.putInt(0);
+			end.putLong(entries);
+			end.putLong(entries);
+			end.putLong(centralSize);
+			end.putLong(centralOffset);
+			end.putInt(ZIP64_LOCATOR_SIGNATURE);
+			end.putInt(0);
+			end.putLong(centralOffset + centralSize);
+			end.putInt(1);
+			out.write(end.array());
+		}
+		int count = (int) Math.min(entries, MAX_ENTRIES);
+		ByteBuffer end = ByteBuffer.allocate(END_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		end.putInt(END_SIGNATURE);
+		end.putShort((short) 0);
+		end.putShort((short) 0);
+		end.putShort((short) count);
+		end.putShort((short) count);
+		end.putInt(field(centralSize));
+		end.putInt(field(centralOffset));
+		end.putShort((short) 0);
+		out.write(end.array());
+	}
+
+}
@@ -0,0 +1,284 @@
+package com.safits;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class ArchiveWriterTest {
+
+	private static final long TIME = 1600000000000L;
+
+	private static final String LONG_PATH =
+			"product/plugins/org.example.a.rather.long.bundle.name_1.0.0.v20200101/"
+			+ "some/nested/directories/with/a/long/file/name.txt";
+
+	/**
+	 * Write a small product into an archive
+	 * @return the expected content by path, null for directories
+	 */
+	private static Map<String,byte[]> write(File directory, File archive, ArchiveWriter.Format format)
+	throws IOException {
+		byte[] random = new byte[200000];
+		new Random(1).nextBytes(random);
+		File jar = new File(directory, "lib.jar");
+		Files.write(jar.toPath(), random);
+		Files.setLastModifiedTime(jar.toPath(), FileTime.fromMillis(TIME));
+		File launcher = new File(directory, "launcher");
+		Files.write(launcher.toPath(), "#!/bin/sh\n".getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(launcher.toPath(), FileTime.fromMillis(TIME));
+		byte[] ini = "-vmargs\n-Xmx1g\n".getBytes(StandardCharsets.UTF_8);
+		byte[] text = "text".getBytes(StandardCharsets.UTF_8);
+
+		Map<String,byte[]> expected = new LinkedHashMap<>();
+		ArchiveWriter writer = ArchiveWriter.open(archive, format);
+		try {
+			writer.addDirectory("product", TIME);
+			expected.put("product/", null);
+			writer.addContent(ini, "product/launcher.ini", TIME);
+			expected.put("product/launcher.ini", ini);
+			writer.addFile(launcher, "product/launcher", true);
+			expected.put("product/launcher", "#!/bin/sh\n".getBytes(StandardCharsets.UTF_8));
+			writer.addDirectory("product/plugins", TIME);
+			expected.put("product/plugins/", null);
+			writer.addFile(jar, "product/plugins/lib.jar", false);
+			expected.put("product/plugins/lib.jar", random);
+			writer.addContent(text, LONG_PATH, TIME);
+			expected.put(LONG_PATH, text);
+			writer.finish();
+		}
+		finally {
+			writer.abort();
+		}
+		assertEquals(6, writer.getEntryCount());
+		assertEquals(1, writer.getStoredCount());
+		assertFalse(new File(archive.getPath() + ".tmp").exists());
+		return expected;
+	}
+
+	@Test
+	public void zipRoundTrip()
+	throws IOException {
+		File directory = Files.createTempDirectory("archive").toFile();
+		try {
+			File archive = new File(directory, "product.zip");
+			Map<String,byte[]> expected = write(directory, archive, ArchiveWriter.Format.ZIP);
+			Map<String,byte[]> actual = new LinkedHashMap<>();
+			try (ZipFile zip = new ZipFile(archive)) {
+				for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+					ZipEntry entry = entries.nextElement();
+					//dos times have a resolution of two seconds
+					assertEquals(entry.getName(), TIME / 2000, entry.getTime() / 2000);
+					if (entry.isDirectory())
+						actual.put(entry.getName(), null);
+					else {
+						try (InputStream in = zip.getInputStream(entry)) {
+							actual.put(entry.getName(), readAll(in));
+						}
+					}
+					if (entry.getName().endsWith(".jar"))
+						assertEquals(ZipEntry.STORED, entry.getMethod());
+				}
+			}
+			assertContent(expected, actual);
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void tarRoundTrip()
+	throws IOException {
+		File directory = Files.createTempDirectory("archive").toFile();
+		try {
+			File archive = new File(directory, "product.tar.gz");
+			Map<String,byte[]> expected = write(directory, archive, ArchiveWriter.Format.TAR_GZ);
+			Map<String,byte[]> actual = new LinkedHashMap<>();
+			byte[] tar;
+			try (InputStream in = new GZIPInputStream(Files.newInputStream(archive.toPath()))) {
+				tar = readAll(in);
+			}
+			int offset = 0;
+			while (tar[offset] != 0) {
+				String name = field(tar, offset, 100);
+				String prefix = field(tar, offset + 345, 155);
+				if (!prefix.isEmpty())
+					name = prefix + "/" + name;
+				int mode = Integer.parseInt(field(tar, offset + 100, 8), 8);
+				int size = Integer.parseInt(field(tar, offset + 124, 12), 8);
+				long time = Long.parseLong(field(tar, offset + 136, 12), 8);
+				assertEquals(name, TIME / 1000, time);
+				assertEquals("ustar", field(tar, offset + 257, 6));
+				if (name.equals("product/launcher") || name.endsWith("/"))
+					assertEquals(name, 0755, mode);
+				else
+					assertEquals(name, 0644, mode);
+				//the checksum is taken with its own field as spaces
+				long checksum = 0;
+				for (int i = 0; i < 512; i++)
+					checksum += i >= 148 && i < 156? ' ' : tar[offset + i] & 0xff;
+				assertEquals(checksum, Long.parseLong(field(tar, offset + 148, 7), 8));
+				offset += 512;
+				if (name.endsWith("/"))
+					actual.put(name, null);
+				else {
+					byte[] content = new byte[size];
+					System.arraycopy(tar, offset, content, 0, size);
+					actual.put(name, content);
+				}
+				offset += (size + 511) / 512 * 512;
+			}
+			//two empty blocks end the archive
+			assertEquals(tar.length, offset + 1024);
+			assertContent(expected, actual);
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void reproducible()
+	throws IOException {
+		File directory = Files.createTempDirectory("archive").toFile();
+		try {
+			for (ArchiveWriter.Format format: ArchiveWriter.Format.values()) {
+				File first = new File(directory, "first" + format.extension);
+				File second = new File(directory, "second" + format.extension);
+				write(directory, first, format);
+				write(directory, second, format);
+				assertArrayEquals(format.toString(), Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath()));
+			}
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void zip64ForManyEntries()
+	throws IOException {
+		File directory = Files.createTempDirectory("archive").toFile();
+		try {
+			File archive = new File(directory, "product.zip");
+			int count = ZipFormat.MAX_ENTRIES + 100;
+			ArchiveWriter writer = ArchiveWriter.open(archive, ArchiveWriter.Format.ZIP);
+			try {
+				for (int i = 0; i < count; i++)
+					writer.addContent(Integer.toString(i).getBytes(StandardCharsets.UTF_8), "product/" + i + ".txt", TIME);
+				writer.finish();
+			}
+			finally {
+				writer.abort();
+			}
+			try (ZipFile zip = new ZipFile(archive)) {
+				assertEquals(count, zip.size());
+				try (InputStream in = zip.getInputStream(zip.getEntry("product/65634.txt"))) {
+					assertEquals("65634", new String(readAll(in), StandardCharsets.UTF_8));
+				}
+			}
+			ZipCentralDirectory central = ZipCentralDirectory.read(archive.toPath());
+			assertEquals(count, central.getEntries().size());
+			assertEquals("65600", new String(central.read(central.getEntry("product/65600.txt")), StandardCharsets.UTF_8));
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void zip64ForLargeFiles()
+	throws IOException {
+		File directory = Files.createTempDirectory("archive").toFile();
+		try {
+			//sparse zeros, which deflate to a few MB
+			File large = new File(directory, "large.bin");
+			long size = ZipFormat.MAX_VALUE + 4096;
+			try (RandomAccessFile file = new RandomAccessFile(large, "rw")) {
+				file.setLength(size);
+			}
+			File archive = new File(directory, "product.zip");
+			ArchiveWriter writer = ArchiveWriter.open(archive, ArchiveWriter.Format.ZIP);
+			try {
+				writer.addFile(large, "product/large.bin", false);
+				writer.addContent("after".getBytes(StandardCharsets.UTF_8), "product/after.txt", TIME);
+				writer.finish();
+			}
+			finally {
+				writer.abort();
+			}
+			try (ZipFile zip = new ZipFile(archive)) {
+				assertEquals(size, zip.getEntry("product/large.bin").getSize());
+			}
+			//a streaming reader finds the sizes in the local header, and checks them and the CRC
+			try (ZipInputStream in = new ZipInputStream(Files.newInputStream(archive.toPath()))) {
+				assertEquals("product/large.bin", in.getNextEntry().getName());
+				byte[] buffer = new byte[1 << 16];
+				long read = 0;
+				for (int n; (n = in.read(buffer)) > 0; )
+					read += n;
+				assertEquals(size, read);
+				assertEquals("product/after.txt", in.getNextEntry().getName());
+				assertEquals("after", new String(readAll(in), StandardCharsets.UTF_8));
+			}
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void formats() {
+		assertEquals(ArchiveWriter.Format.ZIP, ArchiveWriter.Format.of("zip"));
+		assertEquals(ArchiveWriter.Format.TAR_GZ, ArchiveWriter.Format.of("tar.gz"));
+		assertTrue(ArchiveWriter.isCompressed("a/b.JAR"));
+		assertFalse(ArchiveWriter.isCompressed("a/b.txt"));
+	}
+
+	private static void assertContent(Map<String,byte[]> expected, Map<String,byte[]> actual) {
+		assertEquals(expected.keySet().toString(), actual.keySet().toString());
+		for (Map.Entry<String,byte[]> entry: expected.entrySet()) {
+			if (entry.getValue() != null)
+				assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+		}
+	}
+
+	private static String field(byte[] header, int offset, int length) {
+		int end = offset;
+		while (end < offset + length && header[end] != 0)
+			end++;
+		return new String(header, offset, end - offset, StandardCharsets.UTF_8).trim();
+	}
+
+	private static byte[] readAll(InputStream in)
+	throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) >= 0)
+			out.write(buffer, 0, read);
+		return out.toByteArray();
+	}
+
+}
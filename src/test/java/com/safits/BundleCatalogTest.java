@@ -0,0 +1,129 @@
+package com.safits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class BundleCatalogTest {
+
+	/**
+	 * Write a jar with a manifest, or with a plain entry only if the symbolic name is null
+	 */
+	private static JarRecord jar(File file, String symbolicName, String version, long time)
+	throws IOException {
+		file.getParentFile().mkdirs();
+		JarOutputStream out;
+		if (symbolicName != null) {
+			Manifest manifest = new Manifest();
+			manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+			manifest.getMainAttributes().putValue(BundleCatalog.BUNDLE_SYMBOLIC_NAME, symbolicName + ";singleton:=true");
+			manifest.getMainAttributes().putValue(BundleCatalog.BUNDLE_VERSION, version);
+			manifest.getMainAttributes().putValue("Require-Bundle", "org.example.other");
+			out = new JarOutputStream(Files.newOutputStream(file.toPath()), manifest);
+		}
+		else {
+			out = new JarOutputStream(Files.newOutputStream(file.toPath()));
+			out.putNextEntry(new ZipEntry("a/A.class"));
+			out.closeEntry();
+		}
+		out.close();
+		Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(time));
+		return JarRecord.of(file);
+	}
+
+	@Test
+	public void readsOnlyNewAndChangedJars()
+	throws IOException {
+		File directory = Files.createTempDirectory("catalog").toFile();
+		try {
+			File catalogFile = new File(directory, "catalog");
+			JarRecord a = jar(new File(directory, "plugins/a_1.0.0.jar"), "org.example.a", "1.0.0", 1000000L);
+			JarRecord b = jar(new File(directory, "plugins/b_1.0.0.jar"), "org.example.b", "1.0.0", 1000000L);
+			BundleCatalog first = new BundleCatalog(catalogFile);
+			first.refresh(Arrays.asList(a, b));
+			assertEquals(2, first.getReadCount());
+			assertEquals(0, first.getReusedCount());
+
+			BundleCatalog unchanged = new BundleCatalog(catalogFile);
+			unchanged.refresh(Arrays.asList(a, b));
+			assertEquals(0, unchanged.getReadCount());
+			assertEquals(2, unchanged.getReusedCount());
+			//what the catalog file remembers is what the jar says
+			BundleCatalog.Bundle bundle = unchanged.get(a.file);
+			assertEquals("org.example.a 1.0.0", bundle.toString());
+			assertEquals("org.example.other", bundle.headers.get("Require-Bundle"));
+
+			JarRecord changed = jar(b.file, "org.example.b", "1.1.0", 2000000L);
+			BundleCatalog refreshed = new BundleCatalog(catalogFile);
+			refreshed.refresh(Arrays.asList(a, changed));
+			assertEquals(1, refreshed.getReadCount());
+			assertEquals(1, refreshed.getReusedCount());
+			assertEquals("org.example.b 1.1.0", refreshed.get(b.file).toString());
+			assertEquals(2, refreshed.size());
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void osSpecificJarWins()
+	throws IOException {
+		File directory = Files.createTempDirectory("catalog").toFile();
+		try {
+			JarRecord common = jar(new File(directory, "common/plugins/a_1.0.0.jar"), "org.example.a", "1.0.0", 1000000L);
+			JarRecord os = jar(new File(directory, "linux/plugins/a_1.0.0.jar"), "org.example.a", "1.0.0", 1000000L);
+			JarRecord older = jar(new File(directory, "common/plugins/a_0.9.0.jar"), "org.example.a", "0.9.0", 1000000L);
+			//the exporter lists the common jars first
+			BundleCatalog catalog = new BundleCatalog(new File(directory, "catalog"));
+			catalog.refresh(Arrays.asList(older, common, os));
+			List<BundleCatalog.Bundle> candidates = catalog.candidates("org.example.a", "1.0.0");
+			assertEquals(1, candidates.size());
+			assertSame(os, candidates.get(0).jar);
+			assertEquals(2, catalog.getVersions("org.example.a").size());
+			assertSame(os, BundleCatalog.choose(catalog.candidates("org.example.a", null), BundleCatalog.Policy.HIGHEST).jar);
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void fileNameWithoutManifest()
+	throws IOException {
+		File directory = Files.createTempDirectory("catalog").toFile();
+		try {
+			File catalogFile = new File(directory, "catalog");
+			JarRecord plain = jar(new File(directory, "plugins/org.example.plain_2.1.0.v2020.jar"), null, null, 1000000L);
+			BundleCatalog catalog = new BundleCatalog(catalogFile);
+			catalog.refresh(Arrays.asList(plain));
+			BundleCatalog.Bundle bundle = catalog.get(plain.file);
+			assertEquals("org.example.plain", bundle.symbolicName);
+			assertEquals(BundleVersion.parse("2.1.0.v2020"), bundle.version);
+			assertEquals(0, bundle.headers.size());
+
+			//and so it is remembered
+			BundleCatalog reloaded = new BundleCatalog(catalogFile);
+			reloaded.refresh(Arrays.asList(plain));
+			assertEquals(1, reloaded.getReusedCount());
+			assertEquals(bundle.toString(), reloaded.get(plain.file).toString());
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.safits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class BundleResolverTest {
+
+	private static boolean includes(String range, String version) {
+		return BundleResolver.VersionRange.parse(range).includes(BundleVersion.parse(version));
+	}
+
+	@Test
+	public void versionRanges() {
+		assertTrue(includes(null, "0.0.1"));
+		assertTrue(includes("", "99"));
+
+		//a single version is the floor
+		assertTrue(includes("1.2", "1.2.0"));
+		assertTrue(includes("1.2", "3"));
+		assertFalse(includes("1.2", "1.1.9"));
+
+		assertTrue(includes("[1.0,2.0)", "1.0"));
+		assertTrue(includes("[1.0,2.0)", "1.10"));
+		assertFalse(includes("[1.0,2.0)", "2.0"));
+		assertFalse(includes("(1.0,2.0]", "1.0"));
+		assertTrue(includes("(1.0,2.0]", "2.0"));
+		assertTrue(includes(" [1.0, 2.0) ", "1.5"));
+
+		assertNull(BundleResolver.VersionRange.parse("[1.0,2.0"));
+		assertNull(BundleResolver.VersionRange.parse("[1.0)"));
+		assertNull(BundleResolver.VersionRange.parse("[a,b)"));
+		assertNull(BundleResolver.VersionRange.parse("any"));
+	}
+
+	@Test
+	public void headers() {
+		List<BundleResolver.Clause> clauses = BundleResolver.parse(
+				"a.b;c.d;version=\"[1,2)\";resolution:=optional, e.f ;x-internal:=true,"
+				+ "g.h;uses:=\"i.j,k.l\";version=3");
+		assertEquals(3, clauses.size());
+
+		BundleResolver.Clause first = clauses.get(0);
+		assertEquals(Arrays.asList("a.b", "c.d"), first.names);
+		assertEquals("[1,2)", first.attributes.get("version"));
+		assertTrue(first.isOptional());
+
+		BundleResolver.Clause second = clauses.get(1);
+		assertEquals(Arrays.asList("e.f"), second.names);
+		assertEquals("true", second.directives.get("x-internal"));
+		assertFalse(second.isOptional());
+
+		//a separator within quotes does not split
+		BundleResolver.Clause third = clauses.get(2);
+		assertEquals("i.j,k.l", third.directives.get("uses"));
+		assertEquals("3", third.attributes.get("version"));
+	}
+
+	@Test
+	public void noHeader() {
+		assertTrue(BundleResolver.parse(null).isEmpty());
+		assertTrue(BundleResolver.parse(" , ").isEmpty());
+	}
+
+	@Test
+	public void runtimePackages()
+	throws IOException {
+		Set<String> running = BundleResolver.runtimePackages();
+		assertTrue(running.contains("java.lang"));
+		assertFalse(running.contains("jdk.internal.misc"));
+		//the image of a runtime holds its modules whether the build resolved them or not
+		Set<String> configured = BundleResolver.runtimePackages(new File(System.getProperty("java.home")));
+		assertTrue(configured.containsAll(running));
+		assertFalse(configured.contains("jdk.internal.misc"));
+	}
+
+	@Test(expected = IOException.class)
+	public void notARuntime()
+	throws IOException {
+		File directory = Files.createTempDirectory("runtime").toFile();
+		try {
+			BundleResolver.runtimePackages(directory);
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+package com.safits;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BundleVersionTest {
+
+	private static void assertOrder(String... versions) {
+		for (int i = 0; i + 1 < versions.length; i++) {
+			BundleVersion lower = BundleVersion.parse(versions[i]);
+			BundleVersion higher = BundleVersion.parse(versions[i + 1]);
+			assertTrue(versions[i] + " < " + versions[i + 1], lower.compareTo(higher) < 0);
+			assertTrue(versions[i + 1] + " > " + versions[i], higher.compareTo(lower) > 0);
+		}
+	}
+
+	@Test
+	public void numbers() {
+		assertOrder("1", "1.0.1", "1.2", "1.9", "1.10", "2.0.0", "10");
+	}
+
+	@Test
+	public void missingNumbersAreZero() {
+		assertEquals(0, BundleVersion.parse("1").compareTo(BundleVersion.parse("1.0.0")));
+		assertEquals(BundleVersion.parse("1"), BundleVersion.parse("1.0.0"));
+		assertEquals(BundleVersion.parse("1").hashCode(), BundleVersion.parse("1.0.0").hashCode());
+	}
+
+	@Test
+	public void osgiQualifiers() {
+		assertOrder("1.0.0", "1.0.0.v20200101", "1.0.0.v20200102", "1.0.1");
+		//numbers within qualifiers compare numerically
+		assertOrder("1.0.0.I9", "1.0.0.I10");
+	}
+
+	@Test
+	public void mavenPreReleases() {
+		assertOrder(
+				"1.0-alpha-1",
+				"1.0-beta-2",
+				"1.0-M3",
+				"1.0-RC1",
+				"1.0-RC2",
+				"1.0-SNAPSHOT",
+				"1.0",
+				"1.0-jre",
+				"1.0.1");
+	}
+
+	@Test
+	public void notAVersion() {
+		assertNull(BundleVersion.parse("latest"));
+		assertNull(BundleVersion.parse(""));
+	}
+
+	@Test
+	public void jarNames() {
+		assertArrayEquals(
+				new String[] { "org.example.bundle", "1.2.3.v20200101" },
+				BundleVersion.splitJarName("org.example.bundle_1.2.3.v20200101.jar"));
+		assertArrayEquals(
+				new String[] { "commons-io", "2.11.0" },
+				BundleVersion.splitJarName("commons-io-2.11.0.jar"));
+		assertArrayEquals(
+				new String[] { "guava", "31.1-jre" },
+				BundleVersion.splitJarName("guava-31.1-jre.jar"));
+		assertNull(BundleVersion.splitJarName("plain.jar"));
+
+		List<String> names = new ArrayList<>(Arrays.asList(
+				"foo_1.10.jar", "foo.jar", "foo_1.9.jar", "foo_1.9.0.v2.jar", "foo_1.9.0.v10.jar"));
+		Collections.shuffle(names);
+		names.sort(BundleVersion::compareJarNames);
+		assertEquals(
+				Arrays.asList("foo.jar", "foo_1.9.jar", "foo_1.9.0.v2.jar", "foo_1.9.0.v10.jar", "foo_1.10.jar"),
+				names);
+	}
+
+	@Test
+	public void sameNumbers() {
+		assertTrue(BundleVersion.parse("1.2.0.v1").hasNumbers(BundleVersion.parse("1.2")));
+		assertFalse(BundleVersion.parse("1.2.1").hasNumbers(BundleVersion.parse("1.2")));
+	}
+
+}
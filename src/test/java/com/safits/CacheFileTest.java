@@ -0,0 +1,69 @@
+package com.safits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class CacheFileTest {
+
+	@Test
+	public void roundTrip()
+	throws IOException {
+		File directory = Files.createTempDirectory("cache").toFile();
+		try {
+			File file = new File(directory, "target/index.txt");
+			CacheFile cache = new CacheFile(file, "test index", 3);
+			assertNull(cache.read());
+			List<String> records = Arrays.asList("a 1", "b 2");
+			cache.write(records);
+			assertEquals("# pictet test index, version 3", Files.readAllLines(file.toPath()).get(0));
+			assertEquals(records, cache.read());
+			//nothing is left next to the file
+			assertEquals(1, file.getParentFile().list().length);
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void otherVersionIsNotRead()
+	throws IOException {
+		File directory = Files.createTempDirectory("cache").toFile();
+		try {
+			File file = new File(directory, "index.txt");
+			new CacheFile(file, "test index", 1).write(Arrays.asList("a 1"));
+			assertNull(new CacheFile(file, "test index", 2).read());
+			assertNull(new CacheFile(file, "other index", 1).read());
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void replaces()
+	throws IOException {
+		File directory = Files.createTempDirectory("cache").toFile();
+		try {
+			File file = new File(directory, "hash.txt");
+			CacheFile.replace(file, "old\n".getBytes(StandardCharsets.UTF_8));
+			CacheFile.replace(file, "new\n".getBytes(StandardCharsets.UTF_8));
+			assertEquals(Arrays.asList("new"), Files.readAllLines(file.toPath()));
+			assertEquals(1, directory.list().length);
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+package com.safits;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class CopyEngineTest {
+
+	private static final byte[] CONTENT = "the content of a plugin".getBytes(StandardCharsets.UTF_8);
+
+	private static File write(File file, byte[] content)
+	throws IOException {
+		Files.write(file.toPath(), content);
+		return file;
+	}
+
+	private static void run(CopyEngine engine, File source, File destination)
+	throws IOException {
+		try {
+			engine.submit(source, destination);
+			engine.await();
+		}
+		finally {
+			engine.shutdown();
+		}
+	}
+
+	@Test
+	public void copies()
+	throws IOException {
+		File directory = Files.createTempDirectory("copy-engine").toFile();
+		try {
+			File source = write(new File(directory, "source.jar"), CONTENT);
+			File destination = write(new File(directory, "destination.jar"), new byte[1000]);
+			CopyEngine engine = new CopyEngine(2);
+			run(engine, source, destination);
+			assertArrayEquals(CONTENT, Files.readAllBytes(destination.toPath()));
+			assertFalse(Files.isSameFile(source.toPath(), destination.toPath()));
+			assertEquals(1, engine.getCopied());
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void links()
+	throws IOException {
+		File directory = Files.createTempDirectory("copy-engine").toFile();
+		try {
+			File source = write(new File(directory, "source.jar"), CONTENT);
+			File destination = new File(directory, "destination.jar");
+			CopyEngine engine = new CopyEngine(2, CopyEngine.Mode.LINK);
+			run(engine, source, destination);
+			assertTrue(Files.isSameFile(source.toPath(), destination.toPath()));
+			assertEquals(1, engine.getLinked());
+			assertEquals(0, engine.getCopied());
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void copyDoesNotWriteThroughLink()
+	throws IOException {
+		File directory = Files.createTempDirectory("copy-engine").toFile();
+		try {
+			File source = write(new File(directory, "source.jar"), CONTENT);
+			File destination = new File(directory, "destination.jar");
+			run(new CopyEngine(1, CopyEngine.Mode.LINK), source, destination);
+
+			//a later export copies another version over the linked destination
+			File other = write(new File(directory, "other.jar"), "another version".getBytes(StandardCharsets.UTF_8));
+			run(new CopyEngine(1), other, destination);
+			assertArrayEquals(CONTENT, Files.readAllBytes(source.toPath()));
+			assertArrayEquals(Files.readAllBytes(other.toPath()), Files.readAllBytes(destination.toPath()));
+
+			CopyEngine.copy(source, destination);
+			assertArrayEquals(CONTENT, Files.readAllBytes(destination.toPath()));
+			assertArrayEquals("another version".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(other.toPath()));
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void copiesWhatCannotBeLinked()
+	throws IOException {
+		//links cannot cross file systems
+		Path shared = Paths.get("/dev/shm");
+		if (!Files.isDirectory(shared) || !Files.isWritable(shared))
+			return;
+		File sourceDirectory = Files.createTempDirectory(shared, "copy-engine").toFile();
+		File directory = Files.createTempDirectory("copy-engine").toFile();
+		try {
+			if (Files.getFileStore(sourceDirectory.toPath()).equals(Files.getFileStore(directory.toPath())))
+				return;
+			File source = write(new File(sourceDirectory, "source.jar"), CONTENT);
+			File destination = new File(directory, "destination.jar");
+			CopyEngine engine = new CopyEngine(1, CopyEngine.Mode.LINK);
+			engine.setSync(false);
+			run(engine, source, destination);
+			assertArrayEquals(CONTENT, Files.readAllBytes(destination.toPath()));
+			assertEquals(source.lastModified(), destination.lastModified());
+			assertEquals(1, engine.getCopied());
+			assertEquals(1, engine.getNotLinked());
+		}
+		finally {
+			FileUtils.deleteDirectory(sourceDirectory);
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void syncLeavesLinkedDestinations()
+	throws IOException {
+		File directory = Files.createTempDirectory("copy-engine").toFile();
+		try {
+			File source = write(new File(directory, "source.jar"), CONTENT);
+			long time = source.lastModified();
+			File destination = new File(directory, "destination.jar");
+			for (int i = 0; i < 2; i++) {
+				CopyEngine engine = new CopyEngine(1, CopyEngine.Mode.LINK);
+				engine.setSync(false);
+				run(engine, source, destination);
+				assertEquals(i == 0? 1 : 0, engine.getLinked());
+				assertEquals(i, engine.getUnchanged());
+			}
+			assertTrue(Files.isSameFile(source.toPath(), destination.toPath()));
+			assertEquals(time, source.lastModified());
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void syncLeavesClonedDestinations()
+	throws IOException, InterruptedException {
+		File directory = Files.createTempDirectory("copy-engine").toFile();
+		try {
+			//a cp that clones by copying, which gives the clone the time of now, as a real clone has
+			File cp = new File(directory, "cp");
+			Files.write(cp.toPath(), "#!/bin/sh\nexec cp \"$2\" \"$3\"\n".getBytes(StandardCharsets.UTF_8));
+			if (!cp.setExecutable(true) || new ProcessBuilder(cp.getPath(), "--reflink=always", cp.getPath(), cp.getPath() + ".test").start().waitFor() != 0)
+				//no shell
+				return;
+			File source = write(new File(directory, "source.jar"), CONTENT);
+			Files.setLastModifiedTime(source.toPath(), FileTime.fromMillis(1000000L));
+			File destination = new File(directory, "destination.jar");
+			for (int i = 0; i < 2; i++) {
+				CopyEngine engine = new CopyEngine(1, CopyEngine.Mode.REFLINK);
+				engine.setCp(cp.getPath());
+				engine.setSync(false);
+				run(engine, source, destination);
+				assertEquals(i == 0? 1 : 0, engine.getLinked());
+				assertEquals(0, engine.getCopied());
+				assertEquals(i, engine.getUnchanged());
+				assertEquals(1000000L, destination.lastModified());
+			}
+			assertArrayEquals(CONTENT, Files.readAllBytes(destination.toPath()));
+			assertFalse(Files.isSameFile(source.toPath(), destination.toPath()));
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void syncLeavesCurrentDestinations()
+	throws IOException {
+		File directory = Files.createTempDirectory("copy-engine").toFile();
+		try {
+			File source = write(new File(directory, "source.jar"), CONTENT);
+			File destination = new File(directory, "destination.jar");
+			CopyEngine engine = new CopyEngine(1);
+			engine.setSync(false);
+			run(engine, source, destination);
+			assertEquals(1, engine.getCopied());
+
+			engine = new CopyEngine(1);
+			engine.setSync(true);
+			run(engine, source, destination);
+			assertEquals(0, engine.getCopied());
+			assertEquals(1, engine.getUnchanged());
+			assertEquals(CONTENT.length, engine.getSavedBytes());
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+}
@@ -0,0 +1,202 @@
+package com.safits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class FeatureCatalogTest {
+
+	private static String xml(String id, String version, String body) {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<feature id=\"" + id + "\" version=\"" + version + "\">\n" + body + "</feature>\n";
+	}
+
+	/**
+	 * Write a feature directory
+	 */
+	private static void feature(File features, String id, String version, String body, long time)
+	throws IOException {
+		File featureXml = new File(features, id + "_" + version + "/feature.xml");
+		featureXml.getParentFile().mkdirs();
+		Files.write(featureXml.toPath(), xml(id, version, body).getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(featureXml.toPath(), FileTime.fromMillis(time));
+	}
+
+	/**
+	 * Write a feature jar
+	 */
+	private static void featureJar(File features, String id, String version, String body, long time)
+	throws IOException {
+		features.mkdirs();
+		File jar = new File(features, id + "_" + version + ".jar");
+		ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar.toPath()));
+		out.putNextEntry(new ZipEntry("feature.xml"));
+		out.write(xml(id, version, body).getBytes(StandardCharsets.UTF_8));
+		out.closeEntry();
+		out.close();
+		Files.setLastModifiedTime(jar.toPath(), FileTime.fromMillis(time));
+	}
+
+	private static String plugins(List<String[]> plugins) {
+		List<String> text = new ArrayList<>();
+		for (String[] plugin: plugins)
+			text.add(plugin[0] + (plugin[1] == null? "" : " " + plugin[1]));
+		return text.toString();
+	}
+
+	private static List<String[]> root(String id, String version) {
+		return Collections.singletonList(new String[] { id, version });
+	}
+
+	@Test
+	public void cacheRoundTrip()
+	throws IOException {
+		File directory = Files.createTempDirectory("features").toFile();
+		try {
+			File features = new File(directory, "features");
+			feature(features, "org.example.a", "1.0.0",
+					"<plugin id=\"org.example.p\" version=\"1.0.0\"/>\n"
+					+ "<plugin id=\"org.example.swt.linux\" version=\"3.0.0\" os=\"linux\" ws=\"gtk\" arch=\"x86_64,aarch64\"/>\n"
+					+ "<includes id=\"org.example.b\" version=\"2.0.0\"/>\n"
+					+ "<includes id=\"org.example.extra\" optional=\"true\"/>\n",
+					1000000L);
+			featureJar(features, "org.example.b", "2.0.0", "<plugin id=\"org.example.q\"/>\n", 1000000L);
+			File cacheFile = new File(directory, "cache");
+
+			FeatureCatalog first = new FeatureCatalog(cacheFile, 2);
+			first.refresh(Arrays.asList(features, new File(directory, "missing")));
+			assertEquals(2, first.getParsedCount());
+			assertEquals(0, first.getReusedCount());
+			List<String> problems = new ArrayList<>();
+			List<FeatureCatalog.Feature> resolved = first.resolve(root("org.example.a", null), BundleCatalog.Policy.HIGHEST, problems);
+			assertEquals("[]", problems.toString());
+			assertEquals("[org.example.a 1.0.0, org.example.b 2.0.0]", resolved.toString());
+			String[] linux = FeatureCatalog.platform("Linux", "amd64");
+			String parsedPlugins = plugins(FeatureCatalog.plugins(resolved, linux));
+			assertEquals("[org.example.p 1.0.0, org.example.swt.linux 3.0.0, org.example.q]", parsedPlugins);
+
+			//nothing changed, so everything comes from the cache file, filters included
+			FeatureCatalog second = new FeatureCatalog(cacheFile, 2);
+			second.refresh(Arrays.asList(features));
+			assertEquals(0, second.getParsedCount());
+			assertEquals(2, second.getReusedCount());
+			List<FeatureCatalog.Feature> cached = second.resolve(root("org.example.a", null), BundleCatalog.Policy.HIGHEST, problems);
+			assertEquals("[]", problems.toString());
+			assertEquals("[org.example.a 1.0.0, org.example.b 2.0.0]", cached.toString());
+			assertEquals(parsedPlugins, plugins(FeatureCatalog.plugins(cached, linux)));
+			assertEquals("[org.example.p 1.0.0, org.example.q]",
+					plugins(FeatureCatalog.plugins(cached, FeatureCatalog.platform("Windows 10", "amd64"))));
+
+			//a changed feature.xml is parsed again, by its fingerprint
+			feature(features, "org.example.a", "1.0.0", "<plugin id=\"org.example.r\"/>\n", 2000000L);
+			FeatureCatalog third = new FeatureCatalog(cacheFile, 2);
+			third.refresh(Arrays.asList(features));
+			assertEquals(1, third.getParsedCount());
+			assertEquals(1, third.getReusedCount());
+			List<FeatureCatalog.Feature> changed = third.resolve(root("org.example.a", null), BundleCatalog.Policy.HIGHEST, problems);
+			assertEquals("[org.example.r]", plugins(FeatureCatalog.plugins(changed, linux)));
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void includesByPolicy()
+	throws IOException {
+		File directory = Files.createTempDirectory("features").toFile();
+		try {
+			File common = new File(directory, "common");
+			File os = new File(directory, "linux");
+			feature(common, "org.example.root", "1.0.0",
+					"<includes id=\"org.example.c\"/>\n"
+					+ "<includes id=\"org.example.d\" version=\"1.0.0.qualifier\"/>\n"
+					+ "<includes id=\"org.example.optional\" optional=\"true\"/>\n",
+					1000000L);
+			feature(common, "org.example.c", "1.0.0", "", 1000000L);
+			feature(common, "org.example.c", "2.0.0", "", 1000000L);
+			feature(common, "org.example.d", "1.0.0.v1", "", 1000000L);
+			feature(common, "org.example.d", "1.1.0", "", 1000000L);
+			feature(os, "org.example.d", "1.0.0.v2", "", 1000000L);
+			feature(common, "org.example.broken", "1.0.0", "<includes id=\"org.example.missing\"/>\n", 1000000L);
+			FeatureCatalog catalog = new FeatureCatalog(new File(directory, "cache"), 4);
+			catalog.refresh(Arrays.asList(common, os));
+
+			List<String> problems = new ArrayList<>();
+			assertEquals("[org.example.root 1.0.0, org.example.c 2.0.0, org.example.d 1.0.0.v2]",
+					catalog.resolve(root("org.example.root", "1.0.0"), BundleCatalog.Policy.HIGHEST, problems).toString());
+			assertEquals("[]", problems.toString());
+
+			assertEquals("[org.example.root 1.0.0, org.example.c 1.0.0, org.example.d 1.0.0.v1]",
+					catalog.resolve(root("org.example.root", null), BundleCatalog.Policy.LOWEST, problems).toString());
+			assertEquals("[]", problems.toString());
+
+			assertEquals("[org.example.root 1.0.0]",
+					catalog.resolve(root("org.example.root", null), BundleCatalog.Policy.UNIQUE, problems).toString());
+			assertEquals(2, problems.size());
+			assertEquals("Several versions of feature org.example.c are available: [org.example.c 1.0.0, org.example.c 2.0.0]",
+					problems.get(0));
+			assertTrue(problems.get(1).startsWith("Several versions of feature org.example.d"));
+
+			problems.clear();
+			assertEquals("[org.example.broken 1.0.0]",
+					catalog.resolve(root("org.example.broken", null), BundleCatalog.Policy.HIGHEST, problems).toString());
+			assertEquals("[Cannot resolve feature org.example.missing, needed by org.example.broken 1.0.0]", problems.toString());
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void pluginsByPlatform()
+	throws IOException {
+		File directory = Files.createTempDirectory("features").toFile();
+		try {
+			File features = new File(directory, "features");
+			feature(features, "org.example.a", "1.0.0",
+					"<plugin id=\"org.example.all\" version=\"1.0.0\"/>\n"
+					+ "<plugin id=\"org.example.linux\" os=\"linux\"/>\n"
+					+ "<plugin id=\"org.example.desktop\" os=\"win32, macosx\"/>\n"
+					+ "<plugin id=\"org.example.cocoa\" ws=\"cocoa\"/>\n"
+					+ "<plugin id=\"org.example.x86\" arch=\"x86\"/>\n"
+					+ "<plugin id=\"org.example.arm\" os=\"linux,macosx\" arch=\"aarch64\"/>\n",
+					1000000L);
+			//the same plugin again from another feature is listed once
+			feature(features, "org.example.b", "1.0.0", "<plugin id=\"org.example.all\" version=\"1.0.0\"/>\n", 1000000L);
+			FeatureCatalog catalog = new FeatureCatalog(new File(directory, "cache"), 1);
+			catalog.refresh(Arrays.asList(features));
+			List<String[]> roots = Arrays.asList(new String[] { "org.example.a", null }, new String[] { "org.example.b", null });
+			List<FeatureCatalog.Feature> resolved = catalog.resolve(roots, BundleCatalog.Policy.HIGHEST, new ArrayList<>());
+
+			assertEquals("linux gtk x86_64", String.join(" ", FeatureCatalog.platform("Linux", "amd64")));
+			assertEquals("[org.example.all 1.0.0, org.example.linux]",
+					plugins(FeatureCatalog.plugins(resolved, FeatureCatalog.platform("Linux", "amd64"))));
+			assertEquals("[org.example.all 1.0.0, org.example.linux, org.example.arm]",
+					plugins(FeatureCatalog.plugins(resolved, FeatureCatalog.platform("Linux", "aarch64"))));
+			assertEquals("win32 win32 x86", String.join(" ", FeatureCatalog.platform("Windows 11", "i686")));
+			assertEquals("[org.example.all 1.0.0, org.example.desktop, org.example.x86]",
+					plugins(FeatureCatalog.plugins(resolved, FeatureCatalog.platform("Windows 11", "i686"))));
+			assertEquals("[org.example.all 1.0.0, org.example.desktop, org.example.cocoa, org.example.arm]",
+					plugins(FeatureCatalog.plugins(resolved, FeatureCatalog.platform("Mac OS X", "aarch64"))));
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+package com.safits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class InputDigestTest {
+
+	private static void write(File file, String content, long time)
+	throws IOException {
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(time));
+	}
+
+	@Test
+	public void followsNamesSizesAndTimes()
+	throws IOException {
+		File directory = Files.createTempDirectory("digest").toFile();
+		try {
+			File classes = new File(directory, "classes");
+			for (int i = 0; i < 20; i++)
+				write(new File(classes, "p" + i % 4 + "/C" + i + ".class"), "class " + i, 1000000L * i);
+			File manifest = new File(directory, "MANIFEST.MF");
+			write(manifest, "Manifest-Version: 1.0\n", 5000000L);
+			Map<String,File> inputs = new LinkedHashMap<>();
+			inputs.put("classes", classes);
+			inputs.put("manifest", manifest);
+
+			String digest = new InputDigest(1).digest("key", inputs);
+			assertEquals(digest, new InputDigest(8).digest("key", inputs));
+			assertNotEquals(digest, new InputDigest(4).digest("other key", inputs));
+
+			write(new File(classes, "p1/C5.class"), "class 5", 7000000L);
+			String touched = new InputDigest(4).digest("key", inputs);
+			assertNotEquals(digest, touched);
+
+			write(new File(classes, "p2/New.class"), "new", 7000000L);
+			assertNotEquals(touched, new InputDigest(4).digest("key", inputs));
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void linkBackUp()
+	throws IOException {
+		File directory = Files.createTempDirectory("digest").toFile();
+		try {
+			File classes = new File(directory, "classes");
+			write(new File(classes, "p/C.class"), "class", 1000000L);
+			Map<String,File> inputs = new LinkedHashMap<>();
+			inputs.put("classes", classes);
+			Files.createSymbolicLink(new File(classes, "p/loop").toPath(), classes.toPath());
+			String digest = new InputDigest(1).digest("key", inputs);
+			assertEquals(digest, new InputDigest(4).digest("key", inputs));
+			//the loop is left out, so removing it only changes the time of its directory
+			File p = new File(classes, "p");
+			FileTime time = Files.getLastModifiedTime(p.toPath());
+			Files.delete(new File(p, "loop").toPath());
+			Files.setLastModifiedTime(p.toPath(), time);
+			assertEquals(digest, new InputDigest(4).digest("key", inputs));
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void missingInput()
+	throws IOException {
+		Map<String,File> inputs = new LinkedHashMap<>();
+		inputs.put("missing", new File("/no/such/input"));
+		new InputDigest(2).digest("key", inputs);
+	}
+
+}
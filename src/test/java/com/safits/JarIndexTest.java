@@ -0,0 +1,62 @@
+package com.safits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class JarIndexTest {
+
+	@Test
+	public void packagesAndCorruption()
+	throws Exception {
+		File directory = Files.createTempDirectory("index").toFile();
+		try {
+			File jar = new File(directory, "lib.jar");
+			try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar.toPath()))) {
+				for (String name: new String[] { "META-INF/MANIFEST.MF", "a/b/C.class", "a/D.class", "module-info.class", "a/b/x.txt" }) {
+					zip.putNextEntry(new ZipEntry(name));
+					zip.closeEntry();
+				}
+			}
+			File broken = new File(directory, "broken.jar");
+			Files.write(broken.toPath(), new byte[100]);
+			File indexFile = new File(directory, "index.txt");
+
+			JarIndex index = new JarIndex(indexFile);
+			index.load();
+			Map<Path,JarIndex.JarInfo> infos = index.index(Arrays.asList(jar.toPath(), broken.toPath()), 2);
+			assertEquals(Arrays.asList("a", "a.b"), Arrays.asList(infos.get(jar.toPath()).packages.toArray()));
+			assertNull(infos.get(jar.toPath()).corruption);
+			assertNotNull(infos.get(broken.toPath()).corruption);
+			index.store();
+
+			index = new JarIndex(indexFile);
+			index.load();
+			infos = index.index(Collections.singletonList(jar.toPath()), 1);
+			assertEquals(Arrays.asList("a", "a.b"), Arrays.asList(infos.get(jar.toPath()).packages.toArray()));
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void missingJar()
+	throws Exception {
+		new JarIndex(new File("/no/such/index.txt")).index(Collections.singletonList(new File("/no/such.jar").toPath()), 1);
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.safits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class JarRecordTest {
+
+	@Test
+	public void namesAndVersions()
+	throws IOException {
+		File directory = Files.createTempDirectory("record").toFile();
+		try {
+			File jar = new File(directory, "org.example.bundle_1.2.3.v2020.jar");
+			Files.write(jar.toPath(), new byte[10]);
+			JarRecord record = JarRecord.of(jar);
+			assertEquals("org.example.bundle", record.bundleName);
+			assertEquals("1.2.3.v2020", record.versionText);
+			assertEquals(10, record.size);
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void jarReplacedInPlace()
+	throws IOException {
+		File directory = Files.createTempDirectory("record").toFile();
+		try {
+			File jar = new File(directory, "lib-1.0.jar");
+			Files.write(jar.toPath(), new byte[10]);
+			Files.setLastModifiedTime(jar.toPath(), FileTime.fromMillis(1000000L));
+			JarRecord record = JarRecord.of(jar);
+			assertSame(record, record.current());
+
+			Files.write(jar.toPath(), new byte[20]);
+			Files.setLastModifiedTime(jar.toPath(), FileTime.fromMillis(2000000L));
+			JarRecord current = record.current();
+			assertNotSame(record, current);
+			assertEquals(20, current.size);
+			assertEquals(2000000L, current.lastModified);
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void jarGone()
+	throws IOException {
+		File directory = Files.createTempDirectory("record").toFile();
+		try {
+			File jar = new File(directory, "lib-1.0.jar");
+			Files.write(jar.toPath(), new byte[10]);
+			JarRecord record = JarRecord.of(jar);
+			Files.delete(jar.toPath());
+			record.current();
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+}
@@ -0,0 +1,237 @@
+package com.safits;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class JarWriterTest {
+
+	/** larger than what is deflated in memory */
+	private static final int LARGE = JarWriter.MAX_BUFFERED_SIZE * 3 + 17;
+
+	/**
+	 * A manifest, a classes directory with small, empty and large files, and an addition
+	 */
+	private static File[] tree(File directory)
+	throws IOException {
+		File manifest = new File(directory, "MANIFEST.MF");
+		Files.write(manifest.toPath(), "Manifest-Version: 1.0\nBundle-SymbolicName: a.b\n".getBytes(StandardCharsets.UTF_8));
+		File classes = new File(directory, "classes");
+		new File(classes, "a/b").mkdirs();
+		Files.write(new File(classes, "a/b/A.class").toPath(), "small and compressible, compressible".getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(classes, "a/b/Empty.txt").toPath(), new byte[0]);
+		byte[] large = new byte[LARGE];
+		//half random, half repeated, so it deflates to more than a buffer
+		new Random(1).nextBytes(large);
+		for (int i = LARGE / 2; i < LARGE; i++)
+			large[i] = (byte) (i % 7);
+		Files.write(new File(classes, "a/b/large.bin").toPath(), large);
+		File addition = new File(directory, "lib.jar");
+		byte[] stored = new byte[JarWriter.MAX_BUFFERED_SIZE + 1];
+		new Random(2).nextBytes(stored);
+		Files.write(addition.toPath(), stored);
+		return new File[] { manifest, classes, addition };
+	}
+
+	private static JarWriter write(File jar, File[] tree, int level, int threads)
+	throws IOException {
+		JarWriter writer = new JarWriter(jar, level, threads);
+		writer.setReproducible(0);
+		writer.writeManifest(tree[0]);
+		writer.add(tree[2], "lib.jar");
+		writer.add(tree[1], "");
+		return writer;
+	}
+
+	private static void assertContent(File jar, File[] tree)
+	throws IOException {
+		try (JarFile jarFile = new JarFile(jar)) {
+			List<String> names = new ArrayList<>();
+			for (JarEntry entry: Collections.list(jarFile.entries()))
+				names.add(entry.getName());
+			assertEquals("[META-INF/, META-INF/MANIFEST.MF, a/, a/b/, a/b/A.class, a/b/Empty.txt, a/b/large.bin, lib.jar]",
+					names.toString());
+			assertEquals("a.b", jarFile.getManifest().getMainAttributes().getValue("Bundle-SymbolicName"));
+			assertEntry(jarFile, "a/b/A.class", new File(tree[1], "a/b/A.class"));
+			assertEntry(jarFile, "a/b/Empty.txt", new File(tree[1], "a/b/Empty.txt"));
+			assertEntry(jarFile, "a/b/large.bin", new File(tree[1], "a/b/large.bin"));
+			assertEntry(jarFile, "lib.jar", tree[2]);
+		}
+		//and as the central directory reader sees it
+		ZipCentralDirectory directory = ZipCentralDirectory.read(jar.toPath());
+		assertArrayEquals(Files.readAllBytes(new File(tree[1], "a/b/large.bin").toPath()),
+				directory.read(directory.getEntry("a/b/large.bin")));
+	}
+
+	private static void assertEntry(JarFile jarFile, String name, File file)
+	throws IOException {
+		try (InputStream in = jarFile.getInputStream(jarFile.getEntry(name))) {
+			assertArrayEquals(name, Files.readAllBytes(file.toPath()), in.readAllBytes());
+		}
+	}
+
+	@Test
+	public void roundTrip()
+	throws IOException {
+		File directory = Files.createTempDirectory("jar-writer").toFile();
+		try {
+			File[] tree = tree(directory);
+			for (int level: new int[] { 0, 6 }) {
+				File jar = new File(directory, "main" + level + ".jar");
+				JarWriter writer = write(jar, tree, level, 1);
+				writer.finish();
+				assertContent(jar, tree);
+				assertEquals(8, writer.getEntryCount());
+			}
+			String[] left = directory.list((dir, name) -> name.endsWith(".deflate") || name.endsWith(".tmp"));
+			assertEquals(0, left.length);
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void sameJarWhateverTheThreads()
+	throws IOException {
+		File directory = Files.createTempDirectory("jar-writer").toFile();
+		try {
+			File[] tree = tree(directory);
+			File single = new File(directory, "single.jar");
+			JarWriter singleWriter = write(single, tree, 6, 1);
+			singleWriter.finish();
+			File parallel = new File(directory, "parallel.jar");
+			JarWriter parallelWriter = write(parallel, tree, 6, 4);
+			parallelWriter.finish();
+			assertArrayEquals(Files.readAllBytes(single.toPath()), Files.readAllBytes(parallel.toPath()));
+			assertEquals(singleWriter.getSha256(), parallelWriter.getSha256());
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void reusesUnchangedEntries()
+	throws IOException {
+		File directory = Files.createTempDirectory("jar-writer").toFile();
+		try {
+			File[] tree = tree(directory);
+			File jar = new File(directory, "main.jar");
+			JarWriter first = write(jar, tree, 6, 2);
+			first.finish();
+			byte[] written = Files.readAllBytes(jar.toPath());
+			JarEntryIndex index = new JarEntryIndex(new File(directory, "main.index"));
+			index.store(jar, 6, first.getStamps());
+
+			JarEntryIndex loaded = new JarEntryIndex(new File(directory, "main.index"));
+			assertTrue(loaded.load());
+			JarWriter second = write(jar, tree, 6, 2);
+			assertTrue(second.reuseFrom(loaded));
+			second.finish();
+			assertEquals(4, second.getReusedEntryCount());
+			assertArrayEquals(written, Files.readAllBytes(jar.toPath()));
+			assertContent(jar, tree);
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void zip64ForManyEntries()
+	throws IOException {
+		File directory = Files.createTempDirectory("jar-writer").toFile();
+		try {
+			File classes = new File(directory, "classes");
+			int count = ZipFormat.MAX_ENTRIES + 100;
+			for (int i = 0; i < count; i++) {
+				File file = new File(classes, "p" + i / 1000 + "/C" + i + ".class");
+				file.getParentFile().mkdirs();
+				Files.write(file.toPath(), Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+			}
+			File jar = new File(directory, "main.jar");
+			JarWriter writer = new JarWriter(jar, 6, 4);
+			writer.setReproducible(0);
+			writer.add(classes, "");
+			writer.finish();
+			//the classes and their directories
+			int entries = count + (count + 999) / 1000;
+			assertEquals(entries, writer.getEntryCount());
+			try (ZipFile zipFile = new ZipFile(jar)) {
+				assertEquals(entries, zipFile.size());
+				try (InputStream in = zipFile.getInputStream(zipFile.getEntry("p65/C65634.class"))) {
+					assertEquals("65634", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+				}
+			}
+			ZipCentralDirectory directoryOfJar = ZipCentralDirectory.read(jar.toPath());
+			assertEquals(entries, directoryOfJar.getEntries().size());
+			assertEquals("65600", new String(directoryOfJar.read(directoryOfJar.getEntry("p65/C65600.class")),
+					StandardCharsets.UTF_8));
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void zip64ForLargeEntries()
+	throws IOException {
+		File directory = Files.createTempDirectory("jar-writer").toFile();
+		try {
+			File classes = new File(directory, "classes");
+			classes.mkdirs();
+			//sparse zeros, which deflate to a few MB
+			long size = ZipFormat.MAX_VALUE + 4096;
+			try (RandomAccessFile file = new RandomAccessFile(new File(classes, "large.bin"), "rw")) {
+				file.setLength(size);
+			}
+			Files.write(new File(classes, "after.txt").toPath(), "after".getBytes(StandardCharsets.UTF_8));
+			File jar = new File(directory, "main.jar");
+			JarWriter writer = new JarWriter(jar, 6, 2);
+			writer.setReproducible(0);
+			writer.add(classes, "");
+			writer.finish();
+			try (ZipFile zipFile = new ZipFile(jar)) {
+				assertEquals(size, zipFile.getEntry("large.bin").getSize());
+				CRC32 crc = new CRC32();
+				byte[] buffer = new byte[1 << 16];
+				long read = 0;
+				try (InputStream in = zipFile.getInputStream(zipFile.getEntry("large.bin"))) {
+					for (int n; (n = in.read(buffer)) > 0; read += n)
+						crc.update(buffer, 0, n);
+				}
+				assertEquals(size, read);
+				assertEquals(zipFile.getEntry("large.bin").getCrc(), crc.getValue());
+				try (InputStream in = zipFile.getInputStream(zipFile.getEntry("after.txt"))) {
+					assertEquals("after", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+				}
+			}
+			ZipCentralDirectory directoryOfJar = ZipCentralDirectory.read(jar.toPath());
+			assertEquals(size, directoryOfJar.getEntry("large.bin").size);
+			assertEquals("after", new String(directoryOfJar.read(directoryOfJar.getEntry("after.txt")), StandardCharsets.UTF_8));
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+}
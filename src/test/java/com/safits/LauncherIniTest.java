@@ -0,0 +1,53 @@
+package com.safits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class LauncherIniTest {
+
+	@Test
+	public void split() {
+		assertEquals(Arrays.asList(), LauncherIni.split(null));
+		assertEquals(Arrays.asList(), LauncherIni.split("  "));
+		assertEquals(
+				Arrays.asList("-Xmx1g", "-Dname=a b", "", "-Dx=1"),
+				LauncherIni.split(" -Xmx1g\t-Dname=\"a b\"  \"\" \n-Dx=1 "));
+	}
+
+	@Test
+	public void key() {
+		assertEquals("-Xmx", LauncherIni.key("-Xmx4g"));
+		assertEquals("-Xshare", LauncherIni.key("-Xshare:auto"));
+		assertEquals("-Dosgi.requiredJavaVersion", LauncherIni.key("-Dosgi.requiredJavaVersion=11"));
+		assertEquals("-XX:MaxMetaspaceSize", LauncherIni.key("-XX:MaxMetaspaceSize=256m"));
+		assertEquals("-XX:ShowCodeDetailsInExceptionMessages", LauncherIni.key("-XX:+ShowCodeDetailsInExceptionMessages"));
+		assertEquals(LauncherIni.key("-XX:+ShowCodeDetailsInExceptionMessages"), LauncherIni.key("-XX:-ShowCodeDetailsInExceptionMessages"));
+		//all collectors, selected or not, have one key
+		assertEquals(LauncherIni.key("-XX:+UseG1GC"), LauncherIni.key("-XX:-UseG1GC"));
+		assertEquals(LauncherIni.key("-XX:+UseG1GC"), LauncherIni.key("-XX:+UseZGC"));
+		assertEquals(LauncherIni.key("-XX:-UseParallelGC"), LauncherIni.key("-XX:+UseZGC"));
+	}
+
+	@Test
+	public void laterArgumentsReplaceEarlierOnes() {
+		LauncherIni ini = new LauncherIni();
+		ini.addProgramArgs(Arrays.asList("-clearPersistedState"));
+		ini.addVmArgs(Arrays.asList("-Xmx1g", "-XX:+UseG1GC", "-Da=1", "-XX:-UseParallelGC"));
+		ini.addVmArgs(Arrays.asList("-Xmx4g", "-XX:+UseZGC", "-Da=2"));
+		assertEquals(
+				Arrays.asList("-clearPersistedState", "-vmargs", "-Xmx4g", "-XX:+UseZGC", "-Da=2"),
+				ini.lines());
+	}
+
+	@Test
+	public void osSuffix() {
+		assertEquals("Lin", LauncherIni.osSuffix("linux"));
+		assertEquals("Mac", LauncherIni.osSuffix("macosx"));
+		assertNull(LauncherIni.osSuffix("aix"));
+	}
+
+}
@@ -0,0 +1,99 @@
+package com.safits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.Test;
+
+import com.safits.CompilePathSetter.Dependency;
+
+public class RepositoryResolverTest {
+
+	private static Dependency dependency(String groupId, String artifactId, String version) {
+		Dependency dependency = new Dependency();
+		dependency.groupId = groupId;
+		dependency.artifactId = artifactId;
+		dependency.version = version;
+		return dependency;
+	}
+
+	private static void install(File repository, String groupId, String artifactId, String version)
+	throws IOException {
+		File directory = new File(repository, groupId.replace('.', '/') + "/" + artifactId + "/" + version);
+		directory.mkdirs();
+		Files.write(new File(directory, artifactId + "-" + version + ".jar").toPath(), version.getBytes());
+	}
+
+	private static String failure(RepositoryResolver resolver, Dependency dependency) {
+		try {
+			resolver.resolve(new Dependency[] { dependency }, 1);
+			fail();
+			return null;
+		}
+		catch (MojoExecutionException e) {
+			return e.getMessage();
+		}
+	}
+
+	@Test
+	public void resolves()
+	throws Exception {
+		File repository = Files.createTempDirectory("repository").toFile();
+		try {
+			install(repository, "org.example", "lib", "1.0");
+			install(repository, "org.example", "other", "2.0");
+			install(repository, "com.example", "lib", "3.0");
+			Dependency[] dependencies = {
+					dependency("org.example", "lib", "1.0"),
+					dependency("com.example", "lib", "3.0"),
+					dependency("org.example", "other", "2.0") };
+			Map<Dependency,RepositoryResolver.Resolution> resolutions = new RepositoryResolver(repository).resolve(dependencies, 2);
+			assertEquals(3, resolutions.size());
+			int i = 0;
+			for (Map.Entry<Dependency,RepositoryResolver.Resolution> resolution: resolutions.entrySet()) {
+				//in the order of the dependencies
+				assertTrue(resolution.getKey() == dependencies[i++]);
+				assertEquals(
+						resolution.getKey().artifactId + "-" + resolution.getKey().version + ".jar",
+						resolution.getValue().jar.getName());
+				assertNotNull(resolution.getValue().fingerprint);
+			}
+		}
+		finally {
+			FileUtils.deleteDirectory(repository);
+		}
+	}
+
+	@Test
+	public void reportsWhatIsMissing()
+	throws Exception {
+		File repository = Files.createTempDirectory("repository").toFile();
+		try {
+			install(repository, "org.example", "lib", "1.0");
+			install(repository, "org.example", "lib", "2.0");
+			new File(repository, "org/example/lib/3.0").mkdirs();
+			RepositoryResolver resolver = new RepositoryResolver(repository);
+			String message = failure(resolver, dependency("org.example", "lib", "1.5"));
+			assertTrue(message, message.endsWith("available versions: 1.0, 2.0, 3.0"));
+			message = failure(resolver, dependency("org.example", "lib", "3.0"));
+			assertTrue(message, message.startsWith("Cannot find repository dependency ") && message.endsWith("lib-3.0.jar"));
+			message = failure(resolver, dependency("org.example", "none", "1.0"));
+			assertTrue(message, message.endsWith("none"));
+			message = failure(resolver, dependency("net.example", "lib", "1.0"));
+			assertTrue(message, message.endsWith("example"));
+		}
+		finally {
+			FileUtils.deleteDirectory(repository);
+		}
+	}
+
+}
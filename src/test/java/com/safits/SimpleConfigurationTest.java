@@ -0,0 +1,111 @@
+package com.safits;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class SimpleConfigurationTest {
+
+	private static SimpleConfiguration configuration() {
+		SimpleConfiguration configuration = new SimpleConfiguration();
+		configuration.add("org.example.b", "1.10.0", "plugins/org.example.b_1.10.0.jar");
+		configuration.add("org.example.b", "1.9.0", "plugins/org.example.b_1.9.0.jar");
+		configuration.add(SimpleConfiguration.FRAMEWORK, "3.18.0", "plugins/org.eclipse.osgi_3.18.0.jar");
+		configuration.add(SimpleConfiguration.SIMPLE_CONFIGURATOR, "1.4.0", "plugins/org.eclipse.equinox.simpleconfigurator_1.4.0.jar");
+		configuration.add("org.example.a", "1.0.0", "plugins/org.example.a_1.0.0/");
+		configuration.setStart("org.example.a", 0, true);
+		return configuration;
+	}
+
+	@Test
+	public void bundlesInfo() {
+		assertEquals(
+				"#encoding=UTF-8\n"
+				+ "#version=1\n"
+				+ "org.eclipse.equinox.simpleconfigurator,1.4.0,plugins/org.eclipse.equinox.simpleconfigurator_1.4.0.jar,1,true\n"
+				+ "org.eclipse.osgi,3.18.0,plugins/org.eclipse.osgi_3.18.0.jar,-1,true\n"
+				+ "org.example.a,1.0.0,plugins/org.example.a_1.0.0/,4,true\n"
+				+ "org.example.b,1.9.0,plugins/org.example.b_1.9.0.jar,4,false\n"
+				+ "org.example.b,1.10.0,plugins/org.example.b_1.10.0.jar,4,false\n",
+				configuration().bundlesInfo());
+		assertTrue(configuration().contains("org.example.a"));
+		assertFalse(configuration().contains("org.example.c"));
+	}
+
+	@Test
+	public void configIni() {
+		String ini = configuration().configIni(
+				Arrays.asList(
+						"#Product Runtime Configuration File",
+						"osgi.bundles=org.eclipse.core.runtime@start,\\",
+						"  org.eclipse.equinox.common@2:start",
+						"eclipse.product=org.example.old",
+						"eclipse.application=org.example.app",
+						"osgi.splashPath=platform\\:/base/plugins/org.example.a"),
+				"org.example.product",
+				null);
+		assertEquals(
+				"#Product Runtime Configuration File\n"
+				+ "eclipse.application=org.example.app\n"
+				+ "osgi.splashPath=platform\\:/base/plugins/org.example.a\n"
+				+ "eclipse.product=org.example.product\n"
+				+ "osgi.framework=file\\:plugins/org.eclipse.osgi_3.18.0.jar\n"
+				+ "osgi.bundles=org.eclipse.equinox.simpleconfigurator@1\\:start\n"
+				+ "osgi.bundles.defaultStartLevel=4\n"
+				+ "org.eclipse.equinox.simpleconfigurator.configUrl=file\\:org.eclipse.equinox.simpleconfigurator/bundles.info\n",
+				ini);
+	}
+
+	@Test
+	public void configIniWithoutBase() {
+		String ini = new SimpleConfiguration().configIni(Collections.emptyList(), null, null);
+		assertEquals(
+				"osgi.bundles=org.eclipse.equinox.simpleconfigurator@1\\:start\n"
+				+ "osgi.bundles.defaultStartLevel=4\n"
+				+ "org.eclipse.equinox.simpleconfigurator.configUrl=file\\:org.eclipse.equinox.simpleconfigurator/bundles.info\n",
+				ini);
+	}
+
+	@Test
+	public void describe()
+	throws IOException {
+		File directory = Files.createTempDirectory("bundle").toFile();
+		try {
+			Manifest manifest = new Manifest();
+			manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+			manifest.getMainAttributes().putValue("Bundle-SymbolicName", "org.example.a; singleton:=true");
+			manifest.getMainAttributes().putValue("Bundle-Version", "1.2.3.v1");
+			File jar = new File(directory, "a.jar");
+			//just the manifest
+			new JarOutputStream(Files.newOutputStream(jar.toPath()), manifest).close();
+			assertArrayEquals(new String[] { "org.example.a", "1.2.3.v1" }, SimpleConfiguration.describe(jar));
+
+			File bundleDirectory = new File(directory, "b/META-INF");
+			bundleDirectory.mkdirs();
+			Files.write(
+					new File(bundleDirectory, "MANIFEST.MF").toPath(),
+					"Manifest-Version: 1.0\nBundle-SymbolicName: org.example.b\n\n".getBytes());
+			assertArrayEquals(new String[] { "org.example.b", "0.0.0" }, SimpleConfiguration.describe(new File(directory, "b")));
+
+			assertNull(SimpleConfiguration.describe(directory));
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.safits;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class ZipCentralDirectoryTest {
+
+	private static final byte[] TEXT = "some text some text some text".getBytes(StandardCharsets.UTF_8);
+
+	private static byte[] random() {
+		byte[] random = new byte[100000];
+		new Random(2).nextBytes(random);
+		return random;
+	}
+
+	private static File zip(File directory)
+	throws IOException {
+		File zip = new File(directory, "test.zip");
+		try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip.toPath()))) {
+			out.setComment("a comment at the end");
+			out.putNextEntry(new ZipEntry("dir/"));
+			out.closeEntry();
+			out.putNextEntry(new ZipEntry("dir/text.txt"));
+			out.write(TEXT);
+			out.closeEntry();
+			byte[] random = random();
+			CRC32 crc = new CRC32();
+			crc.update(random);
+			ZipEntry stored = new ZipEntry("dir/stored.bin");
+			stored.setMethod(ZipEntry.STORED);
+			stored.setSize(random.length);
+			stored.setCrc(crc.getValue());
+			out.putNextEntry(stored);
+			out.write(random);
+			out.closeEntry();
+		}
+		return zip;
+	}
+
+	@Test
+	public void readsEntries()
+	throws IOException {
+		File directory = Files.createTempDirectory("zip").toFile();
+		try {
+			ZipCentralDirectory central = ZipCentralDirectory.read(zip(directory).toPath());
+			assertEquals(3, central.getEntries().size());
+			assertTrue(central.getEntries().get(0).isDirectory());
+			assertNull(central.getEntry("missing"));
+
+			ZipCentralDirectory.Entry text = central.getEntry("dir/text.txt");
+			assertEquals(ZipEntry.DEFLATED, text.method);
+			assertEquals(TEXT.length, text.size);
+			assertArrayEquals(TEXT, central.read(text));
+			CRC32 crc = new CRC32();
+			crc.update(TEXT);
+			assertEquals(crc.getValue(), text.crc);
+
+			ZipCentralDirectory.Entry stored = central.getEntry("dir/stored.bin");
+			assertEquals(ZipEntry.STORED, stored.method);
+			assertArrayEquals(random(), central.read(stored));
+			assertArrayEquals(random(), central.readRaw(stored));
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void rejectsBrokenFiles()
+	throws IOException {
+		File directory = Files.createTempDirectory("zip").toFile();
+		try {
+			byte[] zip = Files.readAllBytes(zip(directory).toPath());
+			File broken = new File(directory, "broken.zip");
+			for (byte[] content: new byte[][] {
+					new byte[0],
+					"not a zip file, but long enough to look for an end record".getBytes(StandardCharsets.UTF_8),
+					Arrays.copyOfRange(zip, 1000, zip.length),
+					Arrays.copyOf(zip, zip.length - 10) }) {
+				Files.write(broken.toPath(), content);
+				try {
+					ZipCentralDirectory.read(broken.toPath());
+					fail("read " + content.length + " bytes");
+				}
+				catch (IOException e) {
+					//expected
+				}
+			}
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+}